@@ -0,0 +1,6 @@
+-- 会话列表单条查询所需的索引
+-- 适用于在此之前用 public.sql 初始化的数据库，新数据库直接执行 public.sql 即可
+
+CREATE INDEX IF NOT EXISTS "private_chat_user1_id_idx" ON "public"."private_chat" USING btree ("user1_id");
+CREATE INDEX IF NOT EXISTS "private_chat_user2_id_idx" ON "public"."private_chat" USING btree ("user2_id");
+CREATE INDEX IF NOT EXISTS "private_message_chat_id_message_id_idx" ON "public"."private_message" USING btree ("chat_id", "message_id");
@@ -0,0 +1,30 @@
+-- 未读消息计数表，替代读取会话列表时对消息表的 COUNT
+-- 适用于在此之前用 public.sql 初始化的数据库，新数据库直接执行 public.sql 即可
+
+CREATE TABLE IF NOT EXISTS "public"."private_chat_unread"
+(
+    "chat_id"      int8 NOT NULL,
+    "user_id"      int4 NOT NULL,
+    "unread_count" int4 NOT NULL DEFAULT 0,
+    CONSTRAINT "private_chat_unread_pkey" PRIMARY KEY ("chat_id", "user_id"),
+    CONSTRAINT "private_unread_chat_id" FOREIGN KEY ("chat_id") REFERENCES "public"."private_chat" ("chat_id") ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT "private_unread_user_id" FOREIGN KEY ("user_id") REFERENCES "public"."user" ("user_id") ON DELETE CASCADE ON UPDATE CASCADE
+);
+COMMENT ON COLUMN "public"."private_chat_unread"."chat_id" IS '会话ID';
+COMMENT ON COLUMN "public"."private_chat_unread"."user_id" IS '用户ID';
+COMMENT ON COLUMN "public"."private_chat_unread"."unread_count" IS '未读消息数量（写入消息时增加，已读反馈时重新统计）';
+
+-- 用已有的消息填充计数，与 PrivateChatUnreadMapper.rebuildAll 相同
+INSERT INTO private_chat_unread (chat_id, user_id, unread_count)
+SELECT c.chat_id, u.user_id, COUNT(m.message_id)
+FROM private_chat c
+         CROSS JOIN LATERAL (VALUES (c.user1_id), (c.user2_id)) u(user_id)
+         LEFT JOIN private_message_acknowledge a
+                   ON a.chat_id = c.chat_id AND a.user_id = u.user_id
+         LEFT JOIN private_message m
+                   ON m.chat_id = c.chat_id
+                       AND m.receiver_id = u.user_id
+                       AND m.message_id > COALESCE(a.last_message_id, 0)
+                       AND m.is_deleted = FALSE
+GROUP BY c.chat_id, u.user_id
+ON CONFLICT (chat_id, user_id) DO UPDATE SET unread_count = EXCLUDED.unread_count;
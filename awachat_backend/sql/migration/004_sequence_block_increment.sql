@@ -0,0 +1,8 @@
+-- 私聊消息和私聊会话的ID改为由应用按块分配（SequenceIdAllocator），每次 nextval 预留 INCREMENT 个ID
+-- 适用于在此之前用 public.sql 初始化的数据库，新数据库直接执行 public.sql 即可
+--
+-- 注意：执行后，private_message 和 private_chat 的 chat_id/message_id 列默认值仍是 nextval，
+-- 手动插入数据时必须同样按块使用（取到的值 v 代表 [v, v + 1000) 整段），否则可能与应用分配的ID冲突
+
+ALTER SEQUENCE "public"."private_message_seq" INCREMENT 1000;
+ALTER SEQUENCE "public"."private_chat_seq" INCREMENT 1000;
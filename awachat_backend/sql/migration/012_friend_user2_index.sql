@@ -0,0 +1,4 @@
+-- 按用户加载好友列表时，user2 方向的查询所需的索引（user1 方向由主键覆盖）
+-- 适用于在此之前用 public.sql 初始化的数据库，新数据库直接执行 public.sql 即可
+
+CREATE INDEX IF NOT EXISTS "friend_user2_idx" ON "public"."friend" USING btree ("user2");
@@ -0,0 +1,74 @@
+-- 增量同步和已读位置改用每个用户的消息序号，替代按消息ID比较
+-- 适用于在此之前用 public.sql 初始化的数据库，新数据库直接执行 public.sql 即可
+--
+-- 消息ID由各节点按块预先分配（004），流水线模式下在批量提交之前就已分配（003），ID 顺序与提交顺序不一致，
+-- 按 message_id 推进的同步游标和已读位置会漏掉晚提交的小ID消息。
+-- 序号在写入消息的事务中从 user_message_seq 取得，取号时锁住用户的计数行直到事务提交，
+-- 因此同一用户的序号顺序就是提交顺序。
+-- 执行前需要停止应用，避免迁移期间写入没有序号的消息
+
+CREATE TABLE IF NOT EXISTS "public"."user_message_seq"
+(
+    "user_id"  int4 NOT NULL,
+    "last_seq" int8 NOT NULL DEFAULT 0,
+    CONSTRAINT "user_message_seq_pkey" PRIMARY KEY ("user_id"),
+    CONSTRAINT "user_message_seq_user_id" FOREIGN KEY ("user_id") REFERENCES "public"."user" ("user_id") ON DELETE CASCADE ON UPDATE CASCADE
+);
+COMMENT ON COLUMN "public"."user_message_seq"."user_id" IS '用户ID';
+COMMENT ON COLUMN "public"."user_message_seq"."last_seq" IS '已分配的最大消息序号';
+
+ALTER TABLE "public"."private_message" ADD COLUMN IF NOT EXISTS "sender_seq" int8;
+ALTER TABLE "public"."private_message" ADD COLUMN IF NOT EXISTS "receiver_seq" int8;
+COMMENT ON COLUMN "public"."private_message"."sender_seq" IS '消息在发送者的消息序列中的序号';
+COMMENT ON COLUMN "public"."private_message"."receiver_seq" IS '消息在接收者的消息序列中的序号';
+ALTER TABLE "public"."private_message_acknowledge" ADD COLUMN IF NOT EXISTS "last_seq" int8;
+COMMENT ON COLUMN "public"."private_message_acknowledge"."last_seq" IS '最后已读消息在该用户消息序列中的序号';
+
+-- 已有的消息按ID顺序编号，每个用户收发的消息共用一个序列
+WITH timeline AS (SELECT message_id,
+                         is_receiver,
+                         row_number() OVER (PARTITION BY user_id ORDER BY message_id, is_receiver) AS seq
+                  FROM (SELECT message_id, sender_id AS user_id, FALSE AS is_receiver
+                        FROM private_message
+                        UNION ALL
+                        SELECT message_id, receiver_id, TRUE
+                        FROM private_message) t)
+UPDATE private_message m
+SET sender_seq   = s.seq,
+    receiver_seq = r.seq
+FROM timeline s,
+     timeline r
+WHERE s.message_id = m.message_id
+  AND NOT s.is_receiver
+  AND r.message_id = m.message_id
+  AND r.is_receiver;
+
+INSERT INTO user_message_seq (user_id, last_seq)
+SELECT user_id, MAX(seq)
+FROM (SELECT sender_id AS user_id, sender_seq AS seq
+      FROM private_message
+      UNION ALL
+      SELECT receiver_id, receiver_seq
+      FROM private_message) t
+GROUP BY user_id
+ON CONFLICT (user_id) DO UPDATE SET last_seq = GREATEST(user_message_seq.last_seq, EXCLUDED.last_seq);
+
+-- 已读位置取该会话中不超过最后已读消息ID的消息里该用户的最大序号，
+-- 已读消息已被删除或 last_message_id 为 0 时也能得到正确位置，会话中没有这样的消息时为 0
+UPDATE private_message_acknowledge a
+SET last_seq = COALESCE((SELECT MAX(CASE WHEN m.receiver_id = a.user_id THEN m.receiver_seq ELSE m.sender_seq END)
+                         FROM private_message m
+                         WHERE m.chat_id = a.chat_id
+                           AND m.message_id <= a.last_message_id), 0)
+WHERE a.last_seq IS NULL;
+
+ALTER TABLE "public"."private_message" ALTER COLUMN "sender_seq" SET NOT NULL;
+ALTER TABLE "public"."private_message" ALTER COLUMN "receiver_seq" SET NOT NULL;
+ALTER TABLE "public"."private_message_acknowledge" ALTER COLUMN "last_seq" SET NOT NULL;
+
+-- 同步查询使用的索引
+CREATE INDEX IF NOT EXISTS "private_message_receiver_id_receiver_seq_idx" ON "public"."private_message" USING btree ("receiver_id", "receiver_seq");
+CREATE INDEX IF NOT EXISTS "private_message_sender_id_sender_seq_idx" ON "public"."private_message" USING btree ("sender_id", "sender_seq");
+-- 按消息ID同步时曾创建的索引，不再使用
+DROP INDEX IF EXISTS "public"."private_message_receiver_id_message_id_idx";
+DROP INDEX IF EXISTS "public"."private_message_sender_id_message_id_idx";
@@ -21,7 +21,7 @@
 -- ----------------------------
 DROP SEQUENCE IF EXISTS "public"."private_chat_seq";
 CREATE SEQUENCE "public"."private_chat_seq"
-    INCREMENT 1
+    INCREMENT 1000
     MINVALUE 1
     MAXVALUE 999999999999
     START 1
@@ -32,7 +32,7 @@ CREATE SEQUENCE "public"."private_chat_seq"
 -- ----------------------------
 DROP SEQUENCE IF EXISTS "public"."private_message_seq";
 CREATE SEQUENCE "public"."private_message_seq"
-    INCREMENT 1
+    INCREMENT 1000
     MINVALUE 1
     MAXVALUE 99999999999999
     START 1
@@ -97,7 +97,9 @@ CREATE TABLE "public"."private_message"
     "content_type" int2           NOT NULL,
     "reply_to"     int8,
     "sent_at"      timestamptz(6) NOT NULL DEFAULT now(),
-    "is_deleted"   bool           NOT NULL DEFAULT false
+    "is_deleted"   bool           NOT NULL DEFAULT false,
+    "sender_seq"   int8           NOT NULL,
+    "receiver_seq" int8           NOT NULL
 )
 ;
 COMMENT ON COLUMN "public"."private_message"."message_id" IS '消息ID';
@@ -109,6 +111,8 @@ COMMENT ON COLUMN "public"."private_message"."content_type" IS '消息类型';
 COMMENT ON COLUMN "public"."private_message"."reply_to" IS '回复的消息';
 COMMENT ON COLUMN "public"."private_message"."sent_at" IS '发送时间（有默认值）';
 COMMENT ON COLUMN "public"."private_message"."is_deleted" IS '是否已标记删除（有默认值）';
+COMMENT ON COLUMN "public"."private_message"."sender_seq" IS '消息在发送者的消息序列中的序号';
+COMMENT ON COLUMN "public"."private_message"."receiver_seq" IS '消息在接收者的消息序列中的序号';
 
 -- ----------------------------
 -- Table structure for private_message_acknowledge
@@ -118,12 +122,42 @@ CREATE TABLE "public"."private_message_acknowledge"
 (
     "chat_id"         int8 NOT NULL,
     "user_id"         int4 NOT NULL,
-    "last_message_id" int8 NOT NULL
+    "last_message_id" int8 NOT NULL,
+    "last_seq"        int8 NOT NULL
 )
 ;
 COMMENT ON COLUMN "public"."private_message_acknowledge"."chat_id" IS '会话ID';
 COMMENT ON COLUMN "public"."private_message_acknowledge"."user_id" IS '用户ID';
 COMMENT ON COLUMN "public"."private_message_acknowledge"."last_message_id" IS '最后已读消息ID';
+COMMENT ON COLUMN "public"."private_message_acknowledge"."last_seq" IS '最后已读消息在该用户消息序列中的序号';
+
+-- ----------------------------
+-- Table structure for private_chat_unread
+-- ----------------------------
+DROP TABLE IF EXISTS "public"."private_chat_unread";
+CREATE TABLE "public"."private_chat_unread"
+(
+    "chat_id"      int8 NOT NULL,
+    "user_id"      int4 NOT NULL,
+    "unread_count" int4 NOT NULL DEFAULT 0
+)
+;
+COMMENT ON COLUMN "public"."private_chat_unread"."chat_id" IS '会话ID';
+COMMENT ON COLUMN "public"."private_chat_unread"."user_id" IS '用户ID';
+COMMENT ON COLUMN "public"."private_chat_unread"."unread_count" IS '未读消息数量（写入消息时增加，已读反馈时重新统计）';
+
+-- ----------------------------
+-- Table structure for user_message_seq
+-- ----------------------------
+DROP TABLE IF EXISTS "public"."user_message_seq";
+CREATE TABLE "public"."user_message_seq"
+(
+    "user_id"  int4 NOT NULL,
+    "last_seq" int8 NOT NULL DEFAULT 0
+)
+;
+COMMENT ON COLUMN "public"."user_message_seq"."user_id" IS '用户ID';
+COMMENT ON COLUMN "public"."user_message_seq"."last_seq" IS '已分配的最大消息序号';
 
 -- ----------------------------
 -- Table structure for user
@@ -173,6 +207,39 @@ SELECT setval('"public"."private_message_seq"', 40, true);
 -- ----------------------------
 SELECT setval('"public"."userid_sequence"', 6, true);
 
+-- ----------------------------
+-- Indexes structure for table friend
+-- ----------------------------
+CREATE INDEX "friend_user2_idx" ON "public"."friend" USING btree (
+    "user2" "pg_catalog"."int4_ops" ASC NULLS LAST
+    );
+
+-- ----------------------------
+-- Indexes structure for table private_chat
+-- ----------------------------
+CREATE INDEX "private_chat_user1_id_idx" ON "public"."private_chat" USING btree (
+    "user1_id" "pg_catalog"."int4_ops" ASC NULLS LAST
+    );
+CREATE INDEX "private_chat_user2_id_idx" ON "public"."private_chat" USING btree (
+    "user2_id" "pg_catalog"."int4_ops" ASC NULLS LAST
+    );
+
+-- ----------------------------
+-- Indexes structure for table private_message
+-- ----------------------------
+CREATE INDEX "private_message_chat_id_message_id_idx" ON "public"."private_message" USING btree (
+    "chat_id" "pg_catalog"."int8_ops" ASC NULLS LAST,
+    "message_id" "pg_catalog"."int8_ops" ASC NULLS LAST
+    );
+CREATE INDEX "private_message_receiver_id_receiver_seq_idx" ON "public"."private_message" USING btree (
+    "receiver_id" "pg_catalog"."int4_ops" ASC NULLS LAST,
+    "receiver_seq" "pg_catalog"."int8_ops" ASC NULLS LAST
+    );
+CREATE INDEX "private_message_sender_id_sender_seq_idx" ON "public"."private_message" USING btree (
+    "sender_id" "pg_catalog"."int4_ops" ASC NULLS LAST,
+    "sender_seq" "pg_catalog"."int8_ops" ASC NULLS LAST
+    );
+
 -- ----------------------------
 -- Primary Key structure for table friend
 -- ----------------------------
@@ -197,6 +264,18 @@ ALTER TABLE "public"."private_message"
 ALTER TABLE "public"."private_message_acknowledge"
     ADD CONSTRAINT "private_message_acknowledge_pkey" PRIMARY KEY ("chat_id", "user_id");
 
+-- ----------------------------
+-- Primary Key structure for table private_chat_unread
+-- ----------------------------
+ALTER TABLE "public"."private_chat_unread"
+    ADD CONSTRAINT "private_chat_unread_pkey" PRIMARY KEY ("chat_id", "user_id");
+
+-- ----------------------------
+-- Primary Key structure for table user_message_seq
+-- ----------------------------
+ALTER TABLE "public"."user_message_seq"
+    ADD CONSTRAINT "user_message_seq_pkey" PRIMARY KEY ("user_id");
+
 -- ----------------------------
 -- Primary Key structure for table user
 -- ----------------------------
@@ -242,3 +321,17 @@ ALTER TABLE "public"."private_message_acknowledge"
     ADD CONSTRAINT "private_ack_chat_id" FOREIGN KEY ("chat_id") REFERENCES "public"."private_chat" ("chat_id") ON DELETE CASCADE ON UPDATE CASCADE;
 ALTER TABLE "public"."private_message_acknowledge"
     ADD CONSTRAINT "private_ack_user_id" FOREIGN KEY ("user_id") REFERENCES "public"."user" ("user_id") ON DELETE CASCADE ON UPDATE CASCADE;
+
+-- ----------------------------
+-- Foreign Keys structure for table private_chat_unread
+-- ----------------------------
+ALTER TABLE "public"."private_chat_unread"
+    ADD CONSTRAINT "private_unread_chat_id" FOREIGN KEY ("chat_id") REFERENCES "public"."private_chat" ("chat_id") ON DELETE CASCADE ON UPDATE CASCADE;
+ALTER TABLE "public"."private_chat_unread"
+    ADD CONSTRAINT "private_unread_user_id" FOREIGN KEY ("user_id") REFERENCES "public"."user" ("user_id") ON DELETE CASCADE ON UPDATE CASCADE;
+
+-- ----------------------------
+-- Foreign Keys structure for table user_message_seq
+-- ----------------------------
+ALTER TABLE "public"."user_message_seq"
+    ADD CONSTRAINT "user_message_seq_user_id" FOREIGN KEY ("user_id") REFERENCES "public"."user" ("user_id") ON DELETE CASCADE ON UPDATE CASCADE;
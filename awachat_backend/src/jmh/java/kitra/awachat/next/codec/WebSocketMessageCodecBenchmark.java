@@ -0,0 +1,95 @@
+package kitra.awachat.next.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kitra.awachat.next.dto.websocket.ChatMessageData;
+import kitra.awachat.next.dto.websocket.ReadAcknowledgeData;
+import kitra.awachat.next.dto.websocket.RequestChatHistoryData;
+import kitra.awachat.next.dto.websocket.WebSocketMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较原先的解析方式（readValue 为 WebSocketMessage 后再 convertValue）与 {@link WebSocketMessageCodec} 的单次解析，
+ * 以及编码的吞吐量。配合 gc profiler 查看每条消息分配的内存（gc.alloc.rate.norm）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebSocketMessageCodecBenchmark {
+    private static final String CHAT = """
+        {"type":"chat","data":{"id":0,"chatType":"private","msgType":"text","chatId":1024,"from":12,"to":34,\
+        "replyTo":null,"content":{"content":"你好，今天晚上一起吃饭吗？"},"sentAt":1735689600000}}""";
+    private static final String ACK = """
+        {"type":"ack","data":{"chatType":"private","chatId":1024,"lastMessageId":4096}}""";
+    private static final String HISTORY = """
+        {"type":"request_chat_history","data":{"chatType":"private","chatId":1024,"lastMessageId":4096}}""";
+    private static final String HEARTBEAT = """
+        {"type":"heartbeat","data":{"timestamp":1735689600000}}""";
+
+    @Param({"chat", "ack", "request_chat_history", "heartbeat"})
+    public String messageType;
+
+    private String payload;
+    private byte[] payloadBytes;
+    private WebSocketMessage<?> decoded;
+
+    private ObjectMapper legacyMapper;
+    private WebSocketMessageCodec codec;
+
+    @Setup
+    public void setup() throws Exception {
+        payload = switch (messageType) {
+            case WebSocketMessage.TYPE_CHAT -> CHAT;
+            case WebSocketMessage.TYPE_ACK -> ACK;
+            case WebSocketMessage.TYPE_REQUEST_CHAT_HISTORY -> HISTORY;
+            default -> HEARTBEAT;
+        };
+        payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        legacyMapper = new ObjectMapper();
+        codec = new WebSocketMessageCodec();
+        decoded = codec.decode(payload);
+    }
+
+    /**
+     * 原先 ChatWebSocketHandler 的做法：data 先解析为 LinkedHashMap，再按类型 convertValue
+     */
+    @Benchmark
+    public Object decodeLegacy() throws Exception {
+        WebSocketMessage<?> message = legacyMapper.readValue(payload, WebSocketMessage.class);
+        return switch (message.type()) {
+            case WebSocketMessage.TYPE_CHAT -> legacyMapper.convertValue(message.data(), ChatMessageData.class);
+            case WebSocketMessage.TYPE_ACK -> legacyMapper.convertValue(message.data(), ReadAcknowledgeData.class);
+            case WebSocketMessage.TYPE_REQUEST_CHAT_HISTORY ->
+                legacyMapper.convertValue(message.data(), RequestChatHistoryData.class);
+            default -> message;
+        };
+    }
+
+    @Benchmark
+    public Object decodeCodec() throws Exception {
+        return codec.decode(payload).data();
+    }
+
+    /**
+     * WebSocket 帧的原始数据是字节时，省去转换为 String 的开销
+     */
+    @Benchmark
+    public Object decodeCodecBytes() throws Exception {
+        return codec.decode(payloadBytes).data();
+    }
+
+    @Benchmark
+    public String encodeLegacy() throws Exception {
+        return legacyMapper.writeValueAsString(decoded);
+    }
+
+    @Benchmark
+    public byte[] encodeCodec() throws Exception {
+        return codec.encode(decoded);
+    }
+}
@@ -0,0 +1,98 @@
+package kitra.awachat.next.handler;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kitra.awachat.next.config.ExecutionMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 两种执行模式下 {@link InboundMessageDispatcher} 的负载测试。
+ * <p>
+ * 模拟 sessions 个同时在线的连接，每个连接连续发来 messagesPerSession 条消息，
+ * 每条消息的处理逻辑阻塞 blockMillis 毫秒（相当于一次 JDBC 往返）。一次操作是把所有消息处理完，
+ * 吞吐量 = sessions * messagesPerSession / 单次耗时。同时检查同一连接的消息是否按顺序处理。
+ * <p>
+ * PLATFORM 模式的上限约为 线程数 / blockMillis；VIRTUAL 模式随连接数增长，直到受 CPU 或内存限制。
+ * VIRTUAL 需要用 Java 21 及以上运行 JMH
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InboundDispatchBenchmark {
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ExecutionMode mode;
+
+    @Param({"100", "1000", "10000"})
+    public int sessions;
+
+    @Param({"10"})
+    public int messagesPerSession;
+
+    @Param({"5"})
+    public long blockMillis;
+
+    @Param({"64"})
+    public int platformThreads;
+
+    private InboundMessageDispatcher dispatcher;
+    private List<InboundMessageDispatcher.Mailbox> mailboxes;
+
+    @Setup
+    public void setup() {
+        dispatcher = new InboundMessageDispatcher(mode, platformThreads, messagesPerSession,
+            MailboxOverflowAction.REJECT, new SimpleMeterRegistry());
+        mailboxes = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            mailboxes.add(dispatcher.createMailbox());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Benchmark
+    public void dispatchAll() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(sessions * messagesPerSession);
+        AtomicBoolean outOfOrder = new AtomicBoolean();
+        long blockNanos = TimeUnit.MILLISECONDS.toNanos(blockMillis);
+
+        // 每个连接最近处理的消息序号，只在该连接的任务中读写
+        int[] lastSequence = new int[sessions];
+        Arrays.fill(lastSequence, -1);
+
+        for (int message = 0; message < messagesPerSession; message++) {
+            for (int session = 0; session < sessions; session++) {
+                int sequence = message;
+                int index = session;
+                boolean accepted = mailboxes.get(session).enqueue(() -> {
+                    if (lastSequence[index] != sequence - 1) {
+                        outOfOrder.set(true);
+                    }
+                    lastSequence[index] = sequence;
+                    LockSupport.parkNanos(blockNanos);
+                    done.countDown();
+                });
+                if (!accepted) {
+                    throw new IllegalStateException("Mailbox 容量不足");
+                }
+            }
+        }
+
+        done.await();
+        if (outOfOrder.get()) {
+            throw new IllegalStateException("同一连接的消息没有按顺序处理");
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package kitra.awachat.next.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比会话列表的旧实现（每个会话分别查询对方用户、最后一条消息、已读记录和未读数量）和
+ * {@code PrivateChatMapper.selectChatSummaries} 的单条查询加一次批量查询用户资料。
+ * <p>
+ * 需要一个可写的 PostgreSQL 数据库，通过 {@code ./gradlew jmh -PbenchJdbcUrl=...} 指定，未指定时 build.gradle 会排除本测试。
+ * Setup 时插入一个用户和他的 chats 个会话（每个会话 messagesPerChat 条消息，一半的会话有已读记录），TearDown 时删除
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatListQueryBenchmark {
+    private static final String USERNAME_PREFIX = "bench_chatlist_";
+
+    @Param({"300"})
+    public int chats;
+
+    @Param({"50"})
+    public int messagesPerChat;
+
+    private Connection connection;
+    private int userId;
+
+    private PreparedStatement chatsStatement;
+    private PreparedStatement userStatement;
+    private PreparedStatement lastMessageByIdStatement;
+    private PreparedStatement lastMessageStatement;
+    private PreparedStatement ackStatement;
+    private PreparedStatement unreadStatement;
+    private PreparedStatement summaryStatement;
+    private PreparedStatement usersStatement;
+
+    @Setup
+    public void setup() throws SQLException {
+        String url = System.getProperty("awachat.bench.jdbc-url");
+        if (url == null) {
+            throw new IllegalStateException("需要用 -PbenchJdbcUrl 指定数据库");
+        }
+        connection = DriverManager.getConnection(url);
+        cleanUp();
+        seed();
+
+        chatsStatement = connection.prepareStatement(
+            "SELECT chat_id, user1_id, user2_id, last_message_id FROM private_chat WHERE user1_id = ? OR user2_id = ?");
+        userStatement = connection.prepareStatement(
+            "SELECT user_id, username, nickname FROM \"user\" WHERE user_id = ?");
+        lastMessageByIdStatement = connection.prepareStatement(
+            "SELECT content FROM private_message WHERE message_id = ?");
+        lastMessageStatement = connection.prepareStatement(
+            "SELECT content FROM private_message WHERE chat_id = ? ORDER BY message_id DESC LIMIT 1");
+        ackStatement = connection.prepareStatement(
+            "SELECT last_message_id FROM private_message_acknowledge WHERE chat_id = ? AND user_id = ?");
+        unreadStatement = connection.prepareStatement(
+            "SELECT count(*) FROM private_message " +
+                "WHERE chat_id = ? AND receiver_id = ? AND is_deleted = FALSE AND message_id > ?");
+        // 与 PrivateChatMapper.xml 中的 selectChatSummaries 相同
+        summaryStatement = connection.prepareStatement(
+            "SELECT c.chat_id, c.created_at, c.updated_at, " +
+                "       CASE WHEN c.user1_id = ? THEN c.user2_id ELSE c.user1_id END AS peer_id, " +
+                "       lm.content_type, lm.content ->> 'content', COALESCE(uc.unread_count, 0) " +
+                "FROM private_chat c " +
+                "LEFT JOIN LATERAL (SELECT m.content_type, m.content FROM private_message m " +
+                "                   WHERE m.chat_id = c.chat_id " +
+                "                     AND (c.last_message_id IS NULL OR m.message_id = c.last_message_id) " +
+                "                   ORDER BY m.message_id DESC LIMIT 1) lm ON TRUE " +
+                "LEFT JOIN private_chat_unread uc ON uc.chat_id = c.chat_id AND uc.user_id = ? " +
+                "WHERE c.user1_id = ? OR c.user2_id = ?");
+        usersStatement = connection.prepareStatement(
+            "SELECT user_id, username, nickname FROM \"user\" WHERE user_id = ANY (?)");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        cleanUp();
+        connection.close();
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) throws SQLException {
+        chatsStatement.setInt(1, userId);
+        chatsStatement.setInt(2, userId);
+        try (ResultSet chatRows = chatsStatement.executeQuery()) {
+            while (chatRows.next()) {
+                long chatId = chatRows.getLong(1);
+                int peerId = chatRows.getInt(2) == userId ? chatRows.getInt(3) : chatRows.getInt(2);
+                long lastMessageId = chatRows.getLong(4);
+                boolean hasLastMessage = !chatRows.wasNull();
+
+                userStatement.setInt(1, peerId);
+                consume(userStatement, blackhole);
+
+                if (hasLastMessage) {
+                    lastMessageByIdStatement.setLong(1, lastMessageId);
+                    consume(lastMessageByIdStatement, blackhole);
+                } else {
+                    lastMessageStatement.setLong(1, chatId);
+                    consume(lastMessageStatement, blackhole);
+                }
+
+                ackStatement.setLong(1, chatId);
+                ackStatement.setInt(2, userId);
+                long acknowledged = 0;
+                try (ResultSet ack = ackStatement.executeQuery()) {
+                    if (ack.next()) {
+                        acknowledged = ack.getLong(1);
+                    }
+                }
+
+                unreadStatement.setLong(1, chatId);
+                unreadStatement.setInt(2, userId);
+                unreadStatement.setLong(3, acknowledged);
+                consume(unreadStatement, blackhole);
+            }
+        }
+    }
+
+    @Benchmark
+    public void setBased(Blackhole blackhole) throws SQLException {
+        summaryStatement.setInt(1, userId);
+        summaryStatement.setInt(2, userId);
+        summaryStatement.setInt(3, userId);
+        summaryStatement.setInt(4, userId);
+        List<Integer> peerIds = new ArrayList<>();
+        try (ResultSet resultSet = summaryStatement.executeQuery()) {
+            while (resultSet.next()) {
+                peerIds.add(resultSet.getInt(4));
+                blackhole.consume(resultSet.getString(6));
+                blackhole.consume(resultSet.getInt(7));
+            }
+        }
+        Array peerArray = connection.createArrayOf("int4", peerIds.toArray());
+        usersStatement.setArray(1, peerArray);
+        consume(usersStatement, blackhole);
+        peerArray.free();
+    }
+
+    private void seed() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+            "INSERT INTO \"user\" (username, nickname, password) VALUES (?, ?, 'x') RETURNING user_id")) {
+            statement.setString(1, USERNAME_PREFIX + "owner");
+            statement.setString(2, USERNAME_PREFIX + "owner");
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                userId = resultSet.getInt(1);
+            }
+        }
+        update("INSERT INTO \"user\" (username, nickname, password) " +
+            "SELECT ? || 'peer_' || g, ? || 'peer_' || g, 'x' FROM generate_series(1, ?) g",
+            USERNAME_PREFIX, USERNAME_PREFIX, chats);
+        update("INSERT INTO private_chat (user1_id, user2_id) " +
+            "SELECT LEAST(?, u.user_id), GREATEST(?, u.user_id) FROM \"user\" u WHERE u.username LIKE ? || 'peer_%'",
+            userId, userId, USERNAME_PREFIX);
+        update("INSERT INTO private_message (chat_id, sender_id, receiver_id, content, content_type, sender_seq, receiver_seq) " +
+            "SELECT c.chat_id, " +
+            "       CASE WHEN g % 2 = 0 THEN c.user1_id ELSE c.user2_id END, " +
+            "       CASE WHEN g % 2 = 0 THEN c.user2_id ELSE c.user1_id END, " +
+            "       jsonb_build_object('content', 'message ' || g), 0, 0, 0 " +
+            "FROM private_chat c, generate_series(1, ?) g " +
+            "WHERE c.user1_id = ? OR c.user2_id = ? " +
+            "ORDER BY c.chat_id, g",
+            messagesPerChat, userId, userId);
+        // 与 sql/migration/019_user_message_seq.sql 相同，按消息ID为每个用户的消息编号
+        update("WITH seeded AS (SELECT message_id, sender_id, receiver_id FROM private_message " +
+            "                WHERE chat_id IN (SELECT chat_id FROM private_chat WHERE user1_id = ? OR user2_id = ?)), " +
+            "     timeline AS (SELECT message_id, is_receiver, " +
+            "                         row_number() OVER (PARTITION BY user_id ORDER BY message_id, is_receiver) AS seq " +
+            "                  FROM (SELECT message_id, sender_id AS user_id, FALSE AS is_receiver FROM seeded " +
+            "                        UNION ALL SELECT message_id, receiver_id, TRUE FROM seeded) t) " +
+            "UPDATE private_message m SET sender_seq = s.seq, receiver_seq = r.seq " +
+            "FROM timeline s, timeline r " +
+            "WHERE s.message_id = m.message_id AND NOT s.is_receiver AND r.message_id = m.message_id AND r.is_receiver",
+            userId, userId);
+        update("UPDATE private_chat c " +
+            "SET last_message_id = (SELECT MAX(m.message_id) FROM private_message m WHERE m.chat_id = c.chat_id) " +
+            "WHERE c.user1_id = ? OR c.user2_id = ?",
+            userId, userId);
+        update("INSERT INTO private_message_acknowledge (chat_id, user_id, last_message_id, last_seq) " +
+            "SELECT c.chat_id, ?, m.message_id, CASE WHEN m.receiver_id = ? THEN m.receiver_seq ELSE m.sender_seq END " +
+            "FROM private_chat c " +
+            "CROSS JOIN LATERAL (SELECT * FROM private_message m WHERE m.chat_id = c.chat_id " +
+            "                    ORDER BY m.message_id OFFSET ? LIMIT 1) m " +
+            "WHERE (c.user1_id = ? OR c.user2_id = ?) AND c.chat_id % 2 = 0",
+            userId, userId, messagesPerChat / 2, userId, userId);
+        // 与 PrivateChatUnreadMapper.xml 中的 rebuildAll 相同，只针对本测试的会话
+        update("INSERT INTO private_chat_unread (chat_id, user_id, unread_count) " +
+            "SELECT c.chat_id, ?, COUNT(m.message_id) " +
+            "FROM private_chat c " +
+            "LEFT JOIN private_message_acknowledge a ON a.chat_id = c.chat_id AND a.user_id = ? " +
+            "LEFT JOIN private_message m ON m.chat_id = c.chat_id AND m.receiver_id = ? " +
+            "     AND m.receiver_seq > COALESCE(a.last_seq, 0) AND m.is_deleted = FALSE " +
+            "WHERE c.user1_id = ? OR c.user2_id = ? " +
+            "GROUP BY c.chat_id " +
+            "ON CONFLICT (chat_id, user_id) DO UPDATE SET unread_count = EXCLUDED.unread_count",
+            userId, userId, userId, userId, userId);
+        update("ANALYZE private_chat");
+        update("ANALYZE private_message");
+    }
+
+    /**
+     * 删除本测试插入的数据。删除会话时级联删除消息、已读记录和未读计数，之后才能删除用户
+     */
+    private void cleanUp() throws SQLException {
+        update("DELETE FROM private_chat WHERE user1_id IN (SELECT user_id FROM \"user\" WHERE username LIKE ? || '%') " +
+            "OR user2_id IN (SELECT user_id FROM \"user\" WHERE username LIKE ? || '%')",
+            USERNAME_PREFIX, USERNAME_PREFIX);
+        update("DELETE FROM \"user\" WHERE username LIKE ? || '%'", USERNAME_PREFIX);
+    }
+
+    private void update(String sql, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            statement.execute();
+        }
+    }
+
+    private static void consume(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getObject(1));
+            }
+        }
+    }
+}
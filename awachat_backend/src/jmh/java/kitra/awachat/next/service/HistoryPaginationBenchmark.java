@@ -0,0 +1,155 @@
+package kitra.awachat.next.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比历史消息的键集分页（{@code PrivateMessageMapper.selectHistoryBefore} 使用的 SQL）和 OFFSET 分页。
+ * <p>
+ * 需要一个可写的 PostgreSQL 数据库，通过 {@code ./gradlew jmh -PbenchJdbcUrl=jdbc:postgresql://host/db?user=..&password=..}
+ * 指定，未指定时 build.gradle 会排除本测试。Setup 时插入两个用户和他们之间的一个会话，在会话中生成 messages 条消息，
+ * TearDown 时删除；depth 为要翻过的消息数量，即第几页 × 每页数量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryPaginationBenchmark {
+    private static final String USERNAME_PREFIX = "bench_history_";
+
+    @Param({"1000000"})
+    public int messages;
+
+    @Param({"0", "10000", "500000"})
+    public int depth;
+
+    @Param({"20"})
+    public int pageSize;
+
+    private Connection connection;
+    private long chatId;
+    private PreparedStatement keysetStatement;
+    private PreparedStatement offsetStatement;
+    private long cursor;
+
+    @Setup
+    public void setup() throws SQLException {
+        String url = System.getProperty("awachat.bench.jdbc-url");
+        if (url == null) {
+            throw new IllegalStateException("需要用 -PbenchJdbcUrl 指定数据库");
+        }
+        connection = DriverManager.getConnection(url);
+        cleanUp();
+        seed();
+
+        // 第 depth 条消息（按ID降序）的ID，作为键集分页的游标
+        try (PreparedStatement statement = connection.prepareStatement(
+            "SELECT message_id FROM private_message WHERE chat_id = ? ORDER BY message_id DESC OFFSET ? LIMIT 1")) {
+            statement.setLong(1, chatId);
+            statement.setInt(2, depth);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                cursor = resultSet.getLong(1);
+            }
+        }
+
+        keysetStatement = connection.prepareStatement(
+            "SELECT message_id, chat_id, sender_id, receiver_id, content, content_type, reply_to, sent_at, is_deleted " +
+                "FROM private_message WHERE chat_id = ? AND message_id < ? ORDER BY message_id DESC LIMIT ?");
+        offsetStatement = connection.prepareStatement(
+            "SELECT message_id, chat_id, sender_id, receiver_id, content, content_type, reply_to, sent_at, is_deleted " +
+                "FROM private_message WHERE chat_id = ? ORDER BY message_id DESC OFFSET ? LIMIT ?");
+    }
+
+    private void seed() throws SQLException {
+        int user1 = insertUser("a");
+        int user2 = insertUser("b");
+        try (PreparedStatement statement = connection.prepareStatement(
+            "INSERT INTO private_chat (user1_id, user2_id) VALUES (?, ?) RETURNING chat_id")) {
+            statement.setInt(1, Math.min(user1, user2));
+            statement.setInt(2, Math.max(user1, user2));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                chatId = resultSet.getLong(1);
+            }
+        }
+        // 消息ID取负数区间，不与真实消息冲突，也不消耗消息ID序列
+        // 两个用户只有这一个会话，序号就是第几条消息
+        update("INSERT INTO private_message (message_id, chat_id, sender_id, receiver_id, content, content_type, sender_seq, receiver_seq) " +
+                "SELECT -10000000000 + i, ?, ?, ?, jsonb_build_object('content', 'benchmark message ' || i), 0, i, i " +
+                "FROM generate_series(1, ?) AS i",
+            chatId, user1, user2, messages);
+        update("ANALYZE private_message");
+    }
+
+    private int insertUser(String suffix) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+            "INSERT INTO \"user\" (username, nickname, password) VALUES (?, ?, 'x') RETURNING user_id")) {
+            statement.setString(1, USERNAME_PREFIX + suffix);
+            statement.setString(2, USERNAME_PREFIX + suffix);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * 删除本测试插入的数据。删除会话时级联删除消息，之后才能删除用户
+     */
+    private void cleanUp() throws SQLException {
+        update("DELETE FROM private_chat WHERE user1_id IN (SELECT user_id FROM \"user\" WHERE username LIKE ? || '%') " +
+                "OR user2_id IN (SELECT user_id FROM \"user\" WHERE username LIKE ? || '%')",
+            USERNAME_PREFIX, USERNAME_PREFIX);
+        update("DELETE FROM \"user\" WHERE username LIKE ? || '%'", USERNAME_PREFIX);
+    }
+
+    private void update(String sql, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            statement.execute();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        cleanUp();
+        connection.close();
+    }
+
+    @Benchmark
+    public void keyset(Blackhole blackhole) throws SQLException {
+        keysetStatement.setLong(1, chatId);
+        keysetStatement.setLong(2, cursor);
+        keysetStatement.setInt(3, pageSize);
+        consume(keysetStatement, blackhole);
+    }
+
+    @Benchmark
+    public void offset(Blackhole blackhole) throws SQLException {
+        offsetStatement.setLong(1, chatId);
+        offsetStatement.setInt(2, depth + 1);
+        offsetStatement.setInt(3, pageSize);
+        consume(offsetStatement, blackhole);
+    }
+
+    private static void consume(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+                blackhole.consume(resultSet.getString(5));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package kitra.awachat.next.session;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SessionRegistry} 与原先 ConcurrentMap&lt;Integer, Set&lt;...&gt;&gt; 实现的对比。
+ * <p>
+ * lookup 模拟转发消息时按用户ID取出全部会话，connectDisconnect 模拟连接的建立和断开，
+ * populate 从空表开始填充 users 个用户（每人 devicesPerUser 个会话）。
+ * 每次操作分配的内存由 build.gradle 中配置的 gc profiler 统计（gc.alloc.rate.norm），
+ * populate 的分配量包括扩容和写时复制丢弃的部分，是常驻内存的上限估计
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SessionRegistryBenchmark {
+    @Param({"REGISTRY", "CONCURRENT_MAP"})
+    public Implementation implementation;
+
+    @Param({"10000", "200000"})
+    public int users;
+
+    @Param({"2"})
+    public int devicesPerUser;
+
+    private Registry registry;
+
+    @Setup
+    public void setup() {
+        registry = populate(implementation, users, devicesPerUser);
+    }
+
+    @Benchmark
+    public void lookup(Blackhole blackhole) {
+        int userId = ThreadLocalRandom.current().nextInt(users) + 1;
+        registry.forEach(userId, blackhole);
+    }
+
+    @Benchmark
+    public boolean connectDisconnect() {
+        int userId = ThreadLocalRandom.current().nextInt(users) + 1;
+        Object session = new Object();
+        registry.add(userId, session);
+        return registry.remove(userId, session);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public Registry populate() {
+        return populate(implementation, users, devicesPerUser);
+    }
+
+    private static Registry populate(Implementation implementation, int users, int devicesPerUser) {
+        Registry registry = implementation.create();
+        for (int userId = 1; userId <= users; userId++) {
+            for (int device = 0; device < devicesPerUser; device++) {
+                registry.add(userId, new Object());
+            }
+        }
+        return registry;
+    }
+
+    public enum Implementation {
+        REGISTRY {
+            @Override
+            Registry create() {
+                SessionRegistry<Object> registry = new SessionRegistry<>(64, Object[]::new);
+                return new Registry() {
+                    @Override
+                    public void add(int userId, Object session) {
+                        registry.add(userId, session);
+                    }
+
+                    @Override
+                    public boolean remove(int userId, Object session) {
+                        return registry.remove(userId, session);
+                    }
+
+                    @Override
+                    public void forEach(int userId, Blackhole blackhole) {
+                        for (Object session : registry.get(userId)) {
+                            blackhole.consume(session);
+                        }
+                    }
+                };
+            }
+        },
+        // 原先 WebSocketSessionManager 中的实现
+        CONCURRENT_MAP {
+            @Override
+            Registry create() {
+                ConcurrentMap<Integer, Set<Object>> userSessions = new ConcurrentHashMap<>();
+                return new Registry() {
+                    @Override
+                    public void add(int userId, Object session) {
+                        userSessions.compute(userId, (key, sessions) -> {
+                            if (sessions == null) sessions = ConcurrentHashMap.newKeySet();
+                            sessions.add(session);
+                            return sessions;
+                        });
+                    }
+
+                    @Override
+                    public boolean remove(int userId, Object session) {
+                        return userSessions.computeIfPresent(userId, (key, sessions) -> {
+                            sessions.remove(session);
+                            return sessions.isEmpty() ? null : sessions;
+                        }) == null;
+                    }
+
+                    @Override
+                    public void forEach(int userId, Blackhole blackhole) {
+                        for (Object session : userSessions.getOrDefault(userId, Collections.emptySet())) {
+                            blackhole.consume(session);
+                        }
+                    }
+                };
+            }
+        };
+
+        abstract Registry create();
+    }
+
+    public interface Registry {
+        void add(int userId, Object session);
+
+        boolean remove(int userId, Object session);
+
+        void forEach(int userId, Blackhole blackhole);
+    }
+}
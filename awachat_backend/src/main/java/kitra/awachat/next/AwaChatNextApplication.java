@@ -3,11 +3,13 @@ package kitra.awachat.next;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 @SpringBootApplication
 @MapperScan("kitra.awachat.next.mapper") // 指定Mapper接口所在的包
 @EnableTransactionManagement
+@EnableScheduling
 public class AwaChatNextApplication {
 
     public static void main(String[] args) {
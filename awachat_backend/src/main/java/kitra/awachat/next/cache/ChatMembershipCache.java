@@ -0,0 +1,109 @@
+package kitra.awachat.next.cache;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import kitra.awachat.next.entity.PrivateChatEntity;
+import kitra.awachat.next.mapper.PrivateChatMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+
+/**
+ * 私聊会话成员的缓存，可以按会话ID或按两个用户ID查找。
+ * <p>
+ * 会话的成员创建后不会改变，所以缓存项不需要失效，只按数量上限和访问过期淘汰。
+ * 查不到的会话不缓存。命中率等指标以 cache=chat_membership 和 cache=chat_membership_pair 导出
+ */
+@Component
+public class ChatMembershipCache {
+    private final PrivateChatMapper privateChatMapper;
+    private final Cache<Long, PrivateChatMembership> byChatId;
+    // 键为 user1Id（高32位）和 user2Id（低32位）拼成的 long，user1Id < user2Id
+    private final Cache<Long, PrivateChatMembership> byUserPair;
+
+    public ChatMembershipCache(PrivateChatMapper privateChatMapper, MeterRegistry meterRegistry,
+                               @Value("${awachat.cache.chat-membership.maximum-size:100000}") long maximumSize,
+                               @Value("${awachat.cache.chat-membership.expire-after-access:30m}") Duration expireAfterAccess) {
+        this.privateChatMapper = privateChatMapper;
+        this.byChatId = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterAccess(expireAfterAccess)
+            .recordStats()
+            .build();
+        this.byUserPair = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterAccess(expireAfterAccess)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, byChatId, "chat_membership");
+        CaffeineCacheMetrics.monitor(meterRegistry, byUserPair, "chat_membership_pair");
+    }
+
+    /**
+     * 按会话ID查找
+     *
+     * @return 会话不存在时返回 null
+     */
+    @Nullable
+    public PrivateChatMembership get(long chatId) {
+        PrivateChatMembership membership = byChatId.getIfPresent(chatId);
+        if (membership != null) {
+            return membership;
+        }
+        PrivateChatEntity entity = privateChatMapper.selectById(chatId);
+        return entity == null ? null : put(entity);
+    }
+
+    /**
+     * 查找两个用户之间的私聊会话，两个ID的顺序不限
+     *
+     * @return 会话不存在时返回 null
+     */
+    @Nullable
+    public PrivateChatMembership findByUsers(int userA, int userB) {
+        int user1Id = Math.min(userA, userB);
+        int user2Id = Math.max(userA, userB);
+        PrivateChatMembership membership = byUserPair.getIfPresent(pairKey(user1Id, user2Id));
+        if (membership != null) {
+            return membership;
+        }
+        QueryWrapper<PrivateChatEntity> queryWrapper = new QueryWrapper<>();
+        queryWrapper.eq("user1_id", user1Id).eq("user2_id", user2Id);
+        PrivateChatEntity entity = privateChatMapper.selectOne(queryWrapper);
+        return entity == null ? null : put(entity);
+    }
+
+    /**
+     * 新会话写入数据库后调用。处于事务中时等事务提交后再放入缓存，避免缓存回滚掉的会话
+     */
+    public void onChatCreated(PrivateChatEntity entity) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    put(entity);
+                }
+            });
+        } else {
+            put(entity);
+        }
+    }
+
+    private PrivateChatMembership put(PrivateChatEntity entity) {
+        PrivateChatMembership membership = PrivateChatMembership.of(entity);
+        byChatId.put(membership.chatId(), membership);
+        byUserPair.put(pairKey(membership.user1Id(), membership.user2Id()), membership);
+        return membership;
+    }
+
+    private static long pairKey(int user1Id, int user2Id) {
+        return ((long) user1Id << 32) | (user2Id & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,34 @@
+package kitra.awachat.next.cache;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.time.Duration;
+
+/**
+ * 从放入缓存时开始计时的固定过期时间，之后的修改和读取都不会推迟过期。
+ * <p>
+ * 用于由本节点增量更新、同时依赖集群广播失效的缓存：广播丢失时，即使该项一直在被修改，
+ * 也会在 ttl 后重新从数据库加载
+ */
+final class ExpireAfterCreate<K, V> implements Expiry<K, V> {
+    private final long ttlNanos;
+
+    ExpireAfterCreate(Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @Override
+    public long expireAfterCreate(K key, V value, long currentTime) {
+        return ttlNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+
+    @Override
+    public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+}
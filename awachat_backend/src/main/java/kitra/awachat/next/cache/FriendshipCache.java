@@ -0,0 +1,106 @@
+package kitra.awachat.next.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import kitra.awachat.next.cluster.ClusterBroadcast;
+import kitra.awachat.next.cluster.MessageRouter;
+import kitra.awachat.next.mapper.FriendMapper;
+import kitra.awachat.next.util.IntHashSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 用户好友ID集合的缓存。
+ * <p>
+ * 首次用到某个用户时从数据库加载他的全部好友，保存为 {@link IntHashSet}；好友关系变化时由 FriendService 更新本节点的缓存，
+ * 并通过 {@link ClusterBroadcast} 让其他节点删除这两个用户的缓存。广播丢失时最多在 ttl 内读到旧的好友关系，
+ * 因此从加载时开始计算过期，期间的修改不会推迟过期。命中率等指标以 cache=friendship 导出
+ */
+@Component
+public class FriendshipCache {
+    private static final String INVALIDATION_TOPIC = "friendship-invalidation";
+
+    private final LoadingCache<Integer, IntHashSet> friendIds;
+    private final ClusterBroadcast broadcast;
+    private final String nodeId;
+    private final Logger logger = LogManager.getLogger(FriendshipCache.class);
+
+    public FriendshipCache(FriendMapper friendMapper, ClusterBroadcast broadcast, MessageRouter messageRouter,
+                           MeterRegistry meterRegistry,
+                           @Value("${awachat.cache.friendship.maximum-size:100000}") long maximumSize,
+                           @Value("${awachat.cache.friendship.ttl:2m}") Duration ttl) {
+        this.broadcast = broadcast;
+        this.nodeId = messageRouter.getNodeId();
+        this.friendIds = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new ExpireAfterCreate<Integer, IntHashSet>(ttl))
+            .recordStats()
+            .build(userId -> IntHashSet.of(friendMapper.selectFriendIds(userId)));
+        CaffeineCacheMetrics.monitor(meterRegistry, friendIds, "friendship");
+        broadcast.subscribe(INVALIDATION_TOPIC, this::onInvalidation);
+    }
+
+    /**
+     * 检查两个用户是否是好友。优先使用已缓存的一方，都未缓存时加载 user1Id 的好友
+     */
+    public boolean areFriends(int user1Id, int user2Id) {
+        IntHashSet friends = friendIds.getIfPresent(user1Id);
+        if (friends != null) {
+            return friends.contains(user2Id);
+        }
+        friends = friendIds.getIfPresent(user2Id);
+        if (friends != null) {
+            return friends.contains(user1Id);
+        }
+        return friendIds.get(user1Id).contains(user2Id);
+    }
+
+    /**
+     * 好友关系写入数据库后调用。只更新已缓存的用户，未缓存的用户下次加载时会读到新数据
+     */
+    public void onFriendAdded(int user1Id, int user2Id) {
+        friendIds.asMap().computeIfPresent(user1Id, (key, friends) -> friends.with(user2Id));
+        friendIds.asMap().computeIfPresent(user2Id, (key, friends) -> friends.with(user1Id));
+        publishInvalidation(user1Id, user2Id);
+    }
+
+    /**
+     * 好友关系从数据库删除后调用
+     */
+    public void onFriendDeleted(int user1Id, int user2Id) {
+        friendIds.asMap().computeIfPresent(user1Id, (key, friends) -> friends.without(user2Id));
+        friendIds.asMap().computeIfPresent(user2Id, (key, friends) -> friends.without(user1Id));
+        publishInvalidation(user1Id, user2Id);
+    }
+
+    private void publishInvalidation(int user1Id, int user2Id) {
+        try {
+            broadcast.broadcast(INVALIDATION_TOPIC, nodeId + ":" + user1Id + ":" + user2Id);
+        } catch (RuntimeException e) {
+            logger.warn("广播好友关系失效通知失败，其他节点的缓存将在过期后失效", e);
+        }
+    }
+
+    /**
+     * 格式为 节点ID:用户1ID:用户2ID，本节点发出的通知已经在本地更新过，忽略
+     */
+    private void onInvalidation(String payload) {
+        int second = payload.lastIndexOf(':');
+        int first = payload.lastIndexOf(':', second - 1);
+        if (first < 0 || payload.substring(0, first).equals(nodeId)) {
+            return;
+        }
+        try {
+            friendIds.invalidate(Integer.parseInt(payload.substring(first + 1, second)));
+            friendIds.invalidate(Integer.parseInt(payload.substring(second + 1)));
+        } catch (NumberFormatException e) {
+            logger.warn("好友关系失效通知格式错误：{}", payload);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package kitra.awachat.next.cache;
+
+import cn.dev33.satoken.stp.StpUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import kitra.awachat.next.cluster.ClusterBroadcast;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * token 到用户ID的本地缓存，避免每次 WebSocket 握手和 HTTP 请求都到 Redis 查询 token。
+ * <p>
+ * 有效的 token 缓存 ttl，无效的 token 缓存较短的 negative-ttl，防止用无效 token 反复握手时每次都访问 Redis。
+ * 同一个 token 并发未命中时只查询一次。退出登录、被踢下线或被顶下线时 Sa-Token 通知
+ * {@link LoginTokenInvalidator}，由它调用 {@link #invalidate}，并通过 {@link ClusterBroadcast} 让其他节点也删除该 token；
+ * 广播丢失时最多在 ttl 内仍然认为 token 有效。命中率等指标以 cache=login_token 导出
+ */
+@Component
+public class LoginTokenCache {
+    private static final String INVALIDATION_TOPIC = "login-token-invalidation";
+
+    private final Cache<String, Resolution> tokens;
+    private final ClusterBroadcast broadcast;
+    private final Logger logger = LogManager.getLogger(LoginTokenCache.class);
+
+    public LoginTokenCache(ClusterBroadcast broadcast, MeterRegistry meterRegistry,
+                           @Value("${awachat.cache.login-token.maximum-size:100000}") long maximumSize,
+                           @Value("${awachat.cache.login-token.ttl:30s}") Duration ttl,
+                           @Value("${awachat.cache.login-token.negative-ttl:5s}") Duration negativeTtl) {
+        this.broadcast = broadcast;
+        long ttlNanos = ttl.toNanos();
+        long negativeTtlNanos = negativeTtl.toNanos();
+        this.tokens = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new Expiry<String, Resolution>() {
+                @Override
+                public long expireAfterCreate(String token, Resolution resolution, long currentTime) {
+                    return resolution.userId() != null ? ttlNanos : negativeTtlNanos;
+                }
+
+                @Override
+                public long expireAfterUpdate(String token, Resolution resolution, long currentTime, long currentDuration) {
+                    return expireAfterCreate(token, resolution, currentTime);
+                }
+
+                @Override
+                public long expireAfterRead(String token, Resolution resolution, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, tokens, "login_token");
+        broadcast.subscribe(INVALIDATION_TOPIC, tokens::invalidate);
+    }
+
+    /**
+     * 查询 token 对应的用户ID。Redis 不可用时抛出异常，不缓存结果
+     *
+     * @return token 无效或为空时返回 null
+     */
+    @Nullable
+    public Integer resolve(@Nullable String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        return tokens.get(token, this::load).userId();
+    }
+
+    /**
+     * 在本节点和其他节点上删除 token 的缓存。
+     * <p>
+     * 若删除时正好有对该 token 的查询在进行，会等查询结束后再删除，不会留下旧的结果
+     */
+    public void invalidate(String token) {
+        tokens.invalidate(token);
+        try {
+            broadcast.broadcast(INVALIDATION_TOPIC, token);
+        } catch (RuntimeException e) {
+            logger.warn("广播 token 失效通知失败，其他节点的缓存将在过期后失效", e);
+        }
+    }
+
+    private Resolution load(String token) {
+        Object loginId = StpUtil.getLoginIdByToken(token);
+        if (loginId instanceof Integer userId) {
+            return new Resolution(userId);
+        }
+        if (loginId instanceof String value) {
+            try {
+                return new Resolution(Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                logger.warn("token 对应的用户ID格式错误：{}", value);
+                return new Resolution(null);
+            }
+        }
+        if (loginId != null) {
+            logger.warn("token 对应的用户ID类型不支持：{}", loginId.getClass().getName());
+        }
+        return new Resolution(null);
+    }
+
+    /**
+     * 查询结果，userId 为 null 表示 token 无效
+     */
+    private record Resolution(@Nullable Integer userId) {
+    }
+}
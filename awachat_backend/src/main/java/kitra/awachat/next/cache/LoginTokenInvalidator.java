@@ -0,0 +1,32 @@
+package kitra.awachat.next.cache;
+
+import cn.dev33.satoken.listener.SaTokenListenerForSimple;
+import org.springframework.stereotype.Component;
+
+/**
+ * 监听 Sa-Token 的登录状态变化，token 失效时删除 {@link LoginTokenCache} 中的缓存。
+ * Sa-Token 的 Spring Boot Starter 会自动注册容器中的监听器
+ */
+@Component
+public class LoginTokenInvalidator extends SaTokenListenerForSimple {
+    private final LoginTokenCache loginTokenCache;
+
+    public LoginTokenInvalidator(LoginTokenCache loginTokenCache) {
+        this.loginTokenCache = loginTokenCache;
+    }
+
+    @Override
+    public void doLogout(String loginType, Object loginId, String tokenValue) {
+        loginTokenCache.invalidate(tokenValue);
+    }
+
+    @Override
+    public void doKickout(String loginType, Object loginId, String tokenValue) {
+        loginTokenCache.invalidate(tokenValue);
+    }
+
+    @Override
+    public void doReplaced(String loginType, Object loginId, String tokenValue) {
+        loginTokenCache.invalidate(tokenValue);
+    }
+}
@@ -0,0 +1,23 @@
+package kitra.awachat.next.cache;
+
+import kitra.awachat.next.entity.PrivateChatEntity;
+
+/**
+ * 私聊会话的成员信息。会话创建后成员不会再变化，因此可以长期缓存
+ *
+ * @param chatId  会话ID
+ * @param user1Id 较小的用户ID
+ * @param user2Id 较大的用户ID
+ */
+public record PrivateChatMembership(long chatId, int user1Id, int user2Id) {
+    public static PrivateChatMembership of(PrivateChatEntity entity) {
+        return new PrivateChatMembership(entity.getChatId(), entity.getUser1Id(), entity.getUser2Id());
+    }
+
+    /**
+     * 用户是否属于该会话
+     */
+    public boolean contains(int userId) {
+        return user1Id == userId || user2Id == userId;
+    }
+}
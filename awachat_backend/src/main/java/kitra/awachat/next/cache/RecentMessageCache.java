@@ -0,0 +1,280 @@
+package kitra.awachat.next.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import kitra.awachat.next.cluster.ClusterBroadcast;
+import kitra.awachat.next.cluster.MessageRouter;
+import kitra.awachat.next.dto.websocket.ChatHistoryData;
+import kitra.awachat.next.dto.websocket.ChatMessageData;
+import kitra.awachat.next.dto.websocket.CompoundMessageContent;
+import kitra.awachat.next.dto.websocket.TextMessageContent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 活跃会话最近消息的缓存，用于不访问数据库直接返回最新的一两页历史消息。
+ * <p>
+ * 每个会话缓存最新的若干条消息（{@link RecentMessages}，不可变，修改时复制），首次读取时从数据库加载，
+ * 之后新消息保存后追加进去。所有会话共享一个按估算字节数计算的容量上限，超出时淘汰不活跃的会话。
+ * <p>
+ * 缓存中的消息必须是数据库中最新的连续一段。加载期间先放入占位项，期间保存的新消息追加到占位项中，
+ * 加载完成后与查询结果合并，避免漏掉并发写入的消息。修改已有消息的内容后需要调用 {@link #invalidate}。
+ * <p>
+ * 其他节点上保存的消息不会追加到本节点的缓存中：消息保存或修改后通过 {@link ClusterBroadcast} 让其他节点删除该会话的缓存。
+ * 广播丢失时最多在 ttl 内返回缺少新消息的旧数据，因此从加载时开始计算过期，追加消息不会推迟过期。
+ * <p>
+ * 历史请求的命中和未命中以 awachat.history.recent.requests{result} 导出
+ */
+@Component
+public class RecentMessageCache {
+    private static final String INVALIDATION_TOPIC = "recent-messages-invalidation";
+
+    private final Cache<Long, RecentMessages> chats;
+    private final int capacity;
+    private final ClusterBroadcast broadcast;
+    private final String nodeId;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Logger logger = LogManager.getLogger(RecentMessageCache.class);
+
+    public RecentMessageCache(ClusterBroadcast broadcast, MessageRouter messageRouter, MeterRegistry meterRegistry,
+                              @Value("${awachat.cache.recent-messages.messages-per-chat:50}") int capacity,
+                              @Value("${awachat.cache.recent-messages.maximum-weight:67108864}") long maximumWeight,
+                              @Value("${awachat.cache.recent-messages.ttl:1m}") Duration ttl) {
+        this.capacity = capacity;
+        this.broadcast = broadcast;
+        this.nodeId = messageRouter.getNodeId();
+        this.chats = Caffeine.newBuilder()
+            .maximumWeight(maximumWeight)
+            .weigher((Long chatId, RecentMessages messages) -> messages.weight)
+            .expireAfter(new ExpireAfterCreate<Long, RecentMessages>(ttl))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, chats, "recent_messages");
+        broadcast.subscribe(INVALIDATION_TOPIC, this::onInvalidation);
+        this.hitCounter = Counter.builder("awachat.history.recent.requests")
+            .tag("result", "hit")
+            .description("直接由最近消息缓存返回的历史消息请求")
+            .register(meterRegistry);
+        this.missCounter = Counter.builder("awachat.history.recent.requests")
+            .tag("result", "miss")
+            .description("需要查询数据库的历史消息请求")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 每个会话最多缓存的消息数量
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 尝试从缓存中取出 beforeId 之前（不含）的一页消息，beforeId 为 null 时取最新的一页
+     *
+     * @return 缓存不足以回答时返回 null
+     */
+    @Nullable
+    public ChatHistoryData pageBefore(long chatId, @Nullable Long beforeId, int limit) {
+        RecentMessages messages = chats.getIfPresent(chatId);
+        ChatHistoryData page = messages == null ? null : messages.pageBefore(beforeId, limit);
+        (page == null ? missCounter : hitCounter).increment();
+        return page;
+    }
+
+    /**
+     * 缓存中没有该会话时，用 loader 从数据库加载最新的消息并放入缓存
+     *
+     * @param loader 按ID降序返回最多 {@link #getCapacity()} + 1 条最新消息
+     */
+    public void load(long chatId, Supplier<List<ChatMessageData<?>>> loader) {
+        if (chats.asMap().putIfAbsent(chatId, RecentMessages.LOADING) != null) {
+            // 已缓存或正在由其他线程加载
+            return;
+        }
+        List<ChatMessageData<?>> newestFirst;
+        try {
+            newestFirst = loader.get();
+        } catch (RuntimeException e) {
+            chats.asMap().computeIfPresent(chatId, (key, pending) -> pending.loading ? null : pending);
+            throw e;
+        }
+        boolean reachedStart = newestFirst.size() <= capacity;
+        List<ChatMessageData<?>> loaded = new ArrayList<>(newestFirst.subList(0, Math.min(newestFirst.size(), capacity)));
+        // 占位项被淘汰或失效时放弃，期间可能漏掉了新消息
+        chats.asMap().computeIfPresent(chatId, (key, pending) -> pending.loaded(loaded, reachedStart, capacity));
+    }
+
+    /**
+     * 新消息保存后调用，只更新已缓存的会话。处于事务中时等事务提交后再更新
+     */
+    public void onMessageSaved(ChatMessageData<?> message) {
+        afterCommit(() -> {
+            chats.asMap().computeIfPresent(message.chatId(), (key, messages) -> messages.append(message, capacity));
+            publishInvalidation(message.chatId());
+        });
+    }
+
+    /**
+     * 会话中已有消息的内容被修改后调用，丢弃该会话的缓存
+     */
+    public void invalidate(long chatId) {
+        afterCommit(() -> {
+            chats.invalidate(chatId);
+            publishInvalidation(chatId);
+        });
+    }
+
+    private void publishInvalidation(long chatId) {
+        try {
+            broadcast.broadcast(INVALIDATION_TOPIC, nodeId + ":" + chatId);
+        } catch (RuntimeException e) {
+            logger.warn("广播最近消息失效通知失败，其他节点的缓存将在过期后失效", e);
+        }
+    }
+
+    /**
+     * 格式为 节点ID:会话ID，本节点发出的通知已经在本地处理过，忽略
+     */
+    private void onInvalidation(String payload) {
+        int separator = payload.lastIndexOf(':');
+        if (separator < 0 || payload.substring(0, separator).equals(nodeId)) {
+            return;
+        }
+        try {
+            chats.invalidate(Long.parseLong(payload.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            logger.warn("最近消息失效通知格式错误：{}", payload);
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * 一个会话最新的连续若干条消息，按ID升序排列
+     */
+    static final class RecentMessages {
+        static final RecentMessages LOADING = new RecentMessages(new ChatMessageData[0], false, true);
+
+        // 每条消息除内容外的估算字节数
+        private static final int MESSAGE_OVERHEAD = 160;
+
+        private final ChatMessageData<?>[] messages;
+        // 缓存中最早的消息是否就是会话中的第一条消息
+        private final boolean reachedStart;
+        // 正在从数据库加载，此时 messages 中是加载期间追加的消息
+        private final boolean loading;
+        private final int weight;
+
+        private RecentMessages(ChatMessageData<?>[] messages, boolean reachedStart, boolean loading) {
+            this.messages = messages;
+            this.reachedStart = reachedStart;
+            this.loading = loading;
+            int weight = 64;
+            for (ChatMessageData<?> message : messages) {
+                weight += estimateSize(message);
+            }
+            this.weight = weight;
+        }
+
+        @Nullable
+        ChatHistoryData pageBefore(@Nullable Long beforeId, int limit) {
+            if (loading || messages.length == 0 && !reachedStart) {
+                return null;
+            }
+            // end 为第一条ID不小于 beforeId 的消息的位置
+            int end = messages.length;
+            if (beforeId != null) {
+                if (messages.length > 0 && beforeId <= messages[0].id() && !reachedStart) {
+                    return null;
+                }
+                while (end > 0 && messages[end - 1].id() >= beforeId) {
+                    end--;
+                }
+            }
+            // 多一条用于判断前面是否还有消息
+            if (end <= limit && !reachedStart) {
+                return null;
+            }
+            int start = Math.max(0, end - limit);
+            return new ChatHistoryData(Arrays.copyOfRange(messages, start, end), start > 0, beforeId != null);
+        }
+
+        RecentMessages append(ChatMessageData<?> message, int capacity) {
+            return merge(List.of(message), reachedStart, capacity);
+        }
+
+        /**
+         * 加载完成，与加载期间追加的消息合并
+         */
+        RecentMessages loaded(List<ChatMessageData<?>> newestFirst, boolean reachedStart, int capacity) {
+            if (!loading) {
+                return this;
+            }
+            return new RecentMessages(new ChatMessageData[0], reachedStart, false)
+                .merge(newestFirst, reachedStart, capacity)
+                .merge(Arrays.asList(messages), reachedStart, capacity);
+        }
+
+        /**
+         * 按ID有序合并，去掉重复的消息，超过容量时丢弃最早的消息
+         */
+        private RecentMessages merge(List<ChatMessageData<?>> added, boolean reachedStart, int capacity) {
+            List<ChatMessageData<?>> merged = new ArrayList<>(messages.length + added.size());
+            merged.addAll(Arrays.asList(messages));
+            for (ChatMessageData<?> message : added) {
+                int index = merged.size();
+                while (index > 0 && merged.get(index - 1).id() > message.id()) {
+                    index--;
+                }
+                if (index > 0 && merged.get(index - 1).id().equals(message.id())) {
+                    continue;
+                }
+                merged.add(index, message);
+            }
+            boolean start = reachedStart;
+            if (merged.size() > capacity && !loading) {
+                merged = merged.subList(merged.size() - capacity, merged.size());
+                start = false;
+            }
+            return new RecentMessages(merged.toArray(new ChatMessageData[0]), start, loading);
+        }
+
+        private static int estimateSize(ChatMessageData<?> message) {
+            Object content = message.content();
+            if (content instanceof TextMessageContent text) {
+                return MESSAGE_OVERHEAD + (text.content() == null ? 0 : text.content().length() * 2);
+            }
+            if (content instanceof CompoundMessageContent compound) {
+                return MESSAGE_OVERHEAD + (compound.parts() == null ? 0 : compound.parts().length * 256);
+            }
+            // 直接转发的消息内容是反序列化得到的 Map，按平均大小估算
+            return MESSAGE_OVERHEAD + 256;
+        }
+    }
+}
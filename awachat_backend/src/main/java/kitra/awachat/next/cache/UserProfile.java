@@ -0,0 +1,39 @@
+package kitra.awachat.next.cache;
+
+import kitra.awachat.next.entity.UserEntity;
+import org.springframework.lang.Nullable;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * 用户资料的只读投影，不包含密码，可以放入缓存并在线程之间共享
+ */
+public record UserProfile(int userId, String username, String nickname, String description,
+                          @Nullable String avatar, Date createdAt, @Nullable Date lastOnlineAt, short role,
+                          @Nullable Date banUntil, @Nullable Map<String, Object> extendedData) {
+    public static UserProfile of(UserEntity entity) {
+        Map<String, Object> extendedData = entity.getExtendedData();
+        return new UserProfile(
+            entity.getUserId(),
+            entity.getUsername(),
+            entity.getNickname(),
+            entity.getDescription(),
+            entity.getAvatar(),
+            entity.getCreatedAt(),
+            entity.getLastOnlineAt(),
+            entity.getRole(),
+            entity.getBanUntil(),
+            extendedData == null ? null : Collections.unmodifiableMap(extendedData)
+        );
+    }
+
+    /**
+     * 返回更新了最后在线时间的副本
+     */
+    public UserProfile withLastOnlineAt(Date lastOnlineAt) {
+        return new UserProfile(userId, username, nickname, description, avatar, createdAt, lastOnlineAt, role,
+            banUntil, extendedData);
+    }
+}
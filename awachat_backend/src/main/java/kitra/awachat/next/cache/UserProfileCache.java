@@ -0,0 +1,107 @@
+package kitra.awachat.next.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import kitra.awachat.next.entity.UserEntity;
+import kitra.awachat.next.mapper.UserMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * 用户资料（{@link UserProfile}）的缓存。
+ * <p>
+ * 按用户ID读穿缓存，批量查询时未命中的用户用一条 IN 查询加载；按用户名查询时额外缓存用户名到用户ID的映射。
+ * 目前会修改的资料只有最后在线时间，由 {@link #updateLastOnlineAt} 同步到缓存。
+ * 缓存项写入一段时间后过期，以限制其他节点修改资料后的不一致时间。命中率等指标以 cache=user_profile 导出
+ */
+@Component
+public class UserProfileCache {
+    private final UserMapper userMapper;
+    private final LoadingCache<Integer, UserProfile> profiles;
+    private final Cache<String, Integer> userIdsByUsername;
+
+    public UserProfileCache(UserMapper userMapper, MeterRegistry meterRegistry,
+                            @Value("${awachat.cache.user-profile.maximum-size:100000}") long maximumSize,
+                            @Value("${awachat.cache.user-profile.expire-after-write:10m}") Duration expireAfterWrite) {
+        this.userMapper = userMapper;
+        this.profiles = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite)
+            .recordStats()
+            .build(new CacheLoader<>() {
+                @Override
+                public UserProfile load(Integer userId) {
+                    List<UserEntity> users = userMapper.selectProfilesByIds(List.of(userId));
+                    return users.isEmpty() ? null : UserProfile.of(users.get(0));
+                }
+
+                @Override
+                public Map<Integer, UserProfile> loadAll(Set<? extends Integer> userIds) {
+                    Map<Integer, UserProfile> result = new HashMap<>();
+                    for (UserEntity user : userMapper.selectProfilesByIds(userIds)) {
+                        result.put(user.getUserId(), UserProfile.of(user));
+                    }
+                    return result;
+                }
+            });
+        this.userIdsByUsername = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite)
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, profiles, "user_profile");
+    }
+
+    /**
+     * @return 用户不存在时返回 null
+     */
+    @Nullable
+    public UserProfile get(int userId) {
+        return profiles.get(userId);
+    }
+
+    /**
+     * 批量获取用户资料，未命中的用户用一条查询加载
+     *
+     * @return 用户ID到资料的映射，不存在的用户不会出现在结果中
+     */
+    public Map<Integer, UserProfile> getAll(Collection<Integer> userIds) {
+        return profiles.getAll(userIds);
+    }
+
+    /**
+     * @return 用户不存在时返回 null
+     */
+    @Nullable
+    public UserProfile getByUsername(String username) {
+        Integer userId = userIdsByUsername.getIfPresent(username);
+        if (userId != null) {
+            UserProfile profile = get(userId);
+            if (profile != null && profile.username().equals(username)) {
+                return profile;
+            }
+        }
+        UserEntity user = userMapper.selectProfileByUsername(username);
+        if (user == null) {
+            return null;
+        }
+        UserProfile profile = UserProfile.of(user);
+        profiles.put(profile.userId(), profile);
+        userIdsByUsername.put(username, profile.userId());
+        return profile;
+    }
+
+    /**
+     * 更新已缓存用户的最后在线时间，未缓存时不做任何事
+     */
+    public void updateLastOnlineAt(int userId, Date lastOnlineAt) {
+        profiles.asMap().computeIfPresent(userId, (key, profile) -> profile.withLastOnlineAt(lastOnlineAt));
+    }
+}
@@ -0,0 +1,21 @@
+package kitra.awachat.next.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * 向所有节点（包括本节点）广播通知的通道，用于让各节点同步失效本地缓存等场景。
+ * 通知不保证送达，依赖它的本地状态需要有过期时间兜底。
+ * <p>
+ * awachat.cluster.mode 为 local（默认）时使用 {@link InMemoryCluster}，为 redis 时使用 {@link RedisClusterBroadcast}
+ */
+public interface ClusterBroadcast {
+    /**
+     * 注册接收某个主题的通知的处理器
+     */
+    void subscribe(String topic, Consumer<String> receiver);
+
+    /**
+     * 向所有订阅了该主题的节点发送通知
+     */
+    void broadcast(String topic, String payload);
+}
@@ -0,0 +1,120 @@
+package kitra.awachat.next.cluster;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 在同一个进程内模拟的集群，所有节点共享在线记录，转发消息即直接调用目标节点的处理器。
+ * <p>
+ * 单节点部署（awachat.cluster.mode=local）时只有一个节点，所有用户都在本节点上，不会发生转发。
+ * 测试中可以用同一个实例 {@link #join} 出多个节点，验证跨节点的消息投递
+ */
+public class InMemoryCluster {
+    private final ConcurrentMap<String, Consumer<RoutedMessage>> receivers = new ConcurrentHashMap<>();
+    // 用户ID -> 节点ID
+    private final ConcurrentMap<Integer, Set<String>> presence = new ConcurrentHashMap<>();
+    // 主题 -> 所有节点注册的广播处理器
+    private final ConcurrentMap<String, List<Consumer<String>>> topicReceivers = new ConcurrentHashMap<>();
+
+    /**
+     * 加入一个节点
+     */
+    public Node join(String nodeId) {
+        return new Node(nodeId);
+    }
+
+    /**
+     * 集群中的一个节点，同时作为该节点的 {@link MessageRouter}、{@link PresenceRegistry} 和 {@link ClusterBroadcast}
+     */
+    public class Node implements MessageRouter, PresenceRegistry, ClusterBroadcast {
+        private final String nodeId;
+
+        private Node(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        @Override
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        @Override
+        public void subscribe(Consumer<RoutedMessage> receiver) {
+            if (receivers.putIfAbsent(nodeId, receiver) != null) {
+                throw new IllegalStateException("节点 " + nodeId + " 已注册消息处理器");
+            }
+        }
+
+        @Override
+        public boolean publish(String targetNodeId, RoutedMessage message) {
+            Consumer<RoutedMessage> receiver = receivers.get(targetNodeId);
+            if (receiver == null) {
+                return false;
+            }
+            receiver.accept(message);
+            return true;
+        }
+
+        /**
+         * 离开集群，之后发给该节点的消息视为投递失败
+         */
+        public void leave() {
+            receivers.remove(nodeId);
+        }
+
+        @Override
+        public void register(int userId) {
+            presence.compute(userId, (key, nodes) -> {
+                if (nodes == null) nodes = ConcurrentHashMap.newKeySet();
+                nodes.add(nodeId);
+                return nodes;
+            });
+        }
+
+        @Override
+        public void unregister(int userId) {
+            evict(nodeId, Set.of(userId));
+        }
+
+        @Override
+        public Map<Integer, Set<String>> locate(Collection<Integer> userIds) {
+            Map<Integer, Set<String>> result = new HashMap<>();
+            for (Integer userId : userIds) {
+                Set<String> nodes = presence.get(userId);
+                if (nodes != null && !nodes.isEmpty()) {
+                    result.put(userId, Set.copyOf(nodes));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void evict(String targetNodeId, Collection<Integer> userIds) {
+            for (Integer userId : userIds) {
+                presence.computeIfPresent(userId, (key, nodes) -> {
+                    nodes.remove(targetNodeId);
+                    return nodes.isEmpty() ? null : nodes;
+                });
+            }
+        }
+
+        @Override
+        public void subscribe(String topic, Consumer<String> receiver) {
+            topicReceivers.computeIfAbsent(topic, key -> new CopyOnWriteArrayList<>()).add(receiver);
+        }
+
+        @Override
+        public void broadcast(String topic, String payload) {
+            for (Consumer<String> receiver : topicReceivers.getOrDefault(topic, List.of())) {
+                receiver.accept(payload);
+            }
+        }
+    }
+}
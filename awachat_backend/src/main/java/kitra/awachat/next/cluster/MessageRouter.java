@@ -0,0 +1,31 @@
+package kitra.awachat.next.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.util.function.Consumer;
+
+/**
+ * 节点之间转发 WebSocket 消息的通道。每个节点只接收发给自己的消息，
+ * 由 {@link PresenceRegistry} 决定消息需要发给哪些节点。
+ * <p>
+ * awachat.cluster.mode 为 local（默认）时使用 {@link InMemoryCluster}，为 redis 时使用 {@link RedisMessageRouter}
+ */
+public interface MessageRouter {
+    /**
+     * 本节点的ID
+     */
+    String getNodeId();
+
+    /**
+     * 注册本节点接收其他节点转发来的消息的处理器，只能调用一次
+     */
+    void subscribe(Consumer<RoutedMessage> receiver);
+
+    /**
+     * 把消息发给一个节点
+     *
+     * @return 目标节点是否在线并收到了消息，返回 false 时调用方认为目标节点已下线并清理它的在线记录
+     * @throws JsonProcessingException 消息无法序列化，与目标节点是否在线无关
+     */
+    boolean publish(String nodeId, RoutedMessage message) throws JsonProcessingException;
+}
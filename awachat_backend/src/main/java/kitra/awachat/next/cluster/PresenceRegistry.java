@@ -0,0 +1,40 @@
+package kitra.awachat.next.cluster;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * 记录每个在线用户的会话在哪些节点上。节点只登记和注销自己的用户
+ */
+public interface PresenceRegistry {
+    /**
+     * 本节点上建立了该用户的第一个会话
+     */
+    void register(int userId);
+
+    /**
+     * 本节点上该用户的会话已全部关闭
+     */
+    void unregister(int userId);
+
+    /**
+     * 查询用户所在的节点
+     *
+     * @return 用户ID -> 节点ID，包括本节点；不在线的用户不在结果中
+     */
+    Map<Integer, Set<String>> locate(Collection<Integer> userIds);
+
+    /**
+     * 节点已下线但留有在线记录时调用，删除这些用户在该节点上的记录
+     */
+    void evict(String nodeId, Collection<Integer> userIds);
+
+    /**
+     * 提供本节点当前有会话的用户。本节点的在线记录被其他节点误清理（如本节点长时间停顿，存活标记过期）时，
+     * 用它重新登记。不会丢失记录的实现可以忽略
+     */
+    default void setLocalUsers(Supplier<Collection<Integer>> localUsers) {
+    }
+}
@@ -0,0 +1,47 @@
+package kitra.awachat.next.cluster;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * 通过 Redis 发布/订阅广播通知（awachat.cluster.mode=redis），每个主题一个频道 awachat:broadcast:&lt;topic&gt;
+ */
+@Component
+@ConditionalOnProperty(name = "awachat.cluster.mode", havingValue = "redis")
+public class RedisClusterBroadcast implements ClusterBroadcast {
+    private static final String CHANNEL_PREFIX = "awachat:broadcast:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final Logger logger = LogManager.getLogger(RedisClusterBroadcast.class);
+
+    public RedisClusterBroadcast(StringRedisTemplate redisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @Override
+    public void subscribe(String topic, Consumer<String> receiver) {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+            try {
+                receiver.accept(payload);
+            } catch (Exception e) {
+                logger.error("处理主题 {} 的广播通知失败：{}", topic, payload, e);
+            }
+        }, new ChannelTopic(CHANNEL_PREFIX + topic));
+    }
+
+    @Override
+    public void broadcast(String topic, String payload) {
+        redisTemplate.convertAndSend(CHANNEL_PREFIX + topic, payload);
+    }
+}
@@ -0,0 +1,69 @@
+package kitra.awachat.next.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kitra.awachat.next.codec.WebSocketMessageCodec;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * 通过 Redis 发布/订阅在节点之间转发消息（awachat.cluster.mode=redis）。
+ * <p>
+ * 每个节点订阅自己的频道 awachat:route:&lt;nodeId&gt;，发送方只向接收者所在的节点发布。
+ * PUBLISH 返回的订阅者数量为 0 时说明目标节点已下线；Redis 不可用时抛出 DataAccessException
+ */
+@Component
+@ConditionalOnProperty(name = "awachat.cluster.mode", havingValue = "redis")
+public class RedisMessageRouter implements MessageRouter {
+    private static final String CHANNEL_PREFIX = "awachat:route:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final String nodeId;
+    private final Logger logger = LogManager.getLogger(RedisMessageRouter.class);
+
+    public RedisMessageRouter(StringRedisTemplate redisTemplate, RedisMessageListenerContainer listenerContainer,
+                              WebSocketMessageCodec codec,
+                              @Value("${awachat.cluster.node-id:}") String nodeId) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.objectMapper = codec.getObjectMapper();
+        // 未配置时每次启动生成新的ID，旧ID留下的在线记录由 RedisPresenceRegistry 在其存活标记过期后清理
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void subscribe(Consumer<RoutedMessage> receiver) {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            try {
+                receiver.accept(objectMapper.readValue(message.getBody(), RoutedMessage.class));
+            } catch (Exception e) {
+                logger.error("处理其他节点转发的消息失败：{}", new String(message.getBody(), StandardCharsets.UTF_8), e);
+            }
+        }, new ChannelTopic(CHANNEL_PREFIX + nodeId));
+        logger.info("节点 {} 开始接收转发的消息", nodeId);
+    }
+
+    @Override
+    public boolean publish(String targetNodeId, RoutedMessage message) throws JsonProcessingException {
+        Long receivers = redisTemplate.convertAndSend(CHANNEL_PREFIX + targetNodeId,
+            objectMapper.writeValueAsString(message));
+        return receivers != null && receivers > 0;
+    }
+}
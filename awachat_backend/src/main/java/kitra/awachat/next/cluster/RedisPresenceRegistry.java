@@ -0,0 +1,212 @@
+package kitra.awachat.next.cluster;
+
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * 保存在 Redis 中的在线记录（awachat.cluster.mode=redis），每个在线用户一个集合 awachat:presence:&lt;userId&gt;，
+ * 成员为持有其会话的节点ID。一次查询多个用户时用管道发送。
+ * <p>
+ * 节点崩溃时来不及注销自己的用户，因此每个节点另外维护：
+ * <ul>
+ *     <li>awachat:presence-node:&lt;nodeId&gt;：该节点登记的用户ID集合</li>
+ *     <li>awachat:node-alive:&lt;nodeId&gt;：带 ttl 的存活标记，由 {@link #heartbeat} 定期续期</li>
+ *     <li>awachat:presence-nodes：登记过用户的全部节点ID</li>
+ * </ul>
+ * 每次心跳时检查其他节点的存活标记，已过期的节点按它的用户集合删除其全部在线记录。
+ * 节点下线后最多经过 ttl 加一个心跳间隔，其他节点就不会再把消息转发给它。
+ * 节点只是停顿（如 GC、Redis 短暂不可用）而被其他节点清理时，心跳发现自己已不在 awachat:presence-nodes 中，
+ * 按 {@link #setLocalUsers} 提供的本地用户重新登记
+ */
+@Component
+@ConditionalOnProperty(name = "awachat.cluster.mode", havingValue = "redis")
+public class RedisPresenceRegistry implements PresenceRegistry {
+    private static final String KEY_PREFIX = "awachat:presence:";
+    private static final String NODE_USERS_PREFIX = "awachat:presence-node:";
+    private static final String ALIVE_PREFIX = "awachat:node-alive:";
+    private static final String NODES_KEY = "awachat:presence-nodes";
+
+    private final StringRedisTemplate redisTemplate;
+    private final String nodeId;
+    private final Duration ttl;
+    private volatile Supplier<Collection<Integer>> localUsers = List::of;
+    private final Logger logger = LogManager.getLogger(RedisPresenceRegistry.class);
+
+    public RedisPresenceRegistry(StringRedisTemplate redisTemplate, MessageRouter messageRouter,
+                                 @Value("${awachat.cluster.presence.ttl:30s}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.nodeId = messageRouter.getNodeId();
+        this.ttl = ttl;
+    }
+
+    /**
+     * 启动时先续期存活标记，再删除本节点ID上次运行时留下的在线记录（配置了固定的 node-id 时）
+     */
+    @PostConstruct
+    public void start() {
+        redisTemplate.opsForValue().set(ALIVE_PREFIX + nodeId, "1", ttl);
+        removeNode(nodeId);
+        redisTemplate.opsForSet().add(NODES_KEY, nodeId);
+    }
+
+    @Override
+    public void setLocalUsers(Supplier<Collection<Integer>> localUsers) {
+        this.localUsers = localUsers;
+    }
+
+    @Override
+    public void register(int userId) {
+        String user = String.valueOf(userId);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.sAdd(KEY_PREFIX + userId, nodeId);
+            stringConnection.sAdd(NODE_USERS_PREFIX + nodeId, user);
+            stringConnection.sAdd(NODES_KEY, nodeId);
+            return null;
+        });
+    }
+
+    @Override
+    public void unregister(int userId) {
+        String user = String.valueOf(userId);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.sRem(KEY_PREFIX + userId, nodeId);
+            stringConnection.sRem(NODE_USERS_PREFIX + nodeId, user);
+            return null;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Integer, Set<String>> locate(Collection<Integer> userIds) {
+        List<Integer> users = new ArrayList<>(userIds);
+        if (users.isEmpty()) {
+            return Map.of();
+        }
+        List<Object> members = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Integer userId : users) {
+                stringConnection.sMembers(KEY_PREFIX + userId);
+            }
+            return null;
+        });
+        Map<Integer, Set<String>> result = new HashMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            Set<String> nodes = (Set<String>) members.get(i);
+            if (nodes != null && !nodes.isEmpty()) {
+                result.put(users.get(i), nodes);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void evict(String targetNodeId, Collection<Integer> userIds) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Integer userId : userIds) {
+                stringConnection.sRem(KEY_PREFIX + userId, targetNodeId);
+                stringConnection.sRem(NODE_USERS_PREFIX + targetNodeId, String.valueOf(userId));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 续期本节点的存活标记，本节点的记录已被其他节点清理时重新登记，并清理存活标记已过期的节点留下的在线记录
+     */
+    @Scheduled(fixedDelayString = "${awachat.cluster.presence.heartbeat-interval-ms:10000}")
+    public void heartbeat() {
+        try {
+            redisTemplate.opsForValue().set(ALIVE_PREFIX + nodeId, "1", ttl);
+            if (!Boolean.TRUE.equals(redisTemplate.opsForSet().isMember(NODES_KEY, nodeId))) {
+                restoreLocalUsers();
+            }
+            for (String node : findDeadNodes()) {
+                logger.warn("节点 {} 的存活标记已过期，清理它的在线记录", node);
+                removeNode(node);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("更新节点存活标记失败", e);
+        }
+    }
+
+    /**
+     * 重新登记本节点的全部用户。登记期间下线的用户在之后再检查一次并注销
+     */
+    private void restoreLocalUsers() {
+        List<Integer> users = List.copyOf(localUsers.get());
+        logger.warn("本节点的在线记录已被其他节点清理，重新登记 {} 个用户", users.size());
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Integer userId : users) {
+                stringConnection.sAdd(KEY_PREFIX + userId, nodeId);
+                stringConnection.sAdd(NODE_USERS_PREFIX + nodeId, String.valueOf(userId));
+            }
+            stringConnection.sAdd(NODES_KEY, nodeId);
+            return null;
+        });
+        Set<Integer> current = new HashSet<>(localUsers.get());
+        for (Integer userId : users) {
+            if (!current.contains(userId)) {
+                unregister(userId);
+            }
+        }
+    }
+
+    private List<String> findDeadNodes() {
+        Set<String> nodes = redisTemplate.opsForSet().members(NODES_KEY);
+        if (nodes == null || nodes.isEmpty()) {
+            return List.of();
+        }
+        List<String> others = new ArrayList<>(nodes);
+        others.remove(nodeId);
+        List<Object> alive = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String node : others) {
+                stringConnection.exists(ALIVE_PREFIX + node);
+            }
+            return null;
+        });
+        List<String> dead = new ArrayList<>();
+        for (int i = 0; i < others.size(); i++) {
+            if (!Boolean.TRUE.equals(alive.get(i))) {
+                dead.add(others.get(i));
+            }
+        }
+        return dead;
+    }
+
+    /**
+     * 删除节点登记的全部在线记录。多个节点同时清理同一个节点时结果相同
+     */
+    private void removeNode(String node) {
+        Set<String> users = redisTemplate.opsForSet().members(NODE_USERS_PREFIX + node);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            if (users != null) {
+                for (String userId : users) {
+                    stringConnection.sRem(KEY_PREFIX + userId, node);
+                }
+            }
+            stringConnection.del(NODE_USERS_PREFIX + node);
+            if (!node.equals(nodeId)) {
+                stringConnection.sRem(NODES_KEY, node);
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,13 @@
+package kitra.awachat.next.cluster;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * 转发给其他节点的消息
+ *
+ * @param userIds   目标节点上接收消息的用户ID
+ * @param messageId 聊天消息的消息ID，接收者已离开该节点时用于补发；不是聊天消息时为 null
+ * @param payload   JSON 编码的 WebSocketMessage，目标节点按各连接的编码格式转换后发送
+ */
+public record RoutedMessage(int[] userIds, @Nullable Long messageId, String payload) {
+}
@@ -0,0 +1,193 @@
+package kitra.awachat.next.codec;
+
+import org.springframework.web.socket.AbstractWebSocketMessage;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link WireFormat#CBOR_DEFLATE} 和 {@link WireFormat#JSON_DEFLATE} 子协议的帧压缩器，每个连接一个实例，只在该连接的写线程中使用。
+ * <p>
+ * 二进制帧格式：第一个字节为标志位，{@link #FLAG_RAW} 表示后面是原始数据，{@link #FLAG_DEFLATE} 表示后面是 raw DEFLATE 数据
+ * （与 permessage-deflate 相同，不带 zlib 头）。小于阈值的消息、以及压缩后没有变小的消息按原样发送：
+ * CBOR 加上 FLAG_RAW 标志位，JSON 仍然使用不带标志位的文本帧。
+ * <p>
+ * 统计数据由写线程更新，其他线程读取时可能略有滞后。{@link #close} 可能在其他线程调用，因此两者互斥
+ */
+public class FrameCompressor {
+    public static final byte FLAG_RAW = 0;
+    public static final byte FLAG_DEFLATE = 1;
+    // 客户端帧解压后的最大长度，防止压缩炸弹
+    private static final int MAX_INFLATED_SIZE = 1 << 20;
+
+    private final int minSize;
+    private final Deflater deflater;
+    private byte[] buffer = new byte[1024];
+    private boolean closed = false;
+
+    // 以下统计只由写线程修改
+    private volatile long rawBytes;
+    private volatile long wireBytes;
+    private volatile long compressedFrames;
+    private volatile long compressNanos;
+
+    /**
+     * @param minSize 原始消息不小于该字节数时才压缩
+     * @param level   压缩级别，1-9
+     */
+    public FrameCompressor(int minSize, int level) {
+        this.minSize = minSize;
+        this.deflater = new Deflater(level, true);
+    }
+
+    /**
+     * 达到阈值时压缩一条消息
+     *
+     * @param message CBOR 二进制帧或 JSON 文本帧
+     */
+    public synchronized Result compress(AbstractWebSocketMessage<?> message) {
+        boolean text = message instanceof TextMessage;
+        byte[] input;
+        if (text) {
+            input = ((TextMessage) message).asBytes();
+        } else {
+            ByteBuffer payload = ((BinaryMessage) message).getPayload().duplicate();
+            input = new byte[payload.remaining()];
+            payload.get(input);
+        }
+        int rawSize = input.length;
+        AbstractWebSocketMessage<?> frame = null;
+        long nanos = 0;
+
+        if (rawSize >= minSize && !closed) {
+            long start = System.nanoTime();
+            int compressedSize = deflate(input);
+            nanos = System.nanoTime() - start;
+            if (compressedSize < rawSize) {
+                byte[] compressed = new byte[compressedSize + 1];
+                compressed[0] = FLAG_DEFLATE;
+                System.arraycopy(buffer, 0, compressed, 1, compressedSize);
+                frame = new BinaryMessage(compressed);
+            }
+            compressedFrames++;
+            compressNanos += nanos;
+        }
+        if (frame == null) {
+            frame = text ? message : new BinaryMessage(withRawFlag(input));
+        }
+
+        int wireSize = frame == message ? rawSize : frame.getPayloadLength();
+        rawBytes += rawSize;
+        wireBytes += wireSize;
+        return new Result(frame, rawSize, wireSize, nanos);
+    }
+
+    /**
+     * 压缩到 buffer 中，返回压缩后的长度
+     */
+    private int deflate(byte[] input) {
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return length;
+    }
+
+    private static byte[] withRawFlag(byte[] input) {
+        byte[] frame = new byte[input.length + 1];
+        frame[0] = FLAG_RAW;
+        System.arraycopy(input, 0, frame, 1, input.length);
+        return frame;
+    }
+
+    /**
+     * 还原客户端发来的二进制帧，返回其中的 CBOR 或 JSON 数据
+     *
+     * @throws IllegalArgumentException 标志位未知、压缩数据损坏或解压后过大
+     */
+    public static ByteBuffer decompress(ByteBuffer frame) {
+        ByteBuffer payload = frame.duplicate();
+        if (!payload.hasRemaining()) {
+            throw new IllegalArgumentException("空帧");
+        }
+        byte flag = payload.get();
+        if (flag == FLAG_RAW) {
+            return payload.slice();
+        }
+        if (flag != FLAG_DEFLATE) {
+            throw new IllegalArgumentException("未知的帧标志位：" + flag);
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(payload);
+            byte[] output = new byte[Math.min(Math.max(payload.remaining() * 4, 256), MAX_INFLATED_SIZE)];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == output.length) {
+                    if (output.length >= MAX_INFLATED_SIZE) {
+                        throw new IllegalArgumentException("解压后的消息过大");
+                    }
+                    output = Arrays.copyOf(output, Math.min(output.length * 2, MAX_INFLATED_SIZE));
+                }
+                int inflated = inflater.inflate(output, length, output.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // 没有 BFINAL 的数据块（例如 SYNC_FLUSH 结尾），输入读完即结束
+                    break;
+                }
+                length += inflated;
+            }
+            return ByteBuffer.wrap(output, 0, length);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("压缩数据损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 释放 Deflater 占用的本地内存，连接关闭后调用
+     */
+    public synchronized void close() {
+        closed = true;
+        deflater.end();
+    }
+
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    public long getWireBytes() {
+        return wireBytes;
+    }
+
+    public long getCompressedFrames() {
+        return compressedFrames;
+    }
+
+    public long getCompressNanos() {
+        return compressNanos;
+    }
+
+    /**
+     * 一次压缩的结果
+     *
+     * @param frame     加上标志位后要发送的帧
+     * @param rawBytes  原始消息长度
+     * @param wireBytes 实际发送的长度
+     * @param nanos     压缩耗时，未压缩时为 0
+     */
+    public record Result(AbstractWebSocketMessage<?> frame, int rawBytes, int wireBytes, long nanos) {
+    }
+}
@@ -0,0 +1,226 @@
+package kitra.awachat.next.codec;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import kitra.awachat.next.dto.websocket.ChatMessageData;
+import kitra.awachat.next.dto.websocket.DeliveryAckData;
+import kitra.awachat.next.dto.websocket.ReadAcknowledgeData;
+import kitra.awachat.next.dto.websocket.RequestChatHistoryData;
+import kitra.awachat.next.dto.websocket.SyncRequestData;
+import kitra.awachat.next.dto.websocket.WebSocketMessage;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.AbstractWebSocketMessage;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * WebSocket 消息的编解码器，所有 WebSocket 消息的序列化和反序列化都通过它进行。
+ * <p>
+ * 解码时按 type 字段直接把 data 绑定为对应的 DTO，不会先生成 Map 再 convertValue；
+ * 每种 DTO 的 ObjectReader 和 ObjectWriter 在启动时创建并复用。
+ * JSON 和 CBOR 两种 {@link WireFormat} 共用同一套数据模型和解析逻辑，只是底层的 ObjectMapper 不同。
+ * <p>
+ * 这里使用独立的 ObjectMapper（默认配置加 Blackbird），与原先各处 new ObjectMapper() 的输出格式保持一致，
+ * 不注册为 Bean，以免替换掉 Spring MVC 使用的 ObjectMapper
+ */
+@Component
+public class WebSocketMessageCodec {
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_DATA = "data";
+
+    private final Map<WireFormat, Format> formats = new EnumMap<>(WireFormat.class);
+
+    public WebSocketMessageCodec() {
+        formats.put(WireFormat.JSON, new Format(JsonMapper.builder().addModule(new BlackbirdModule()).build()));
+        formats.put(WireFormat.CBOR, new Format(CBORMapper.builder().addModule(new BlackbirdModule()).build()));
+        // 压缩由每个连接的 FrameCompressor 在发送时完成，编解码本身与未压缩的格式相同
+        formats.put(WireFormat.CBOR_DEFLATE, formats.get(WireFormat.CBOR));
+        formats.put(WireFormat.JSON_DEFLATE, formats.get(WireFormat.JSON));
+    }
+
+    /**
+     * 获取 JSON 格式使用的 ObjectMapper，用于 convertValue 等操作
+     */
+    public ObjectMapper getObjectMapper() {
+        return formats.get(WireFormat.JSON).mapper();
+    }
+
+    /**
+     * 将消息序列化为 UTF-8 编码的 JSON
+     */
+    public byte[] encode(WebSocketMessage<?> message) throws JsonProcessingException {
+        return encode(message, WireFormat.JSON);
+    }
+
+    /**
+     * 将消息按指定格式序列化
+     */
+    public byte[] encode(WebSocketMessage<?> message, WireFormat format) throws JsonProcessingException {
+        return formats.get(format).writer().writeValueAsBytes(message);
+    }
+
+    /**
+     * 将消息编码为可以直接发送的 WebSocket 帧：JSON 为文本帧，CBOR 为二进制帧。帧是不可变的，可以发送给多个会话。
+     * 压缩格式返回的是未压缩的帧，由连接的 FrameCompressor 处理后发送
+     */
+    public AbstractWebSocketMessage<?> toFrame(WebSocketMessage<?> message, WireFormat format) throws JsonProcessingException {
+        byte[] payload = encode(message, format);
+        return format.isText() ? new TextMessage(payload) : new BinaryMessage(payload);
+    }
+
+    /**
+     * 把 JSON 编码的消息转换为指定格式的 WebSocket 帧，用于转发其他节点发来的消息。
+     * 只转换结构，不需要知道 data 的类型
+     */
+    public AbstractWebSocketMessage<?> transcodeFrame(String json, WireFormat format) throws JsonProcessingException {
+        if (format.isText()) {
+            return new TextMessage(json);
+        }
+        JsonNode tree = getObjectMapper().readTree(json);
+        return new BinaryMessage(formats.get(format).mapper().writeValueAsBytes(tree));
+    }
+
+    /**
+     * 解析客户端发来的 JSON 消息
+     *
+     * @return data 已经是对应 DTO 类型的消息；没有 data 或类型不需要 data 时 data 为 null
+     * @throws JsonProcessingException JSON 格式错误、缺少 type 字段或 data 与类型不匹配
+     */
+    public WebSocketMessage<?> decode(String payload) throws JsonProcessingException {
+        Format json = formats.get(WireFormat.JSON);
+        try (JsonParser parser = json.mapper().createParser(payload)) {
+            return decode(json, parser);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            // 从内存中读取不会出现 I/O 错误
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 解析客户端发来的 JSON 消息
+     *
+     * @see #decode(String)
+     */
+    public WebSocketMessage<?> decode(byte[] payload) throws JsonProcessingException {
+        return decode(ByteBuffer.wrap(payload), WireFormat.JSON);
+    }
+
+    /**
+     * 按指定格式解析客户端发来的消息
+     *
+     * @see #decode(String)
+     */
+    public WebSocketMessage<?> decode(ByteBuffer payload, WireFormat format) throws JsonProcessingException {
+        if (format.isCompressed()) {
+            try {
+                payload = FrameCompressor.decompress(payload);
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException((JsonParser) null, e.getMessage(), e);
+            }
+        }
+        Format codec = formats.get(format);
+        try (JsonParser parser = createParser(codec.mapper(), payload)) {
+            return decode(codec, parser);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static JsonParser createParser(ObjectMapper mapper, ByteBuffer payload) throws IOException {
+        if (payload.hasArray()) {
+            return mapper.createParser(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        }
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return mapper.createParser(bytes);
+    }
+
+    /**
+     * 单次遍历解析消息。type 在 data 之前时 data 直接绑定为 DTO；
+     * data 在 type 之前时先把 data 的 token 缓存在 TokenBuffer 中，读到 type 后再绑定
+     */
+    private WebSocketMessage<?> decode(Format format, JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "消息必须是 JSON 对象");
+        }
+        String type = null;
+        Object data = null;
+        TokenBuffer bufferedData = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            parser.nextToken();
+            if (FIELD_TYPE.equals(fieldName)) {
+                type = parser.getValueAsString();
+            } else if (FIELD_DATA.equals(fieldName)) {
+                if (type != null) {
+                    data = readData(format, type, parser);
+                } else {
+                    bufferedData = new TokenBuffer(parser);
+                    bufferedData.copyCurrentStructure(parser);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (type == null) {
+            throw new JsonParseException(parser, "消息缺少 type 字段");
+        }
+        if (bufferedData != null) {
+            try (JsonParser bufferedParser = bufferedData.asParser(parser.getCodec())) {
+                bufferedParser.nextToken();
+                data = readData(format, type, bufferedParser);
+            }
+        }
+        return new WebSocketMessage<>(type, data);
+    }
+
+    /**
+     * 读取当前位置的 data，parser 需要指向 data 的第一个 token
+     */
+    private Object readData(Format format, String type, JsonParser parser) throws IOException {
+        ObjectReader reader = format.dataReaders().get(type);
+        if (reader == null || parser.currentToken() == JsonToken.VALUE_NULL) {
+            parser.skipChildren();
+            return null;
+        }
+        return reader.readValue(parser);
+    }
+
+    /**
+     * 一种编码格式下预先创建好的 ObjectMapper、ObjectWriter 和各消息类型 data 的 ObjectReader
+     *
+     * @param dataReaders 消息类型 -> data 的 ObjectReader，不在表中的类型不解析 data
+     */
+    private record Format(ObjectMapper mapper, ObjectWriter writer, Map<String, ObjectReader> dataReaders) {
+        Format(ObjectMapper mapper) {
+            this(mapper, mapper.writerFor(WebSocketMessage.class), Map.of(
+                WebSocketMessage.TYPE_CHAT, mapper.readerFor(ChatMessageData.class),
+                WebSocketMessage.TYPE_ACK, mapper.readerFor(ReadAcknowledgeData.class),
+                WebSocketMessage.TYPE_DELIVERY_ACK, mapper.readerFor(DeliveryAckData.class),
+                WebSocketMessage.TYPE_REQUEST_CHAT_HISTORY, mapper.readerFor(RequestChatHistoryData.class),
+                WebSocketMessage.TYPE_SYNC, mapper.readerFor(SyncRequestData.class)
+            ));
+        }
+    }
+}
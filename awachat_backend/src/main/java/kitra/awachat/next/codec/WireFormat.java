@@ -0,0 +1,74 @@
+package kitra.awachat.next.codec;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * WebSocket 消息的编码格式，由客户端在握手时通过 Sec-WebSocket-Protocol 选择
+ */
+public enum WireFormat {
+    /**
+     * JSON 文本帧，客户端未指定子协议时的默认格式
+     */
+    JSON("awachat.json", null),
+    /**
+     * CBOR 二进制帧，数据模型与 JSON 相同
+     */
+    CBOR("awachat.cbor", null),
+    /**
+     * CBOR 二进制帧，每帧带一个字节的标志位，较大的消息使用 DEFLATE 压缩，见 {@link FrameCompressor}
+     */
+    CBOR_DEFLATE("awachat.cbor.deflate", CBOR),
+    /**
+     * 较小的消息与 JSON 相同，使用文本帧；达到压缩阈值的消息压缩后使用带标志位的二进制帧，帧格式与 CBOR_DEFLATE 相同。
+     * permessage-deflate 对所有帧使用固定的压缩级别、不能设置阈值，需要调节时 JSON 客户端使用这个子协议
+     */
+    JSON_DEFLATE("awachat.json.deflate", JSON);
+
+    private final String subProtocol;
+    @Nullable
+    private final WireFormat encoding;
+
+    WireFormat(String subProtocol, @Nullable WireFormat encoding) {
+        this.subProtocol = subProtocol;
+        this.encoding = encoding;
+    }
+
+    public String getSubProtocol() {
+        return subProtocol;
+    }
+
+    /**
+     * 压缩前的编码格式（JSON 或 CBOR），序列化和共享帧都按这个格式进行
+     */
+    public WireFormat getEncoding() {
+        return encoding != null ? encoding : this;
+    }
+
+    /**
+     * 是否由每个连接的 {@link FrameCompressor} 压缩
+     */
+    public boolean isCompressed() {
+        return encoding != null;
+    }
+
+    /**
+     * 未压缩的消息是否使用文本帧
+     */
+    public boolean isText() {
+        return getEncoding() == JSON;
+    }
+
+    /**
+     * 根据握手时协商出的子协议确定编码格式
+     *
+     * @param subProtocol 协商出的子协议，未协商时为 null
+     */
+    public static WireFormat fromSubProtocol(@Nullable String subProtocol) {
+        for (WireFormat format : values()) {
+            if (format.subProtocol.equals(subProtocol)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+}
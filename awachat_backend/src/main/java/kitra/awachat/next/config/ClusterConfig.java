@@ -0,0 +1,31 @@
+package kitra.awachat.next.config;
+
+import kitra.awachat.next.cluster.InMemoryCluster;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * 按 awachat.cluster.mode 选择节点间消息转发和在线记录的实现：
+ * local（默认）为单节点部署，redis 通过 Redis 发布/订阅在多个节点之间转发
+ */
+@Configuration
+public class ClusterConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "awachat.cluster.mode", havingValue = "local", matchIfMissing = true)
+    public InMemoryCluster.Node localClusterNode(@Value("${awachat.cluster.node-id:}") String nodeId) {
+        return new InMemoryCluster().join(nodeId.isBlank() ? "local" : nodeId);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "awachat.cluster.mode", havingValue = "redis")
+    public RedisMessageListenerContainer clusterListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+}
@@ -0,0 +1,38 @@
+package kitra.awachat.next.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 处理 WebSocket 消息所用线程的类型，由 awachat.execution.mode 配置。
+ * HTTP 请求是否使用虚拟线程由 Spring Boot 的 spring.threads.virtual.enabled 配置
+ */
+public enum ExecutionMode {
+    /**
+     * 固定大小的平台线程池
+     */
+    PLATFORM,
+    /**
+     * 每个任务一个虚拟线程，阻塞在 JDBC 或 MinIO 上时不占用平台线程
+     */
+    VIRTUAL;
+
+    /**
+     * 创建对应模式的线程池
+     *
+     * @param namePrefix      线程名前缀
+     * @param platformThreads PLATFORM 模式下的线程数
+     */
+    public ExecutorService createExecutor(String namePrefix, int platformThreads) {
+        if (this == VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 1).factory());
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -2,6 +2,8 @@ package kitra.awachat.next.config;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.apache.ibatis.type.BaseTypeHandler;
 import org.apache.ibatis.type.JdbcType;
 import org.postgresql.util.PGobject;
@@ -18,13 +20,16 @@ import java.util.Map;
 public class JsonbTypeHandler extends BaseTypeHandler<Map<String, Object>> {
 
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    // MyBatis 自行创建 TypeHandler 实例，无法注入，这里缓存读写 Map 用的 ObjectReader/ObjectWriter
+    private static final ObjectReader mapReader = objectMapper.readerFor(Map.class);
+    private static final ObjectWriter mapWriter = objectMapper.writerFor(Map.class);
 
     @Override
     public void setNonNullParameter(PreparedStatement ps, int i, Map<String, Object> parameter, JdbcType jdbcType) throws SQLException {
         try {
             PGobject jsonObject = new PGobject();
             jsonObject.setType("jsonb");
-            jsonObject.setValue(objectMapper.writeValueAsString(parameter));
+            jsonObject.setValue(mapWriter.writeValueAsString(parameter));
             ps.setObject(i, jsonObject);
         } catch (JsonProcessingException e) {
             throw new SQLException("Error serializing Map to JSON string", e);
@@ -38,7 +43,7 @@ public class JsonbTypeHandler extends BaseTypeHandler<Map<String, Object>> {
             return null;
         }
         try {
-            return objectMapper.readValue(pgObject.getValue(), Map.class);
+            return mapReader.readValue(pgObject.getValue());
         } catch (JsonProcessingException e) {
             throw new SQLException("Error deserializing JSON string to Map", e);
         }
@@ -51,7 +56,7 @@ public class JsonbTypeHandler extends BaseTypeHandler<Map<String, Object>> {
             return null;
         }
         try {
-            return objectMapper.readValue(pgObject.getValue(), Map.class);
+            return mapReader.readValue(pgObject.getValue());
         } catch (JsonProcessingException e) {
             throw new SQLException("Error deserializing JSON string to Map", e);
         }
@@ -64,7 +69,7 @@ public class JsonbTypeHandler extends BaseTypeHandler<Map<String, Object>> {
             return null;
         }
         try {
-            return objectMapper.readValue(pgObject.getValue(), Map.class);
+            return mapReader.readValue(pgObject.getValue());
         } catch (JsonProcessingException e) {
             throw new SQLException("Error deserializing JSON string to Map", e);
         }
@@ -2,6 +2,8 @@ package kitra.awachat.next.config;
 
 import kitra.awachat.next.handler.ChatWebSocketHandler;
 import kitra.awachat.next.session.AuthHandshakeInterceptor;
+import kitra.awachat.next.session.CompressionHandshakeHandler;
+import kitra.awachat.next.session.HandshakeAdmissionInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
@@ -15,18 +17,26 @@ import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
 public class WebSocketConfig implements WebSocketConfigurer {
 
     private final ChatWebSocketHandler chatHandler;
+    private final HandshakeAdmissionInterceptor admissionInterceptor;
     private final AuthHandshakeInterceptor authInterceptor;
+    private final CompressionHandshakeHandler handshakeHandler;
 
     public WebSocketConfig(ChatWebSocketHandler chatHandler,
-                           AuthHandshakeInterceptor authInterceptor) {
+                           HandshakeAdmissionInterceptor admissionInterceptor,
+                           AuthHandshakeInterceptor authInterceptor,
+                           CompressionHandshakeHandler handshakeHandler) {
         this.chatHandler = chatHandler;
+        this.admissionInterceptor = admissionInterceptor;
         this.authInterceptor = authInterceptor;
+        this.handshakeHandler = handshakeHandler;
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(chatHandler, "/ws/chat")
-            .addInterceptors(authInterceptor)
+            .setHandshakeHandler(handshakeHandler)
+            // 准入控制在验证 token 之前
+            .addInterceptors(admissionInterceptor, authInterceptor)
             .setAllowedOrigins("*"); // 生产环境应限制具体域名
     }
 }
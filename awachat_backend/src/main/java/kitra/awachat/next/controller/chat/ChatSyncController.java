@@ -0,0 +1,48 @@
+package kitra.awachat.next.controller.chat;
+
+import cn.dev33.satoken.stp.StpUtil;
+import kitra.awachat.next.dto.ApiResponse;
+import kitra.awachat.next.dto.websocket.SyncData;
+import kitra.awachat.next.dto.websocket.WebSocketMessage;
+import kitra.awachat.next.exception.TooManyRequestsException;
+import kitra.awachat.next.handler.MessageRateLimiter;
+import kitra.awachat.next.service.ChatMessageService;
+import kitra.awachat.next.util.ApiUtil;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 增量同步接口，与 WebSocket 的 sync 消息相同，每次请求返回一批。
+ * 与 sync 消息共用 {@link MessageRateLimiter} 中同一个用户的令牌桶，不能通过改用 HTTP 绕过限流
+ */
+@RequestMapping("/chat")
+@RestController
+public class ChatSyncController {
+    private final ChatMessageService chatMessageService;
+    private final MessageRateLimiter rateLimiter;
+
+    public ChatSyncController(ChatMessageService chatMessageService, MessageRateLimiter rateLimiter) {
+        this.chatMessageService = chatMessageService;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * 获取当前用户所有会话中序号大于 since 的消息
+     *
+     * @param since 上次同步返回的 nextSinceSeq，不提供时从头开始
+     * @param limit 本批最多返回的消息数量，不提供时使用服务端的分批大小
+     * @return 一批消息，done 为 false 时用 nextSinceSeq 继续请求
+     * @throws TooManyRequestsException 超过同步的频率限制
+     */
+    @GetMapping("/sync")
+    public ApiResponse<SyncData> sync(@RequestParam(required = false) Long since,
+                                      @RequestParam(required = false) Integer limit) {
+        int currentUserId = StpUtil.getLoginIdAsInt();
+        if (!rateLimiter.tryAcquire(currentUserId, WebSocketMessage.TYPE_SYNC)) {
+            throw new TooManyRequestsException();
+        }
+        return ApiUtil.successfulResponse(chatMessageService.getMessagesSince(currentUserId, since, limit));
+    }
+}
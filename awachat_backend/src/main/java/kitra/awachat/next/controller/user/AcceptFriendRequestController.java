@@ -2,13 +2,13 @@ package kitra.awachat.next.controller.user;
 
 import cn.dev33.satoken.stp.StpUtil;
 import jakarta.validation.Valid;
+import kitra.awachat.next.cache.PrivateChatMembership;
 import kitra.awachat.next.dto.ApiResponse;
 import kitra.awachat.next.dto.user.AcceptFriendRequestRequest;
 import kitra.awachat.next.dto.websocket.ChatMessageData;
 import kitra.awachat.next.dto.websocket.ChatMessageType;
 import kitra.awachat.next.dto.websocket.ChatType;
 import kitra.awachat.next.dto.websocket.TextMessageContent;
-import kitra.awachat.next.entity.PrivateChatEntity;
 import kitra.awachat.next.exception.FriendRequestNotFoundException;
 import kitra.awachat.next.exception.UserNotFoundException;
 import kitra.awachat.next.service.ChatMessageService;
@@ -80,27 +80,29 @@ public class AcceptFriendRequestController {
         }
         // 发送欢迎消息
         // TODO 这里存在优化空间，代码和ChatWebSocketHandler中发送消息的代码有部分重复，考虑将发送消息的代码封装？
-        webSocketSessionManager.getSessionsByUser(originUserId).forEach(session -> {
+        // 申请者可能连接在其他节点上，按集群范围判断是否在线
+        if (webSocketSessionManager.isUserOnline(originUserId)) {
             // 1. 创建或获取私聊会话
-            PrivateChatEntity chatEntity = chatService.createOrGetPrivateChat(currentUserId, originUserId);
+            PrivateChatMembership chatMembership = chatService.createOrGetPrivateChat(currentUserId, originUserId);
             // 2. chatId填入消息中
             ChatMessageData<TextMessageContent> chatMessageData = new ChatMessageData<>(
                 0L, // 目前还没有生成消息ID
                 ChatType.PRIVATE,
                 ChatMessageType.TEXT,
-                chatEntity.getChatId(),  // 使用新的chatId
+                chatMembership.chatId(),  // 使用新的chatId
                 currentUserId,
                 originUserId,
                 null,
                 new TextMessageContent("我们已成为好友，现在开始聊天吧！"),
-                new Date()
+                new Date(),
+                null
             );
             // 3. 处理聊天消息
             boolean handleSuccess = chatMessageService.handleChatMessage(currentUserId, chatMessageData);
             if (!handleSuccess) {
                 logger.warn("未能发送加好友成功欢迎消息。接受好友请求者：{}，申请者：{}", currentUserId, originUserId);
             }
-        });
+        }
         return ApiUtil.successfulResponse(null);
     }
 }
@@ -1,10 +1,9 @@
 package kitra.awachat.next.controller.user;
 
 import cn.dev33.satoken.stp.StpUtil;
+import kitra.awachat.next.cache.UserProfile;
 import kitra.awachat.next.dto.ApiResponse;
 import kitra.awachat.next.dto.user.UserDataResponse;
-import kitra.awachat.next.entity.UserEntity;
-import kitra.awachat.next.exception.UserNotFoundException;
 import kitra.awachat.next.service.FriendService;
 import kitra.awachat.next.service.UserService;
 import kitra.awachat.next.util.ApiUtil;
@@ -39,22 +38,19 @@ public class UserInfoController {
         @RequestParam(required = false) String username) {
         // 如果没有提供userId和username，则获取当前登录用户的ID
         int currentUserId = StpUtil.getLoginIdAsInt();
-        UserEntity userEntity;
+        UserProfile profile;
 
         if (userId != null) {
             // 通过ID查询用户
-            userEntity = userService.getUserById(userId);
+            profile = userService.getUserById(userId);
         } else if (username != null && !username.isEmpty()) {
             // 通过用户名查询用户
-            userEntity = userService.getUserByUsername(username);
-            if (userEntity == null) {
-                throw new UserNotFoundException();
-            }
-            userId = userEntity.getUserId();
+            profile = userService.getUserByUsername(username);
+            userId = profile.userId();
         } else {
             // 获取当前用户
             userId = currentUserId;
-            userEntity = userService.getUserById(userId);
+            profile = userService.getUserById(userId);
         }
 
         // 检查是否为好友（如果查询的不是自己）
@@ -65,17 +61,17 @@ public class UserInfoController {
 
         // 构建返回数据
         UserDataResponse userData = new UserDataResponse(
-            userEntity.getUserId(),
-            userEntity.getUsername(),
-            userEntity.getNickname(),
-            userEntity.getDescription(),
-            userEntity.getAvatar(),
-            userEntity.getCreatedAt(),
-            userEntity.getLastOnlineAt(),
-            userEntity.getRole(),
-            userEntity.getBanUntil(),
+            profile.userId(),
+            profile.username(),
+            profile.nickname(),
+            profile.description(),
+            profile.avatar(),
+            profile.createdAt(),
+            profile.lastOnlineAt(),
+            profile.role(),
+            profile.banUntil(),
             isFriend, // 设置是否为好友
-            userEntity.getExtendedData()
+            profile.extendedData()
         );
 
         return ApiUtil.successfulResponse(userData);
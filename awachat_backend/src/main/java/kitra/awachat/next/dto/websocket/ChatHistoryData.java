@@ -1,7 +1,10 @@
 package kitra.awachat.next.dto.websocket;
 
 /**
- * 后端返回给前端用户的消息历史记录
+ * 后端返回给前端用户的消息历史记录，按消息ID升序排列。
+ * <p>
+ * hasMoreBefore 和 hasMoreAfter 表示第一条消息之前、最后一条消息之后是否还有消息，
+ * 有时可以用第一条或最后一条消息的ID作为游标继续请求
  */
-public record ChatHistoryData(ChatMessageData<?>[] history) {
+public record ChatHistoryData(ChatMessageData<?>[] history, boolean hasMoreBefore, boolean hasMoreAfter) {
 }
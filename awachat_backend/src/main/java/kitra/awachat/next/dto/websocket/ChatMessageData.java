@@ -14,15 +14,21 @@ public record ChatMessageData<T>(
     Integer to,             // 接收者ID
     Long replyTo,          // 回复的消息ID
     T content,              // 消息内容，结构和 msgType 有关
-    Date sentAt            // 发送时间
+    Date sentAt,            // 发送时间
+    String clientMessageId // 客户端生成的消息ID，用于发送重试时去重，可以为空
 ) {
     // 创建文本消息的工厂方法
     public static ChatMessageData<TextMessageContent> createTextMessage(Long messageId, ChatType chatType, ChatMessageType chatMessageType, Long chatId, Integer from, Integer to, Long replyTo, String text, Date sentAt) {
-        return new ChatMessageData<>(messageId, chatType, chatMessageType, chatId, from, to, replyTo, new TextMessageContent(text), sentAt);
+        return new ChatMessageData<>(messageId, chatType, chatMessageType, chatId, from, to, replyTo, new TextMessageContent(text), sentAt, null);
+    }
+
+    // 返回带有客户端消息ID的副本
+    public ChatMessageData<T> withClientMessageId(String clientMessageId) {
+        return new ChatMessageData<>(id, chatType, msgType, chatId, from, to, replyTo, content, sentAt, clientMessageId);
     }
 
     // 创建复合消息的工厂方法
     public static ChatMessageData<CompoundMessageContent> createCompoundMessage(Long messageId, ChatType chatType, ChatMessageType chatMessageType, Long chatId, Integer from, Integer to, Long replyTo, CompoundMessagePart[] parts, Date sentAt) {
-        return new ChatMessageData<>(messageId, chatType, chatMessageType, chatId, from, to, replyTo, new CompoundMessageContent(parts), sentAt);
+        return new ChatMessageData<>(messageId, chatType, chatMessageType, chatId, from, to, replyTo, new CompoundMessageContent(parts), sentAt, null);
     }
 }
\ No newline at end of file
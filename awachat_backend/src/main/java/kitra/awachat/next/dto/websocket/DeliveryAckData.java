@@ -0,0 +1,8 @@
+package kitra.awachat.next.dto.websocket;
+
+/**
+ * 客户端确认已收到服务端推送的聊天消息，messageIds 为收到的消息ID。
+ * 连接建立后客户端发送一次（可以为空列表）即开启该连接的送达确认和超时重发
+ */
+public record DeliveryAckData(Long[] messageIds) {
+}
@@ -1,7 +1,11 @@
 package kitra.awachat.next.dto.websocket;
 
 /**
- * 用于前端请求后端发送历史聊天记录
+ * 用于前端请求后端发送历史聊天记录。
+ * <p>
+ * 三个游标最多设置一个：lastMessageId 取该消息之前的消息（都不设置时取最新的消息），afterMessageId 取该消息之后的消息，
+ * aroundMessageId 取该消息及其前后的消息，用于跳转到某条消息。limit 为空时使用服务端的默认值，超过上限时按上限处理
  */
-public record RequestChatHistoryData(ChatType chatType, Long chatId, Long lastMessageId) {
+public record RequestChatHistoryData(ChatType chatType, Long chatId, Long lastMessageId, Long afterMessageId,
+                                     Long aroundMessageId, Integer limit) {
 }
@@ -0,0 +1,12 @@
+package kitra.awachat.next.dto.websocket;
+
+/**
+ * 增量同步的一批消息，跨所有会话按用户消息序列的序号升序排列。
+ * <p>
+ * 序号是每个用户独立的、按提交顺序递增的编号，与消息ID无关。nextSinceSeq 为本批最后一条消息的序号，
+ * 没有消息时等于请求的游标；done 为 true 表示已经同步到最新。
+ * 一次同步的消息数量有上限，达到上限时 done 为 false，客户端用 nextSinceSeq 再次请求。
+ * 实时推送的消息不带序号，客户端重连后从上次的 nextSinceSeq 同步，可能再次收到已推送的消息，应按消息ID去重
+ */
+public record SyncData(ChatMessageData<?>[] messages, Long nextSinceSeq, boolean done) {
+}
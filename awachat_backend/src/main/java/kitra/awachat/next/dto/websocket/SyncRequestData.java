@@ -0,0 +1,8 @@
+package kitra.awachat.next.dto.websocket;
+
+/**
+ * 客户端请求增量同步：取得所有会话中用户消息序列的序号大于 sinceSeq 的消息。
+ * sinceSeq 为上次同步返回的 nextSinceSeq，为空时从头开始
+ */
+public record SyncRequestData(Long sinceSeq) {
+}
@@ -10,7 +10,10 @@ public record WebSocketMessage<T>(String type, T data) {
     public static final String TYPE_SYSTEM = "system";
     public static final String TYPE_ERROR = "error";
     public static final String TYPE_ACK = "ack"; // 已读反馈
+    public static final String TYPE_DELIVERY_ACK = "delivery_ack"; // 送达确认，数据为 DeliveryAckData
     public static final String TYPE_REQUEST_CHAT_HISTORY = "request_chat_history"; // 客户端请求历史消息/服务端发送历史消息
+    public static final String TYPE_SYNC = "sync"; // 客户端请求增量同步/服务端分批发送同步的消息
+    public static final String TYPE_PENDING_MESSAGES = "pending_messages"; // 服务端补发用户离线期间的消息，数据为 ChatHistoryData
 
     // 创建聊天消息的工厂方法
     public static <T> WebSocketMessage<T> createChatMessage(T data) {
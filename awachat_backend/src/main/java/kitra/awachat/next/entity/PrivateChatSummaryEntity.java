@@ -0,0 +1,88 @@
+package kitra.awachat.next.entity;
+
+import java.util.Date;
+
+/**
+ * 会话列表查询的结果行，由 {@code PrivateChatMapper.selectChatSummaries} 一次性查出会话、对方用户ID、最后一条消息和未读数，
+ * 不对应数据库中的任何一张表
+ */
+public class PrivateChatSummaryEntity {
+    private Long chatId;
+
+    private Date createdAt;
+
+    private Date updatedAt;
+
+    /**
+     * 对方用户ID
+     */
+    private Integer peerId;
+
+    /**
+     * 最后一条消息的类型，会话中没有消息时为 null
+     */
+    private Short lastMessageType;
+
+    /**
+     * 最后一条消息的文本（content 中的 content 字段），仅文本消息有值
+     */
+    private String lastMessageText;
+
+    private Integer unreadCount;
+
+    public Long getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(Long chatId) {
+        this.chatId = chatId;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public Integer getPeerId() {
+        return peerId;
+    }
+
+    public void setPeerId(Integer peerId) {
+        this.peerId = peerId;
+    }
+
+    public Short getLastMessageType() {
+        return lastMessageType;
+    }
+
+    public void setLastMessageType(Short lastMessageType) {
+        this.lastMessageType = lastMessageType;
+    }
+
+    public String getLastMessageText() {
+        return lastMessageText;
+    }
+
+    public void setLastMessageText(String lastMessageText) {
+        this.lastMessageText = lastMessageText;
+    }
+
+    public Integer getUnreadCount() {
+        return unreadCount;
+    }
+
+    public void setUnreadCount(Integer unreadCount) {
+        this.unreadCount = unreadCount;
+    }
+}
@@ -0,0 +1,43 @@
+package kitra.awachat.next.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+
+/**
+ * 私聊会话中某个用户的未读消息计数，在消息写入和已读反馈时维护
+ */
+@TableName("private_chat_unread")
+public class PrivateChatUnreadEntity {
+    @TableField("chat_id")
+    private Long chatId;
+
+    @TableField("user_id")
+    private Integer userId;
+
+    @TableField("unread_count")
+    private Integer unreadCount;
+
+    public Long getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(Long chatId) {
+        this.chatId = chatId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    public Integer getUnreadCount() {
+        return unreadCount;
+    }
+
+    public void setUnreadCount(Integer unreadCount) {
+        this.unreadCount = unreadCount;
+    }
+}
@@ -14,6 +14,10 @@ public class PrivateMessageAcknowledgeEntity {
     @TableField("last_message_id")
     private Long lastMessageId;
 
+    // 最后已读消息在该用户消息序列中的序号，未读数量按它统计
+    @TableField("last_seq")
+    private Long lastSeq;
+
     public Long getChatId() {
         return chatId;
     }
@@ -37,4 +41,12 @@ public class PrivateMessageAcknowledgeEntity {
     public void setLastMessageId(Long lastMessageId) {
         this.lastMessageId = lastMessageId;
     }
+
+    public Long getLastSeq() {
+        return lastSeq;
+    }
+
+    public void setLastSeq(Long lastSeq) {
+        this.lastSeq = lastSeq;
+    }
 }
\ No newline at end of file
@@ -39,6 +39,15 @@ public class PrivateMessageEntity {
     @TableField("is_deleted")
     private Boolean isDeleted;
 
+    /**
+     * 消息在发送者和接收者各自的消息序列中的序号，写入消息的事务中由 UserMessageSeqAllocator 分配
+     */
+    @TableField("sender_seq")
+    private Long senderSeq;
+
+    @TableField("receiver_seq")
+    private Long receiverSeq;
+
     // Getters and Setters
     public Long getMessageId() {
         return messageId;
@@ -111,4 +120,29 @@ public class PrivateMessageEntity {
     public void setIsDeleted(Boolean deleted) {
         isDeleted = deleted;
     }
+
+    public Long getSenderSeq() {
+        return senderSeq;
+    }
+
+    public void setSenderSeq(Long senderSeq) {
+        this.senderSeq = senderSeq;
+    }
+
+    public Long getReceiverSeq() {
+        return receiverSeq;
+    }
+
+    public void setReceiverSeq(Long receiverSeq) {
+        this.receiverSeq = receiverSeq;
+    }
+
+    /**
+     * 消息在某个用户的消息序列中的序号，发给自己的消息取接收者的序号
+     *
+     * @param userId 发送者或接收者的ID
+     */
+    public Long getSeqFor(int userId) {
+        return receiverId == userId ? receiverSeq : senderSeq;
+    }
 }
\ No newline at end of file
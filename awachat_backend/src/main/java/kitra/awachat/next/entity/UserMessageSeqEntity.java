@@ -0,0 +1,32 @@
+package kitra.awachat.next.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+
+/**
+ * 用户消息序列的计数，记录已分配的最大序号
+ */
+@TableName("user_message_seq")
+public class UserMessageSeqEntity {
+    @TableField("user_id")
+    private Integer userId;
+
+    @TableField("last_seq")
+    private Long lastSeq;
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    public Long getLastSeq() {
+        return lastSeq;
+    }
+
+    public void setLastSeq(Long lastSeq) {
+        this.lastSeq = lastSeq;
+    }
+}
@@ -0,0 +1,7 @@
+package kitra.awachat.next.exception;
+
+public class TooManyRequestsException extends ApiException {
+    public TooManyRequestsException() {
+        super(200429, "请求过于频繁，请稍后再试");
+    }
+}
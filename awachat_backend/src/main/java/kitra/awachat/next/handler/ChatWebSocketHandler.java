@@ -1,44 +1,59 @@
 package kitra.awachat.next.handler;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import kitra.awachat.next.cache.PrivateChatMembership;
+import kitra.awachat.next.codec.WebSocketMessageCodec;
+import kitra.awachat.next.codec.WireFormat;
 import kitra.awachat.next.dto.websocket.*;
-import kitra.awachat.next.entity.PrivateChatEntity;
 import kitra.awachat.next.service.ChatMessageService;
 import kitra.awachat.next.service.ChatService;
 import kitra.awachat.next.service.FriendService;
+import kitra.awachat.next.session.QueuedWebSocketSession;
 import kitra.awachat.next.session.WebSocketSessionManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * Handler 用于对连接的建立、断开和消息的接收进行响应，处理所有的 WebSocket 请求
+ * Handler 用于对连接的建立、断开和消息的接收进行响应，处理所有的 WebSocket 请求。
+ * <p>
+ * 客户端可以在握手时通过子协议选择消息格式（见 {@link WireFormat}）：JSON 使用文本帧，CBOR 使用二进制帧，
+ * 两种格式解码后由同一套逻辑处理
  */
 @Component
-public class ChatWebSocketHandler extends TextWebSocketHandler {
+public class ChatWebSocketHandler extends AbstractWebSocketHandler implements SubProtocolCapable {
 
     private final WebSocketSessionManager sessionManager;
     private final ChatMessageService chatMessageService;
     private final ChatService chatService;
     private final FriendService friendService;
-    private final ObjectMapper objectMapper;
+    private final WebSocketMessageCodec codec;
+    private final InboundMessageDispatcher dispatcher;
+    private final MessageRateLimiter rateLimiter;
     private final Logger logger = LogManager.getLogger(ChatWebSocketHandler.class);
 
     public ChatWebSocketHandler(WebSocketSessionManager sessionManager, ChatMessageService chatMessageService,
-                                ChatService chatService, FriendService friendService) {
+                                ChatService chatService, FriendService friendService, WebSocketMessageCodec codec,
+                                InboundMessageDispatcher dispatcher, MessageRateLimiter rateLimiter) {
         this.sessionManager = sessionManager;
         this.chatMessageService = chatMessageService;
         this.chatService = chatService;
         this.friendService = friendService;
-        this.objectMapper = new ObjectMapper();
+        this.codec = codec;
+        this.dispatcher = dispatcher;
+        this.rateLimiter = rateLimiter;
     }
 
     @Override
@@ -47,17 +62,26 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         Integer userId = (Integer) session.getAttributes().get("userId");
 
         if (userId != null) {
-            // 添加到会话管理器
+            // 添加到会话管理器，之后向该连接发送的消息都经过它的发送队列
             sessionManager.addSession(userId, session);
-            logger.info("用户连接：{}，会话ID：{}", userId, session.getId());
+            logger.info("用户连接：{}，会话ID：{}，子协议：{}", userId, session.getId(), session.getAcceptedProtocol());
 
             // 发送欢迎消息
             try {
                 WebSocketMessage<String> welcomeMessage = new WebSocketMessage<>(WebSocketMessage.TYPE_SYSTEM, "连接已建立");
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(welcomeMessage)));
+                sessionManager.sendToSession(session, welcomeMessage);
             } catch (IOException e) {
                 logger.error("发送欢迎消息失败", e);
             }
+
+            // 补发离线期间的消息，放入 Mailbox 保证在该连接之后发来的消息之前处理
+            dispatcher.dispatch(session, () -> {
+                try {
+                    chatMessageService.replayPendingMessages(userId, session);
+                } catch (Exception e) {
+                    logger.error("补发用户 {} 的离线消息失败", userId, e);
+                }
+            });
         } else {
             // 未认证的连接立即关闭
             try {
@@ -67,23 +91,64 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
+    @Override
+    public List<String> getSubProtocols() {
+        return Arrays.stream(WireFormat.values()).map(WireFormat::getSubProtocol).toList();
+    }
+
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) {
-        Integer userId = sessionManager.getUserIdBySession(session.getId());
+        logger.debug("收到消息：{}", message.getPayload());
+        sessionManager.touch(session);
+        String payload = message.getPayload();
+        // 消息交给该连接的 Mailbox 按顺序处理，容器线程立即返回
+        if (!dispatcher.dispatch(session, () -> handleIncomingMessage(session, () -> codec.decode(payload)))) {
+            sendErrorMessage(session, "消息发送过快，请稍后再试");
+        }
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        sessionManager.touch(session);
+        // 协商了压缩子协议的连接，二进制帧带有标志位；其他连接的二进制帧总是 CBOR
+        WireFormat sessionFormat = sessionManager.getWireFormat(session);
+        WireFormat format = sessionFormat.isCompressed() ? sessionFormat : WireFormat.CBOR;
+        // 容器在回调返回后可能复用 ByteBuffer，交给工作线程前先复制
+        ByteBuffer payload = ByteBuffer.allocate(message.getPayloadLength());
+        payload.put(message.getPayload().duplicate()).flip();
+        if (!dispatcher.dispatch(session, () -> handleIncomingMessage(session, () -> codec.decode(payload, format)))) {
+            sendErrorMessage(session, "消息发送过快，请稍后再试");
+        }
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        // 客户端对服务端 Ping 的回复，只用于空闲检测
+        sessionManager.touch(session);
+    }
+
+    /**
+     * 解析消息并按消息类型分发，文本帧和二进制帧共用
+     */
+    private void handleIncomingMessage(WebSocketSession session, MessageDecoder decoder) {
+        Integer userId = sessionManager.getUserId(session);
         if (userId == null) {
             logger.warn("收到未认证会话的消息：{}", session.getId());
             return;
         }
 
         try {
-            // 解析消息
-            String payload = message.getPayload();
-            logger.debug("收到消息：{}", payload);
-
-            // 将JSON字符串转换为WebSocketMessage对象
-            WebSocketMessage<?> webSocketMessage = objectMapper.readValue(payload, WebSocketMessage.class);
+            // 解析消息，data 已按消息类型解析为对应的 DTO
+            WebSocketMessage<?> webSocketMessage = decoder.decode();
             String messageType = webSocketMessage.type();
 
+            // 超过频率限制的消息在访问数据库之前拒绝
+            if (!rateLimiter.tryAcquire(userId, messageType)) {
+                logger.debug("用户 {} 发送 {} 消息过于频繁", userId, messageType);
+                sendErrorMessage(session, "请求过于频繁，请稍后再试：" + messageType);
+                return;
+            }
+
             // 根据消息类型处理
             switch (messageType) {
                 case WebSocketMessage.TYPE_CHAT:
@@ -95,9 +160,15 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                 case WebSocketMessage.TYPE_ACK:
                     handleAcknowledgeMessage(userId, webSocketMessage, session);
                     break;
+                case WebSocketMessage.TYPE_DELIVERY_ACK:
+                    handleDeliveryAcknowledge(webSocketMessage, session);
+                    break;
                 case WebSocketMessage.TYPE_REQUEST_CHAT_HISTORY:
                     handleRequestChatHistory(userId, webSocketMessage, session);
                     break;
+                case WebSocketMessage.TYPE_SYNC:
+                    handleSync(userId, webSocketMessage, session);
+                    break;
                 default:
                     logger.warn("不支持的消息类型：{}", messageType);
                     sendErrorMessage(session, "不支持的消息类型：" + messageType);
@@ -118,25 +189,24 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
      */
     private void handleRequestChatHistory(Integer userId, WebSocketMessage<?> webSocketMessage, WebSocketSession session) {
         try {
-            // 将data部分转换为RequestChatHistoryData
-            RequestChatHistoryData requestData = objectMapper.convertValue(webSocketMessage.data(), RequestChatHistoryData.class);
+            RequestChatHistoryData requestData = (RequestChatHistoryData) webSocketMessage.data();
 
             // 获取历史消息
-            List<ChatMessageData<?>> historyMessages = chatMessageService.getHistoryMessages(
+            ChatHistoryData chatHistoryData = chatMessageService.getHistoryMessages(
                 userId,
                 requestData.chatId(),
                 requestData.chatType(),
                 requestData.lastMessageId(),
-                20 // 每次获取20条消息
+                requestData.afterMessageId(),
+                requestData.aroundMessageId(),
+                requestData.limit()
             );
 
-            ChatHistoryData chatHistoryData = new ChatHistoryData(historyMessages.toArray(new ChatMessageData[0]));
-
             // 发送历史消息给客户端
             WebSocketMessage<ChatHistoryData> response =
                 new WebSocketMessage<>(WebSocketMessage.TYPE_REQUEST_CHAT_HISTORY, chatHistoryData);
 
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+            sessionManager.sendToSession(session, response);
 
         } catch (Exception e) {
             logger.error("处理历史消息请求时出错", e);
@@ -144,13 +214,27 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
+    /**
+     * 处理增量同步请求，所有会话中的新消息分批发送
+     */
+    private void handleSync(Integer userId, WebSocketMessage<?> webSocketMessage, WebSocketSession session) {
+        try {
+            SyncRequestData requestData = (SyncRequestData) webSocketMessage.data();
+            Long sinceSeq = requestData == null ? null : requestData.sinceSeq();
+            int sent = chatMessageService.streamMessagesSince(userId, sinceSeq, session);
+            logger.debug("用户 {} 从序号 {} 开始同步了 {} 条消息", userId, sinceSeq, sent);
+        } catch (Exception e) {
+            logger.error("处理同步请求时出错", e);
+            sendErrorMessage(session, "同步消息失败");
+        }
+    }
+
     /**
      * 处理聊天消息
      */
     private void handleChatMessage(Integer userId, WebSocketMessage<?> message, WebSocketSession session) {
         try {
-            // 将data部分转换为ChatMessageData
-            ChatMessageData<?> chatMessageData = objectMapper.convertValue(message.data(), ChatMessageData.class);
+            ChatMessageData<?> chatMessageData = (ChatMessageData<?>) message.data();
 
             // 1. 验证发送者ID是否匹配
             if (!userId.equals(chatMessageData.from())) {
@@ -171,19 +255,20 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
 
             // 3. 检查chatId，如果不存在则创建新会话
             // 创建或获取私聊会话
-            PrivateChatEntity chatEntity = chatService.createOrGetPrivateChat(chatMessageData.from(), chatMessageData.to());
+            PrivateChatMembership chatMembership = chatService.createOrGetPrivateChat(chatMessageData.from(), chatMessageData.to());
 
             // 更新chatId
             chatMessageData = new ChatMessageData<>(
                 0L, // 目前还没有生成消息ID
                 chatMessageData.chatType(),
                 chatMessageData.msgType(),
-                chatEntity.getChatId(),  // 使用新的chatId
+                chatMembership.chatId(),  // 使用新的chatId
                 chatMessageData.from(),
                 chatMessageData.to(),
                 chatMessageData.replyTo(),
                 chatMessageData.content(),
-                chatMessageData.sentAt()
+                chatMessageData.sentAt(),
+                chatMessageData.clientMessageId()
             );
 
             // 4. 处理聊天消息
@@ -208,7 +293,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             WebSocketMessage<HeartbeatData> heartbeatResponse =
                 new WebSocketMessage<>(WebSocketMessage.TYPE_HEARTBEAT, HeartbeatData.create());
 
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(heartbeatResponse)));
+            sessionManager.sendToSession(session, heartbeatResponse);
             logger.debug("已回复用户 {} 的心跳消息", userId);
         } catch (IOException e) {
             logger.error("发送心跳响应失败", e);
@@ -220,8 +305,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
      */
     private void handleAcknowledgeMessage(Integer userId, WebSocketMessage<?> message, WebSocketSession session) {
         try {
-            // 将data部分转换为ChatMessageData
-            ReadAcknowledgeData readAckData = objectMapper.convertValue(message.data(), ReadAcknowledgeData.class);
+            ReadAcknowledgeData readAckData = (ReadAcknowledgeData) message.data();
 
             // 处理聊天消息
             boolean success = chatMessageService.handleReadAcknowledge(userId, readAckData.chatType(), readAckData.chatId(), readAckData.lastMessageId());
@@ -236,13 +320,23 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         }
     }
 
+    /**
+     * 处理客户端的送达确认，释放对应消息的在途窗口
+     */
+    private void handleDeliveryAcknowledge(WebSocketMessage<?> message, WebSocketSession session) {
+        DeliveryAckData deliveryAckData = (DeliveryAckData) message.data();
+        if (sessionManager.getOutboundSession(session) instanceof QueuedWebSocketSession queuedSession) {
+            queuedSession.acknowledge(deliveryAckData == null ? null : deliveryAckData.messageIds());
+        }
+    }
+
     /**
      * 发送错误消息
      */
     private void sendErrorMessage(WebSocketSession session, String errorMessage) {
         try {
             WebSocketMessage<String> errorResponse = new WebSocketMessage<>(WebSocketMessage.TYPE_ERROR, errorMessage);
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorResponse)));
+            sessionManager.sendToSession(session, errorResponse);
         } catch (IOException e) {
             logger.error("发送错误消息失败", e);
         }
@@ -251,6 +345,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
         // 连接关闭时清理会话
+        dispatcher.close(session);
         sessionManager.removeSession(session);
         logger.info("连接关闭：{}，原因：{}", session.getId(), status.getReason());
     }
@@ -258,7 +353,13 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) {
         // 处理传输错误
+        dispatcher.close(session);
         sessionManager.removeSession(session);
         logger.error("传输错误：{}，错误：{}", session.getId(), exception.getMessage());
     }
+
+    @FunctionalInterface
+    private interface MessageDecoder {
+        WebSocketMessage<?> decode() throws JsonProcessingException;
+    }
 }
@@ -0,0 +1,190 @@
+package kitra.awachat.next.handler;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import kitra.awachat.next.config.ExecutionMode;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把收到的 WebSocket 消息交给工作线程处理，不占用容器的 I/O 线程。
+ * <p>
+ * 每个连接有一个 {@link Mailbox}，同一连接的消息按收到的顺序依次处理，不同连接的消息在线程池中并行处理。
+ * 线程池的类型由 awachat.execution.mode 决定（见 {@link ExecutionMode}）。
+ * <p>
+ * Mailbox 有容量上限，客户端发送过快导致积压超过上限时按 {@link MailboxOverflowAction} 处理
+ */
+@Component
+public class InboundMessageDispatcher {
+    private static final String MAILBOX_ATTRIBUTE = "inboundMailbox";
+    // 一个连接每次最多连续处理的消息数量，之后让出线程，避免一个连接长期占用工作线程
+    private static final int DRAIN_BATCH = 32;
+
+    private final ExecutorService executor;
+    private final int mailboxLimit;
+    private final MailboxOverflowAction overflowAction;
+    private final Logger logger = LogManager.getLogger(InboundMessageDispatcher.class);
+
+    // 所有 Mailbox 中等待处理的消息总数
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    private final Timer waitTimer;
+    private final MeterRegistry meterRegistry;
+
+    public InboundMessageDispatcher(@Value("${awachat.execution.mode:PLATFORM}") ExecutionMode mode,
+                                    @Value("${awachat.execution.platform-threads:64}") int platformThreads,
+                                    @Value("${awachat.websocket.inbound.mailbox-limit:100}") int mailboxLimit,
+                                    @Value("${awachat.websocket.inbound.overflow-action:REJECT}") MailboxOverflowAction overflowAction,
+                                    MeterRegistry meterRegistry) {
+        this.executor = mode.createExecutor("ws-message-", platformThreads);
+        this.mailboxLimit = mailboxLimit;
+        this.overflowAction = overflowAction;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("awachat.websocket.inbound.pending", pendingMessages, AtomicInteger::get)
+            .description("所有连接中已收到、尚未处理的消息总数")
+            .register(meterRegistry);
+        this.waitTimer = Timer.builder("awachat.websocket.inbound.wait")
+            .description("消息从收到到开始处理的等待时间")
+            .publishPercentiles(0.5, 0.99)
+            .register(meterRegistry);
+        logger.info("WebSocket 消息处理模式：{}，每个连接最多积压 {} 条消息", mode, mailboxLimit);
+    }
+
+    /**
+     * 把一条消息的处理逻辑放入连接的 Mailbox。
+     * <p>
+     * Mailbox 已满时，REJECT 模式返回 false，由调用方通知客户端；CLOSE 模式关闭连接
+     *
+     * @param session 收到消息的连接
+     * @param task    消息的处理逻辑，需要自行处理异常
+     * @return 消息是否被接受
+     */
+    public boolean dispatch(WebSocketSession session, Runnable task) {
+        Mailbox mailbox = (Mailbox) session.getAttributes().computeIfAbsent(MAILBOX_ATTRIBUTE, key -> createMailbox());
+        if (mailbox.enqueue(task)) {
+            return true;
+        }
+
+        meterRegistry.counter("awachat.websocket.inbound.rejected", "action", overflowAction.name()).increment();
+        if (overflowAction == MailboxOverflowAction.CLOSE) {
+            logger.warn("会话 {} 积压的消息超过 {} 条，关闭连接", session.getId(), mailboxLimit);
+            close(session);
+            try {
+                session.close(CloseStatus.POLICY_VIOLATION.withReason("消息发送过快"));
+            } catch (IOException e) {
+                logger.debug("关闭会话 {} 失败", session.getId(), e);
+            }
+        } else {
+            logger.warn("会话 {} 积压的消息超过 {} 条，丢弃新消息", session.getId(), mailboxLimit);
+        }
+        return false;
+    }
+
+    /**
+     * 连接关闭时调用，丢弃尚未处理的消息。关闭的 Mailbox 仍留在会话属性中，之后收到的消息直接丢弃
+     */
+    public void close(WebSocketSession session) {
+        Mailbox mailbox = (Mailbox) session.getAttributes().get(MAILBOX_ATTRIBUTE);
+        if (mailbox != null) {
+            mailbox.close();
+        }
+    }
+
+    /**
+     * 创建一个新的 Mailbox，提交给它的任务按顺序在本调度器的线程池中执行
+     */
+    public Mailbox createMailbox() {
+        return new Mailbox();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 单个连接的有界消息队列，同一时刻最多只有一个工作线程在处理其中的任务
+     */
+    public class Mailbox {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        // 是否已经提交到线程池（正在处理或等待处理）
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed = false;
+
+        /**
+         * 放入一个任务
+         *
+         * @return 队列已满时返回 false；Mailbox 已关闭时任务被直接丢弃，返回 true
+         */
+        public boolean enqueue(Runnable task) {
+            if (closed) {
+                return true;
+            }
+            if (size.incrementAndGet() > mailboxLimit) {
+                size.decrementAndGet();
+                return false;
+            }
+            long enqueuedAt = System.nanoTime();
+            pendingMessages.incrementAndGet();
+            tasks.offer(() -> {
+                waitTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                task.run();
+            });
+            schedule();
+            return true;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                Runnable task;
+                int processed = 0;
+                while (!closed && processed < DRAIN_BATCH && (task = tasks.poll()) != null) {
+                    processed++;
+                    size.decrementAndGet();
+                    pendingMessages.decrementAndGet();
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.error("处理 WebSocket 消息时出错", e);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // 还有剩余的消息（达到批次上限或释放标记之后新入队）时重新提交
+            if (!closed && !tasks.isEmpty()) {
+                schedule();
+            }
+        }
+
+        public void close() {
+            closed = true;
+            int discarded = 0;
+            while (tasks.poll() != null) {
+                discarded++;
+            }
+            size.addAndGet(-discarded);
+            pendingMessages.addAndGet(-discarded);
+        }
+    }
+}
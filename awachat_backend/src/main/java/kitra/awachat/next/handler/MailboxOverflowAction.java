@@ -0,0 +1,15 @@
+package kitra.awachat.next.handler;
+
+/**
+ * 连接的 Mailbox 已满（客户端发送消息的速度超过处理速度）时的处理方式
+ */
+public enum MailboxOverflowAction {
+    /**
+     * 丢弃新消息，并给客户端回复错误消息
+     */
+    REJECT,
+    /**
+     * 以 1008（违反策略）关闭连接
+     */
+    CLOSE
+}
@@ -0,0 +1,126 @@
+package kitra.awachat.next.handler;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import kitra.awachat.next.dto.websocket.WebSocketMessage;
+import kitra.awachat.next.util.TokenBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 按用户和消息类型对客户端发来的消息限流，在处理消息（访问数据库）之前调用。
+ * 提供相同功能的 HTTP 接口（如 GET /chat/sync）按对应的消息类型调用，与 WebSocket 共用令牌桶。
+ * <p>
+ * 每个用户的每类消息各有一个 {@link TokenBucket}，同一用户的多个连接共用；消息类型按处理代价分为几类，
+ * 速率和容量分别配置，速率不大于 0 表示该类不限流。一段时间没有发消息的用户的令牌桶会被淘汰，
+ * 重新创建时是满的，不影响限流的效果。被拒绝的消息数量以 awachat.websocket.rate_limited 导出，按 type 区分
+ */
+@Component
+public class MessageRateLimiter {
+    private final boolean enabled;
+    private final Map<Category, Limit> limits = new EnumMap<>(Category.class);
+    private final Map<Category, Counter> rejectedCounters = new EnumMap<>(Category.class);
+    private final Cache<Integer, TokenBucket[]> buckets;
+
+    public MessageRateLimiter(MeterRegistry meterRegistry,
+                              @Value("${awachat.websocket.rate-limit.enabled:true}") boolean enabled,
+                              @Value("${awachat.websocket.rate-limit.expire-after-access:10m}") Duration expireAfterAccess,
+                              @Value("${awachat.websocket.rate-limit.chat.rate:10}") double chatRate,
+                              @Value("${awachat.websocket.rate-limit.chat.burst:20}") int chatBurst,
+                              @Value("${awachat.websocket.rate-limit.history.rate:5}") double historyRate,
+                              @Value("${awachat.websocket.rate-limit.history.burst:10}") int historyBurst,
+                              @Value("${awachat.websocket.rate-limit.sync.rate:0.2}") double syncRate,
+                              @Value("${awachat.websocket.rate-limit.sync.burst:3}") int syncBurst,
+                              @Value("${awachat.websocket.rate-limit.read-ack.rate:10}") double readAckRate,
+                              @Value("${awachat.websocket.rate-limit.read-ack.burst:20}") int readAckBurst,
+                              @Value("${awachat.websocket.rate-limit.other.rate:50}") double otherRate,
+                              @Value("${awachat.websocket.rate-limit.other.burst:100}") int otherBurst) {
+        this.enabled = enabled;
+        limits.put(Category.CHAT, new Limit(chatRate, chatBurst));
+        limits.put(Category.HISTORY, new Limit(historyRate, historyBurst));
+        limits.put(Category.SYNC, new Limit(syncRate, syncBurst));
+        limits.put(Category.READ_ACK, new Limit(readAckRate, readAckBurst));
+        limits.put(Category.OTHER, new Limit(otherRate, otherBurst));
+        for (Category category : Category.values()) {
+            rejectedCounters.put(category, Counter.builder("awachat.websocket.rate_limited")
+                .description("因超过频率限制而被拒绝的客户端消息数量")
+                .tag("type", category.name().toLowerCase())
+                .register(meterRegistry));
+        }
+        this.buckets = Caffeine.newBuilder()
+            .expireAfterAccess(expireAfterAccess)
+            .build();
+    }
+
+    /**
+     * 尝试为用户发来的一条消息取得许可
+     *
+     * @param messageType 消息类型，见 {@link WebSocketMessage} 中的常量
+     * @return 是否允许处理这条消息
+     */
+    public boolean tryAcquire(int userId, String messageType) {
+        if (!enabled) {
+            return true;
+        }
+        Category category = Category.of(messageType);
+        if (!limits.get(category).isLimited()) {
+            return true;
+        }
+        TokenBucket bucket = buckets.get(userId, key -> createBuckets())[category.ordinal()];
+        if (bucket.tryAcquire()) {
+            return true;
+        }
+        rejectedCounters.get(category).increment();
+        return false;
+    }
+
+    private TokenBucket[] createBuckets() {
+        Category[] categories = Category.values();
+        TokenBucket[] created = new TokenBucket[categories.length];
+        for (Category category : categories) {
+            Limit limit = limits.get(category);
+            if (limit.isLimited()) {
+                created[category.ordinal()] = new TokenBucket(limit.rate(), limit.burst());
+            }
+        }
+        return created;
+    }
+
+    /**
+     * 按处理代价划分的消息类别
+     */
+    private enum Category {
+        // 保存消息、转发
+        CHAT,
+        // 查询历史消息
+        HISTORY,
+        // 增量同步，可能扫描大量消息
+        SYNC,
+        // 更新已读位置
+        READ_ACK,
+        // 心跳、送达确认等不访问数据库的消息
+        OTHER;
+
+        static Category of(String messageType) {
+            return switch (messageType) {
+                case WebSocketMessage.TYPE_CHAT -> CHAT;
+                case WebSocketMessage.TYPE_REQUEST_CHAT_HISTORY -> HISTORY;
+                case WebSocketMessage.TYPE_SYNC -> SYNC;
+                case WebSocketMessage.TYPE_ACK -> READ_ACK;
+                default -> OTHER;
+            };
+        }
+    }
+
+    private record Limit(double rate, int burst) {
+        boolean isLimited() {
+            return rate > 0;
+        }
+    }
+}
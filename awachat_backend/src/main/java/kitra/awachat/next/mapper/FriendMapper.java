@@ -3,8 +3,14 @@ package kitra.awachat.next.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import kitra.awachat.next.entity.FriendEntity;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 @Mapper
 public interface FriendMapper extends BaseMapper<FriendEntity> {
-
-}
\ No newline at end of file
+    /**
+     * 查询一个用户的所有好友ID
+     */
+    List<Integer> selectFriendIds(@Param("userId") Integer userId);
+}
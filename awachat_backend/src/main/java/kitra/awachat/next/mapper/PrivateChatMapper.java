@@ -2,12 +2,37 @@ package kitra.awachat.next.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import kitra.awachat.next.entity.PrivateChatEntity;
+import kitra.awachat.next.entity.PrivateChatSummaryEntity;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
 
 @Mapper
 public interface PrivateChatMapper extends BaseMapper<PrivateChatEntity> {
     /**
-     * 自定义的私聊会话插入方法，用于规避 MyBatis Plus 不能正确处理自增主键的问题
+     * 自定义的私聊会话插入方法，用于规避 MyBatis Plus 不能正确处理自增主键的问题。会话ID需要事先分配好
      */
     int insertPrivateChat(PrivateChatEntity privateChat);
-}
\ No newline at end of file
+
+    /**
+     * 用一条查询取出用户参与的所有私聊会话，同时带出对方用户信息、最后一条消息和未读消息数量，
+     * 查询次数不随会话数量增长
+     *
+     * @param userId 当前用户ID
+     */
+    List<PrivateChatSummaryEntity> selectChatSummaries(@Param("userId") Integer userId);
+
+    /**
+     * 用一条 UPDATE 批量更新多个会话的最后一条消息ID和更新时间，只使用实体中的 chatId、lastMessageId 和 updatedAt。
+     * 同一个会话在列表中只能出现一次。last_message_id 只会增大，不会被较小的ID覆盖
+     */
+    int updateLastMessageBatch(@Param("chats") List<PrivateChatEntity> chats);
+
+    /**
+     * 只更新单个会话的最后一条消息ID和更新时间，last_message_id 只会增大
+     */
+    int updateLastMessage(@Param("chatId") Long chatId, @Param("lastMessageId") Long lastMessageId,
+                          @Param("updatedAt") Date updatedAt);
+}
@@ -0,0 +1,41 @@
+package kitra.awachat.next.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import kitra.awachat.next.entity.PrivateChatUnreadEntity;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface PrivateChatUnreadMapper extends BaseMapper<PrivateChatUnreadEntity> {
+    /**
+     * 未读数量加一，记录不存在时插入
+     */
+    int increment(@Param("chatId") Long chatId, @Param("userId") Integer userId);
+
+    /**
+     * 批量增加未读数量，每条记录的 unreadCount 为增加的数量。同一个 (chatId, userId) 在列表中只能出现一次
+     */
+    int incrementBatch(@Param("increments") List<PrivateChatUnreadEntity> increments);
+
+    /**
+     * 锁住计数所在的行直到事务结束，记录不存在时先插入计数为0的记录
+     */
+    int lockCounter(@Param("chatId") Long chatId, @Param("userId") Integer userId);
+
+    /**
+     * 用户已读位置前移后，重新统计该位置之后的未读消息数量。已读位置通常就是最新消息，所以只会扫描很少的行。
+     * 调用前需要在同一个事务中先执行 {@link #lockCounter}
+     *
+     * @param lastSeq 最后已读消息在该用户消息序列中的序号
+     */
+    int recount(@Param("chatId") Long chatId, @Param("userId") Integer userId, @Param("lastSeq") Long lastSeq);
+
+    /**
+     * 根据 private_message 和 private_message_acknowledge 重建所有会话的未读数量
+     *
+     * @return 写入的记录数
+     */
+    int rebuildAll();
+}
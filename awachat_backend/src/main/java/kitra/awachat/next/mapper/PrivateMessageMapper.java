@@ -3,11 +3,39 @@ package kitra.awachat.next.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import kitra.awachat.next.entity.PrivateMessageEntity;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 @Mapper
 public interface PrivateMessageMapper extends BaseMapper<PrivateMessageEntity> {
     /**
-     * 自定义的私聊消息插入方法，用于规避 MyBatis Plus 不能正确处理自增主键的问题
+     * 自定义的私聊消息插入方法，用于规避 MyBatis Plus 不能正确处理自增主键的问题。消息ID需要事先分配好
      */
     int insertPrivateMessage(PrivateMessageEntity privateMessage);
-}
\ No newline at end of file
+
+    /**
+     * 用一条多行 INSERT 插入多条消息，消息ID需要事先分配好
+     */
+    int insertPrivateMessageBatch(@Param("messages") List<PrivateMessageEntity> messages);
+
+    /**
+     * 按消息ID降序查询会话中 beforeId 之前（不含）的消息，beforeId 为 null 时从最新的消息开始。
+     * 使用 (chat_id, message_id) 索引做键集分页，耗时与翻到第几页无关
+     */
+    List<PrivateMessageEntity> selectHistoryBefore(@Param("chatId") Long chatId, @Param("beforeId") Long beforeId,
+                                                   @Param("limit") int limit);
+
+    /**
+     * 按消息ID升序查询会话中 afterId 之后（不含）的消息
+     */
+    List<PrivateMessageEntity> selectHistoryAfter(@Param("chatId") Long chatId, @Param("afterId") Long afterId,
+                                                  @Param("limit") int limit);
+
+    /**
+     * 按用户消息序列的序号升序查询用户收发的、序号大于 afterSeq 的消息，跨所有会话。
+     * 分别使用 (receiver_id, receiver_seq) 和 (sender_id, sender_seq) 索引，各取 limit 条后合并
+     */
+    List<PrivateMessageEntity> selectMessagesSince(@Param("userId") Integer userId, @Param("afterSeq") Long afterSeq,
+                                                   @Param("limit") int limit);
+}
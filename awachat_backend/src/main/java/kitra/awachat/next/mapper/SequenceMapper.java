@@ -0,0 +1,24 @@
+package kitra.awachat.next.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * 直接操作 PostgreSQL 序列，不对应任何表
+ */
+@Mapper
+public interface SequenceMapper {
+    /**
+     * 对序列执行一次 nextval
+     *
+     * @param sequence 序列名
+     */
+    long nextval(@Param("sequence") String sequence);
+
+    /**
+     * 查询序列的 INCREMENT，序列不存在时返回 null
+     *
+     * @param sequence 序列名
+     */
+    Long selectIncrement(@Param("sequence") String sequence);
+}
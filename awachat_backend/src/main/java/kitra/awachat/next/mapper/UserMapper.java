@@ -3,6 +3,10 @@ package kitra.awachat.next.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import kitra.awachat.next.entity.UserEntity;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 @Mapper
 public interface UserMapper extends BaseMapper<UserEntity> {
@@ -10,4 +14,20 @@ public interface UserMapper extends BaseMapper<UserEntity> {
      * 自定义的用户插入方法，用于规避 MyBatis Plus 不能正确处理自增主键的问题
      */
     int insertUser(UserEntity user);
+
+    /**
+     * 批量查询用户资料，不查询密码
+     */
+    List<UserEntity> selectProfilesByIds(@Param("userIds") Collection<? extends Integer> userIds);
+
+    /**
+     * 按用户名查询用户资料，不查询密码
+     */
+    UserEntity selectProfileByUsername(@Param("username") String username);
+
+    /**
+     * 用一条 UPDATE 批量更新多个用户的最后在线时间，只使用实体中的 userId 和 lastOnlineAt。
+     * 数据库中的时间更晚时保留原值
+     */
+    int updateLastOnlineBatch(@Param("users") List<UserEntity> users);
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package kitra.awachat.next.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import kitra.awachat.next.entity.UserMessageSeqEntity;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface UserMessageSeqMapper extends BaseMapper<UserMessageSeqEntity> {
+    /**
+     * 为多个用户各预留一段序号，每条记录的 lastSeq 为要预留的数量，记录不存在时插入。
+     * 列表需按用户ID升序排列且不重复，各事务按相同顺序加锁，避免死锁。
+     * 计数行的锁保持到事务结束，同一用户后取得序号的事务一定后提交
+     *
+     * @return 每个用户预留之后的最大序号，预留的是 (lastSeq - 数量, lastSeq]
+     */
+    List<UserMessageSeqEntity> allocate(@Param("allocations") List<UserMessageSeqEntity> allocations);
+}
@@ -3,46 +3,81 @@ package kitra.awachat.next.service;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import kitra.awachat.next.cache.ChatMembershipCache;
+import kitra.awachat.next.cache.PrivateChatMembership;
+import kitra.awachat.next.cache.RecentMessageCache;
+import kitra.awachat.next.codec.WebSocketMessageCodec;
 import kitra.awachat.next.dto.websocket.*;
-import kitra.awachat.next.entity.PrivateChatEntity;
 import kitra.awachat.next.entity.PrivateMessageAcknowledgeEntity;
 import kitra.awachat.next.entity.PrivateMessageEntity;
 import kitra.awachat.next.mapper.PrivateChatMapper;
 import kitra.awachat.next.mapper.PrivateMessageAcknowledgeMapper;
 import kitra.awachat.next.mapper.PrivateMessageMapper;
+import kitra.awachat.next.session.AuthHandshakeInterceptor;
 import kitra.awachat.next.session.WebSocketSessionManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static kitra.awachat.next.util.DataBaseUtil.checkResult;
 import static kitra.awachat.next.util.DataBaseUtil.checkResultGreaterThanZero;
 
 @Service
 public class ChatMessageService {
+    // 客户端消息ID的最大长度
+    private static final int MAX_CLIENT_MESSAGE_ID_LENGTH = 64;
+
     private final WebSocketSessionManager sessionManager;
     private final PrivateChatMapper privateChatMapper;
+    private final ChatMembershipCache chatMembershipCache;
+    private final RecentMessageCache recentMessageCache;
     private final PrivateMessageMapper privateMessageMapper;
     private final PrivateMessageAcknowledgeMapper privateMessageAcknowledgeMapper; // 新增
+    private final UnreadCounterService unreadCounterService;
+    private final PendingDeliveryService pendingDeliveryService;
+    private final MessageDedupService dedupService;
+    private final SequenceIdAllocator idAllocator;
+    private final UserMessageSeqAllocator seqAllocator;
+    // 仅在 awachat.message.persistence.mode=pipelined 时存在
+    private final MessagePersistencePipeline persistencePipeline;
     private final ObjectMapper objectMapper;
     private final Logger logger = LogManager.getLogger(ChatMessageService.class);
-
-    public ChatMessageService(WebSocketSessionManager sessionManager, PrivateChatMapper privateChatMapper, PrivateMessageMapper privateMessageMapper, PrivateMessageAcknowledgeMapper privateMessageAcknowledgeMapper) { // 新增参数
+    @Value("${awachat.history.default-page-size:20}")
+    private int defaultHistoryPageSize;
+    @Value("${awachat.history.max-page-size:100}")
+    private int maxHistoryPageSize;
+    @Value("${awachat.sync.chunk-size:200}")
+    private int syncChunkSize;
+    @Value("${awachat.sync.max-messages:5000}")
+    private int syncMaxMessages;
+
+    public ChatMessageService(WebSocketSessionManager sessionManager, PrivateChatMapper privateChatMapper, ChatMembershipCache chatMembershipCache, RecentMessageCache recentMessageCache, PrivateMessageMapper privateMessageMapper, PrivateMessageAcknowledgeMapper privateMessageAcknowledgeMapper, UnreadCounterService unreadCounterService, PendingDeliveryService pendingDeliveryService, MessageDedupService dedupService, SequenceIdAllocator idAllocator, UserMessageSeqAllocator seqAllocator, ObjectProvider<MessagePersistencePipeline> persistencePipeline, WebSocketMessageCodec codec) { // 新增参数
         this.sessionManager = sessionManager;
         this.privateChatMapper = privateChatMapper;
+        this.chatMembershipCache = chatMembershipCache;
+        this.recentMessageCache = recentMessageCache;
         this.privateMessageMapper = privateMessageMapper;
         this.privateMessageAcknowledgeMapper = privateMessageAcknowledgeMapper; // 新增
-        this.objectMapper = new ObjectMapper();
+        this.unreadCounterService = unreadCounterService;
+        this.pendingDeliveryService = pendingDeliveryService;
+        this.dedupService = dedupService;
+        this.idAllocator = idAllocator;
+        this.seqAllocator = seqAllocator;
+        this.persistencePipeline = persistencePipeline.getIfAvailable();
+        this.objectMapper = codec.getObjectMapper();
     }
 
     /**
-     * 处理接收到的聊天消息，实际功能为：将聊天消息写入数据库，然后分别转发给接收者和发送者
+     * 处理接收到的聊天消息，实际功能为：将聊天消息写入数据库，然后分别转发给接收者和发送者。
+     * 带有 clientMessageId 的消息按其去重，重复的消息不再保存
      *
      * @param senderId    发送者ID
      * @param messageData 消息数据
@@ -58,74 +93,45 @@ public class ChatMessageService {
             }
 
             // 2. 验证会话是否存在
-            PrivateChatEntity chatEntity = privateChatMapper.selectById(messageData.chatId());
-            if (chatEntity == null) {
+            PrivateChatMembership chatMembership = chatMembershipCache.get(messageData.chatId());
+            if (chatMembership == null) {
                 logger.warn("会话不存在: {}", messageData.chatId());
                 return false;
             }
 
             // 3. 验证发送者是否属于该会话
-            if (!chatEntity.getUser1Id().equals(senderId) && !chatEntity.getUser2Id().equals(senderId)) {
+            if (!chatMembership.contains(senderId)) {
                 logger.warn("用户 {} 不属于会话 {}", senderId, messageData.chatId());
                 return false;
             }
 
-            // 4. 保存消息到数据库
-            PrivateMessageEntity messageEntity = new PrivateMessageEntity();
-            messageEntity.setChatId(messageData.chatId());
-            messageEntity.setSenderId(senderId);
-            messageEntity.setReceiverId(messageData.to());
-            messageEntity.setReplyTo(messageData.replyTo());
-
-            // 设置发送时间
-            Date sentAt = new Date();
-            messageEntity.setSentAt(sentAt);
-            messageEntity.setIsDeleted(false);
-
-            // 设置消息内容和类型
-            Map<String, Object> contentMap = objectMapper.convertValue(messageData.content(), new TypeReference<>() {
-            });
-            messageEntity.setContent(contentMap);
-            if (messageData.msgType() == ChatMessageType.TEXT) {
-                messageEntity.setContentType((short) 0); // 文本消息
-            } else if (messageData.msgType() == ChatMessageType.COMPOUND) {
-                messageEntity.setContentType((short) 1); // 复合消息
-            } else if (messageData.msgType() == ChatMessageType.FRIEND_REQUEST) {
-                messageEntity.setContentType((short) 2); // 好友请求消息
-            } else {
-                logger.warn("不支持的消息类型: {}", messageData.msgType());
-                return false;
+            // 4. 按客户端消息ID去重
+            String clientMessageId = messageData.clientMessageId();
+            if (clientMessageId != null) {
+                if (clientMessageId.length() > MAX_CLIENT_MESSAGE_ID_LENGTH) {
+                    logger.warn("客户端消息ID过长: {}", clientMessageId.length());
+                    return false;
+                }
+                MessageDedupService.Claim claim = dedupService.claim(senderId, clientMessageId);
+                if (!claim.acquired()) {
+                    // 重复的消息已保存时把原消息再发给发送者，让客户端确认发送成功；仍在处理中时直接忽略
+                    if (claim.savedMessageId() != null) {
+                        resendSavedMessage(senderId, claim.savedMessageId(), clientMessageId);
+                    }
+                    return true;
+                }
             }
-            messageEntity.setContent(contentMap);
-
-            // 保存消息
-            checkResult(privateMessageMapper.insertPrivateMessage(messageEntity));
-
-            // 5. 更新会话的最后一条消息ID和更新时间
-            chatEntity.setLastMessageId(messageEntity.getMessageId());
-            chatEntity.setUpdatedAt(new Date());
-            privateChatMapper.updateById(chatEntity);
-
-            // 6. 创建包含ID和发送时间的新消息数据
-            ChatMessageData<?> updatedMessageData = new ChatMessageData<>(
-                messageEntity.getMessageId(),
-                messageData.chatType(),
-                messageData.msgType(),
-                messageData.chatId(),
-                messageData.from(),
-                messageData.to(),
-                messageData.replyTo(),
-                messageData.content(),
-                sentAt
-            );
 
-            // 7. 转发消息给接收者
-            forwardMessageToReceiver(messageData.to(), WebSocketMessage.createChatMessage(updatedMessageData));
-
-            // 8. 转发完整消息给发送者
-            forwardMessageToReceiver(messageData.from(), WebSocketMessage.createChatMessage(updatedMessageData));
-
-            return true;
+            boolean accepted = false;
+            try {
+                accepted = saveAndForward(senderId, messageData);
+            } finally {
+                // 处理失败时释放客户端消息ID，允许客户端重试
+                if (!accepted && clientMessageId != null) {
+                    dedupService.release(senderId, clientMessageId);
+                }
+            }
+            return accepted;
         } catch (Exception e) {
             logger.error("处理聊天消息时出错", e);
             return false;
@@ -133,38 +139,121 @@ public class ChatMessageService {
     }
 
     /**
-     * 转发消息给接收者
+     * 保存已通过校验的消息并转发给收发双方，流水线模式下在写入成功后转发
      *
-     * @param receiverId 接收者ID
-     * @param message    要转发的消息
+     * @return 消息是否已保存或已进入写入队列
      */
-    private void forwardMessageToReceiver(Integer receiverId, WebSocketMessage<?> message) {
-        try {
-            // 获取接收者的所有会话
-            Set<WebSocketSession> receiverSessions = sessionManager.getSessionsByUser(receiverId);
-            if (receiverSessions.isEmpty()) {
-                logger.info("接收者 {} 不在线，消息将在其上线后发送", receiverId);
-                return;
-            }
-
-            // 将消息转换为JSON字符串
-            String messageJson = objectMapper.writeValueAsString(message);
-            TextMessage textMessage = new TextMessage(messageJson);
+    private boolean saveAndForward(Integer senderId, ChatMessageData<?> messageData) {
+        // 构建消息实体
+        PrivateMessageEntity messageEntity = createMessageEntity(senderId, messageData);
+        if (messageEntity == null) {
+            return false;
+        }
 
-            // 发送消息到接收者的所有会话
-            for (WebSocketSession session : receiverSessions) {
-                try {
-                    if (session.isOpen()) {
-                        session.sendMessage(textMessage);
-                        logger.debug("消息已发送给接收者 {}, 会话ID: {}", receiverId, session.getId());
+        if (persistencePipeline != null) {
+            // 流水线模式：消息交给后台线程批量写入，写入成功后再转发给收发双方
+            CompletableFuture<PrivateMessageEntity> future = persistencePipeline.submit(messageEntity);
+            if (future == null) {
+                logger.warn("消息写入队列已满，拒绝用户 {} 的消息", senderId);
+                return false;
+            }
+            future.whenComplete((savedMessage, e) -> {
+                if (e != null) {
+                    if (messageData.clientMessageId() != null) {
+                        dedupService.release(senderId, messageData.clientMessageId());
                     }
-                } catch (IOException e) {
-                    logger.error("发送消息给接收者 {} 失败", receiverId, e);
+                    sessionManager.sendToUsers(new WebSocketMessage<>(WebSocketMessage.TYPE_ERROR, "消息处理失败"), senderId);
+                } else {
+                    forwardSavedMessage(messageData, savedMessage);
                 }
-            }
-        } catch (Exception e) {
-            logger.error("转发消息时出错", e);
+            });
+            return true;
+        }
+
+        // 保存消息
+        messageEntity.setMessageId(idAllocator.nextMessageId());
+        seqAllocator.assign(List.of(messageEntity));
+        checkResult(privateMessageMapper.insertPrivateMessage(messageEntity));
+        unreadCounterService.increment(messageData.chatId(), messageData.to());
+
+        // 更新会话的最后一条消息ID和更新时间
+        privateChatMapper.updateLastMessage(messageData.chatId(), messageEntity.getMessageId(), new Date());
+
+        // 转发给收发双方
+        forwardSavedMessage(messageData, messageEntity);
+
+        return true;
+    }
+
+    /**
+     * 根据客户端发来的消息数据构建消息实体（不含消息ID）
+     *
+     * @return 消息实体，消息类型不支持时返回 null
+     */
+    private PrivateMessageEntity createMessageEntity(Integer senderId, ChatMessageData<?> messageData) {
+        PrivateMessageEntity messageEntity = new PrivateMessageEntity();
+        messageEntity.setChatId(messageData.chatId());
+        messageEntity.setSenderId(senderId);
+        messageEntity.setReceiverId(messageData.to());
+        messageEntity.setReplyTo(messageData.replyTo());
+
+        // 设置发送时间
+        messageEntity.setSentAt(new Date());
+        messageEntity.setIsDeleted(false);
+
+        // 设置消息内容和类型
+        Map<String, Object> contentMap = objectMapper.convertValue(messageData.content(), new TypeReference<>() {
+        });
+        messageEntity.setContent(contentMap);
+        if (messageData.msgType() == ChatMessageType.TEXT) {
+            messageEntity.setContentType((short) 0); // 文本消息
+        } else if (messageData.msgType() == ChatMessageType.COMPOUND) {
+            messageEntity.setContentType((short) 1); // 复合消息
+        } else if (messageData.msgType() == ChatMessageType.FRIEND_REQUEST) {
+            messageEntity.setContentType((short) 2); // 好友请求消息
+        } else {
+            logger.warn("不支持的消息类型: {}", messageData.msgType());
+            return null;
+        }
+        return messageEntity;
+    }
+
+    /**
+     * 消息保存后，补上消息ID和发送时间，转发给接收者和发送者
+     */
+    private void forwardSavedMessage(ChatMessageData<?> messageData, PrivateMessageEntity savedMessage) {
+        ChatMessageData<?> updatedMessageData = new ChatMessageData<>(
+            savedMessage.getMessageId(),
+            messageData.chatType(),
+            messageData.msgType(),
+            messageData.chatId(),
+            messageData.from(),
+            messageData.to(),
+            messageData.replyTo(),
+            messageData.content(),
+            savedMessage.getSentAt(),
+            messageData.clientMessageId()
+        );
+
+        recentMessageCache.onMessageSaved(updatedMessageData);
+        if (messageData.clientMessageId() != null) {
+            dedupService.complete(messageData.from(), messageData.clientMessageId(), savedMessage.getMessageId());
         }
+        // 同一份编码结果转发给接收者和发送者的所有设备
+        sessionManager.sendToUsers(WebSocketMessage.createChatMessage(updatedMessageData), messageData.to(), messageData.from());
+    }
+
+    /**
+     * 发送者重试了已保存的消息时，把原消息重新发给发送者的所有设备
+     */
+    private void resendSavedMessage(Integer senderId, long messageId, String clientMessageId) {
+        PrivateMessageEntity savedMessage = privateMessageMapper.selectById(messageId);
+        ChatMessageData<?> messageData = savedMessage == null ? null : convertToChatMessageData(savedMessage);
+        if (messageData == null) {
+            logger.warn("重复消息对应的消息 {} 不存在", messageId);
+            return;
+        }
+        sessionManager.sendToUsers(WebSocketMessage.createChatMessage(messageData.withClientMessageId(clientMessageId)), senderId);
     }
 
     /**
@@ -186,14 +275,14 @@ public class ChatMessageService {
             }
 
             // 2. 验证会话是否存在
-            PrivateChatEntity chatEntity = privateChatMapper.selectById(chatId);
-            if (chatEntity == null) {
+            PrivateChatMembership chatMembership = chatMembershipCache.get(chatId);
+            if (chatMembership == null) {
                 logger.warn("会话不存在: {}", chatId);
                 return false;
             }
 
             // 3. 验证用户是否属于该会话
-            if (!chatEntity.getUser1Id().equals(userId) && !chatEntity.getUser2Id().equals(userId)) {
+            if (!chatMembership.contains(userId)) {
                 logger.warn("用户 {} 不属于会话 {}", userId, chatId);
                 return false;
             }
@@ -211,7 +300,9 @@ public class ChatMessageService {
                 return false;
             }
 
-            // 6. 更新或插入已读记录
+            // 6. 更新或插入已读记录。已读位置按消息在该用户消息序列中的序号比较，序号与提交顺序一致，
+            // 不会因为小ID的消息晚提交而把它当作已读
+            long lastSeq = messageEntity.getSeqFor(userId);
             // 先查询是否已存在记录
             QueryWrapper<PrivateMessageAcknowledgeEntity> queryWrapper = new QueryWrapper<>();
             queryWrapper.eq("chat_id", chatId).eq("user_id", userId);
@@ -224,13 +315,17 @@ public class ChatMessageService {
                 ackEntity.setChatId(chatId);
                 ackEntity.setUserId(userId);
                 ackEntity.setLastMessageId(lastMessageId);
+                ackEntity.setLastSeq(lastSeq);
                 checkResult(privateMessageAcknowledgeMapper.insert(ackEntity));
+                unreadCounterService.onAcknowledged(chatId, userId, lastSeq);
             } else {
                 // 已存在记录，更新last_message_id
-                // 只有当新的lastMessageId大于现有的lastMessageId时才更新
-                if (lastMessageId > ackEntity.getLastMessageId()) {
+                // 只有当新消息的序号大于现有已读位置的序号时才更新
+                if (lastSeq > ackEntity.getLastSeq()) {
                     ackEntity.setLastMessageId(lastMessageId);
+                    ackEntity.setLastSeq(lastSeq);
                     checkResultGreaterThanZero(privateMessageAcknowledgeMapper.update(ackEntity));
+                    unreadCounterService.onAcknowledged(chatId, userId, lastSeq);
                 }
             }
 
@@ -243,65 +338,182 @@ public class ChatMessageService {
 
 
     /**
-     * 获取历史消息。方法会先检查会话是否存在，检查用户是否在会话中，
-     * 然后查询消息表中匹配该会话的消息（按照ID正序排列）
+     * 使用键集分页获取历史消息。方法会先检查会话是否存在、用户是否在会话中，然后沿 (chat_id, message_id) 索引取一页消息。
+     * <p>
+     * beforeId、afterId、aroundId 最多使用一个，都为 null 时取最新的消息。每个方向多查一条，用来判断该方向是否还有消息；
+     * 没有查询的方向按游标推断：从某个游标出发时认为游标一侧还有消息
      *
-     * @param userId        发出请求的用户ID，用于验证用户是否在会话中
-     * @param chatId        会话ID
-     * @param chatType      聊天类型
-     * @param lastMessageId 最后一条消息ID，如果为null则获取最新消息
-     * @param limit         消息数量限制
-     * @return 历史消息列表，按照ID升序排列
+     * @param userId   发出请求的用户ID，用于验证用户是否在会话中
+     * @param chatId   会话ID
+     * @param chatType 聊天类型
+     * @param beforeId 取该消息之前（不含）的消息
+     * @param afterId  取该消息之后（不含）的消息
+     * @param aroundId 取该消息及其前后的消息
+     * @param limit    请求的消息数量，为 null 时使用默认值，超过上限时按上限处理
+     * @return 历史消息，按照ID升序排列；会话不存在或没有权限时为空
      */
-    public List<ChatMessageData<?>> getHistoryMessages(Integer userId, Long chatId, ChatType chatType, Long lastMessageId, int limit) {
-        List<ChatMessageData<?>> result = new ArrayList<>();
-
-        if (chatType == ChatType.PRIVATE) {
-            // 检查用户是否在会话中，若不在则抛出权限不足异常
-            QueryWrapper<PrivateChatEntity> queryWrapper = new QueryWrapper<>();
-            queryWrapper.eq("chat_id", chatId);
-            PrivateChatEntity privateChatEntity = privateChatMapper.selectOne(queryWrapper);
-            if (privateChatEntity == null) {
-                // TODO 类似的位置需要添加把错误消息发送给客户端的功能！
-                logger.warn("获取历史消息时找不到会话：{}", chatId);
-                return result;
-            }
-            if (!privateChatEntity.getUser1Id().equals(userId) && !privateChatEntity.getUser2Id().equals(userId)) {
-                // TODO 类似的位置需要添加把错误消息发送给客户端的功能！
-                logger.warn("获取历史消息时用户{}不在会话{}中，权限不足", userId, chatId);
-                return result;
-            }
-            // 构建查询条件
-            QueryWrapper<PrivateMessageEntity> queryWrapper2 = new QueryWrapper<>();
+    public ChatHistoryData getHistoryMessages(Integer userId, Long chatId, ChatType chatType, Long beforeId,
+                                              Long afterId, Long aroundId, Integer limit) {
+        ChatHistoryData empty = new ChatHistoryData(new ChatMessageData[0], false, false);
+        if (chatType != ChatType.PRIVATE) {
+            return empty;
+        }
 
-            // 查询条件：接收者或发送者是当前用户
-            queryWrapper2.and(wrapper -> wrapper
-                .eq("chat_id", chatId));
+        // 检查用户是否在会话中
+        PrivateChatMembership chatMembership = chatMembershipCache.get(chatId);
+        if (chatMembership == null) {
+            // TODO 类似的位置需要添加把错误消息发送给客户端的功能！
+            logger.warn("获取历史消息时找不到会话：{}", chatId);
+            return empty;
+        }
+        if (!chatMembership.contains(userId)) {
+            // TODO 类似的位置需要添加把错误消息发送给客户端的功能！
+            logger.warn("获取历史消息时用户{}不在会话{}中，权限不足", userId, chatId);
+            return empty;
+        }
 
-            // 如果提供了lastMessageId，则获取比这个ID小的消息（更早的消息）
-            if (lastMessageId != null && lastMessageId > 0) {
-                queryWrapper2.lt("message_id", lastMessageId);
+        int pageSize = limit == null || limit <= 0 ? defaultHistoryPageSize : Math.min(limit, maxHistoryPageSize);
+        List<PrivateMessageEntity> older;
+        List<PrivateMessageEntity> newer;
+        boolean hasMoreBefore;
+        boolean hasMoreAfter;
+
+        if (aroundId != null) {
+            // 目标消息算在较早的一半中
+            int olderCount = pageSize - pageSize / 2;
+            int newerCount = pageSize / 2;
+            older = privateMessageMapper.selectHistoryBefore(chatId, aroundId + 1, olderCount + 1);
+            newer = newerCount > 0 ? privateMessageMapper.selectHistoryAfter(chatId, aroundId, newerCount + 1) : List.of();
+            hasMoreBefore = older.size() > olderCount;
+            hasMoreAfter = newerCount == 0 || newer.size() > newerCount;
+            older = trim(older, olderCount);
+            newer = trim(newer, newerCount);
+        } else if (afterId != null) {
+            older = List.of();
+            newer = privateMessageMapper.selectHistoryAfter(chatId, afterId, pageSize + 1);
+            hasMoreBefore = true;
+            hasMoreAfter = newer.size() > pageSize;
+            newer = trim(newer, pageSize);
+        } else {
+            Long cursor = beforeId != null && beforeId > 0 ? beforeId : null;
+            // 最新的一两页通常可以直接由最近消息缓存返回
+            if (pageSize <= recentMessageCache.getCapacity()) {
+                ChatHistoryData cached = recentMessageCache.pageBefore(chatId, cursor, pageSize);
+                if (cached != null) {
+                    return cached;
+                }
+                if (cursor == null) {
+                    recentMessageCache.load(chatId, () -> toChatMessages(
+                        privateMessageMapper.selectHistoryBefore(chatId, null, recentMessageCache.getCapacity() + 1)));
+                }
             }
+            older = privateMessageMapper.selectHistoryBefore(chatId, cursor, pageSize + 1);
+            newer = List.of();
+            hasMoreBefore = older.size() > pageSize;
+            hasMoreAfter = cursor != null;
+            older = trim(older, pageSize);
+        }
 
-            // 按消息ID降序排序，限制返回数量
-            queryWrapper2.orderByDesc("message_id").last("LIMIT " + limit);
+        // older 按ID降序，反向遍历后与升序的 newer 拼接
+        List<ChatMessageData<?>> result = new ArrayList<>(older.size() + newer.size());
+        for (int i = older.size() - 1; i >= 0; i--) {
+            addConverted(result, older.get(i));
+        }
+        for (PrivateMessageEntity message : newer) {
+            addConverted(result, message);
+        }
+        return new ChatHistoryData(result.toArray(new ChatMessageData[0]), hasMoreBefore, hasMoreAfter);
+    }
 
-            // 执行查询
-            List<PrivateMessageEntity> messages = privateMessageMapper.selectList(queryWrapper2);
+    private static List<PrivateMessageEntity> trim(List<PrivateMessageEntity> messages, int size) {
+        return messages.size() > size ? messages.subList(0, size) : messages;
+    }
 
-            // 转换为ChatMessageData格式
-            for (PrivateMessageEntity message : messages) {
-                ChatMessageData<?> chatMessageData = convertToChatMessageData(message);
-                if (chatMessageData != null) {
-                    result.add(chatMessageData);
-                }
+    private List<ChatMessageData<?>> toChatMessages(List<PrivateMessageEntity> messages) {
+        List<ChatMessageData<?>> result = new ArrayList<>(messages.size());
+        for (PrivateMessageEntity message : messages) {
+            addConverted(result, message);
+        }
+        return result;
+    }
+
+    private void addConverted(List<ChatMessageData<?>> result, PrivateMessageEntity message) {
+        ChatMessageData<?> chatMessageData = convertToChatMessageData(message);
+        if (chatMessageData != null) {
+            result.add(chatMessageData);
+        }
+    }
+
+    /**
+     * 取出用户所有会话中序号大于 sinceSeq 的一批消息，按用户消息序列的序号升序排列。
+     * <p>
+     * 序号按提交顺序分配，读到某个序号时更小的序号都已提交，游标不会越过晚提交的消息
+     *
+     * @param userId   用户ID
+     * @param sinceSeq 上次同步返回的 nextSinceSeq，为 null 时从头开始
+     * @param limit    最多返回的消息数量，为 null 或超过分批大小时按分批大小处理
+     */
+    public SyncData getMessagesSince(int userId, Long sinceSeq, Integer limit) {
+        long since = sinceSeq == null ? 0 : sinceSeq;
+        int chunkSize = limit == null || limit <= 0 ? syncChunkSize : Math.min(limit, syncChunkSize);
+        List<PrivateMessageEntity> messages = privateMessageMapper.selectMessagesSince(userId, since, chunkSize);
+        long next = messages.isEmpty() ? since : messages.get(messages.size() - 1).getSeqFor(userId);
+        return new SyncData(toChatMessages(messages).toArray(new ChatMessageData[0]), next, messages.size() < chunkSize);
+    }
+
+    /**
+     * 把序号大于 sinceSeq 的消息分批发送给连接，每批一帧，直到同步到最新或达到单次同步的上限
+     *
+     * @return 发送的消息数量
+     */
+    public int streamMessagesSince(int userId, Long sinceSeq, WebSocketSession session) throws IOException {
+        Long cursor = sinceSeq;
+        int sent = 0;
+        while (true) {
+            SyncData chunk = getMessagesSince(userId, cursor, syncChunkSize);
+            sessionManager.sendToSession(session, new WebSocketMessage<>(WebSocketMessage.TYPE_SYNC, chunk));
+            sent += chunk.messages().length;
+            // 达到上限时 done 为 false，客户端用 nextSinceSeq 继续请求
+            if (chunk.done() || sent >= syncMaxMessages) {
+                return sent;
             }
+            cursor = chunk.nextSinceSeq();
+        }
+    }
 
-            // 反转列表，使消息按时间升序排列
-            Collections.reverse(result);
+    /**
+     * 把该设备离线期间没有送达的消息合并成一帧发送给新建立的连接。
+     * <p>
+     * 待补发记录在补发帧写入连接后才删除，连接在此之前断开时下次连接会再次补发。
+     * 补发帧可能晚于连接建立后收到的新消息，客户端应按消息ID排序并去重
+     *
+     * @param userId  用户ID
+     * @param session 新建立的连接
+     * @return 补发的消息数量
+     */
+    public int replayPendingMessages(int userId, WebSocketSession session) throws IOException {
+        String token = (String) session.getAttributes().get(AuthHandshakeInterceptor.TOKEN_ATTRIBUTE);
+        if (token == null) {
+            return 0;
+        }
+        List<Long> messageIds = pendingDeliveryService.peek(userId, token);
+        if (messageIds.isEmpty()) {
+            return 0;
+        }
+        List<PrivateMessageEntity> messages = new ArrayList<>(privateMessageMapper.selectByIds(messageIds));
+        messages.sort(Comparator.comparing(PrivateMessageEntity::getMessageId));
+        List<ChatMessageData<?>> pending = toChatMessages(messages);
+        if (pending.isEmpty()) {
+            // 消息都已被删除，不需要补发
+            pendingDeliveryService.remove(userId, token, messageIds);
+            return 0;
         }
 
-        return result;
+        ChatHistoryData data = new ChatHistoryData(pending.toArray(new ChatMessageData[0]), false, false);
+        sessionManager.sendToSession(session, new WebSocketMessage<>(WebSocketMessage.TYPE_PENDING_MESSAGES, data),
+            () -> pendingDeliveryService.remove(userId, token, messageIds));
+        logger.info("向用户 {} 补发了 {} 条离线消息", userId, pending.size());
+        return pending.size();
     }
 
     /**
@@ -344,7 +556,8 @@ public class ChatMessageService {
                 message.getReceiverId(),
                 message.getReplyTo(),
                 content,
-                message.getSentAt()
+                message.getSentAt(),
+                null
             );
         } catch (Exception e) {
             logger.error("转换消息格式时出错", e);
@@ -1,203 +1,122 @@
 package kitra.awachat.next.service;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import kitra.awachat.next.cache.ChatMembershipCache;
+import kitra.awachat.next.cache.PrivateChatMembership;
+import kitra.awachat.next.cache.UserProfile;
 import kitra.awachat.next.dto.chat.ChatInfo;
 import kitra.awachat.next.dto.chat.ChatType;
 import kitra.awachat.next.dto.chat.PrivateChatInfo;
-import kitra.awachat.next.dto.websocket.TextMessageContent;
 import kitra.awachat.next.entity.PrivateChatEntity;
-import kitra.awachat.next.entity.PrivateMessageAcknowledgeEntity;
-import kitra.awachat.next.entity.PrivateMessageEntity;
-import kitra.awachat.next.entity.UserEntity;
+import kitra.awachat.next.entity.PrivateChatSummaryEntity;
 import kitra.awachat.next.mapper.PrivateChatMapper;
-import kitra.awachat.next.mapper.PrivateMessageAcknowledgeMapper;
-import kitra.awachat.next.mapper.PrivateMessageMapper;
-import kitra.awachat.next.mapper.UserMapper;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static kitra.awachat.next.util.DataBaseUtil.checkResult;
 
 @Service
 public class ChatService {
 
-    private final UserMapper userMapper;
     private final PrivateChatMapper privateChatMapper;
-    private final PrivateMessageMapper privateMessageMapper;
-    private final PrivateMessageAcknowledgeMapper privateMessageAcknowledgeMapper;
-    private final Logger logger = LogManager.getLogger(ChatService.class);
-    private final ObjectMapper objectMapper;
+    private final SequenceIdAllocator idAllocator;
+    private final ChatMembershipCache chatMembershipCache;
+    private final UserService userService;
 
-    public ChatService(UserMapper userMapper, PrivateChatMapper privateChatMapper,
-                       PrivateMessageMapper privateMessageMapper,
-                       PrivateMessageAcknowledgeMapper privateMessageAcknowledgeMapper, ObjectMapper objectMapper) {
-        this.userMapper = userMapper;
+    public ChatService(PrivateChatMapper privateChatMapper, SequenceIdAllocator idAllocator,
+                       ChatMembershipCache chatMembershipCache, UserService userService) {
         this.privateChatMapper = privateChatMapper;
-        this.privateMessageMapper = privateMessageMapper;
-        this.privateMessageAcknowledgeMapper = privateMessageAcknowledgeMapper;
-        this.objectMapper = objectMapper;
+        this.idAllocator = idAllocator;
+        this.chatMembershipCache = chatMembershipCache;
+        this.userService = userService;
     }
 
+    /**
+     * 获取用户的会话列表。会话、最后一条消息和未读数量由一条查询取出，对方用户信息从资料缓存中批量取得
+     *
+     * @param currentUserId 当前用户ID
+     * @return 会话列表
+     */
     public List<ChatInfo<PrivateChatInfo>> getChatList(Integer currentUserId) {
-        // 创建会话列表
-        List<ChatInfo<PrivateChatInfo>> chatList = new ArrayList<>();
-
-        // 查询用户参与的所有私聊会话
-        QueryWrapper<PrivateChatEntity> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("user1_id", currentUserId).or().eq("user2_id", currentUserId);
-        List<PrivateChatEntity> privateChatEntities = privateChatMapper.selectList(queryWrapper);
-
-        // 遍历私聊会话，获取对方用户信息
-        for (PrivateChatEntity chatEntity : privateChatEntities) {
-            // 确定对方用户ID
-            Integer otherUserId = chatEntity.getUser1Id().equals(currentUserId) ?
-                chatEntity.getUser2Id() : chatEntity.getUser1Id();
+        List<PrivateChatSummaryEntity> summaries = privateChatMapper.selectChatSummaries(currentUserId);
+        List<ChatInfo<PrivateChatInfo>> chatList = new ArrayList<>(summaries.size());
+        List<Integer> peerIds = new ArrayList<>(summaries.size());
+        for (PrivateChatSummaryEntity summary : summaries) {
+            peerIds.add(summary.getPeerId());
+        }
+        Map<Integer, UserProfile> peers = userService.getUsersByIds(peerIds);
 
-            // 获取对方用户信息
-            UserEntity otherUser = userMapper.selectById(otherUserId);
-            if (otherUser == null) {
-                logger.warn("找不到用户: {}", otherUserId);
+        for (PrivateChatSummaryEntity summary : summaries) {
+            UserProfile peer = peers.get(summary.getPeerId());
+            if (peer == null) {
+                // 对方用户已不存在
                 continue;
             }
-
-            // 获取最后一条消息内容
-            String lastMessageContent = null;
-            if (chatEntity.getLastMessageId() != null) {
-                PrivateMessageEntity lastMessage = privateMessageMapper.selectById(chatEntity.getLastMessageId());
-                if (lastMessage != null) {
-                    lastMessageContent = getMessageContent(lastMessage);
-                }
-            } else { // 若数据库中 lastMessageId 为 null，可能是没有消息或原消息被删
-                // 查询聊天中的最新一条消息
-                QueryWrapper<PrivateMessageEntity> queryWrapper2 = new QueryWrapper<>();
-                queryWrapper2.eq("chat_id", chatEntity.getChatId());
-                queryWrapper2.orderByDesc("message_id").last("limit 1");
-                PrivateMessageEntity privateMessageEntity = privateMessageMapper.selectOne(queryWrapper2);
-                // 若查到了最新消息，则返回最新消息内容
-                if (privateMessageEntity != null) {
-                    lastMessageContent = getMessageContent(privateMessageEntity);
-                }
-            }
-
-            // 计算未读消息数量
-            Integer unreadCount = calculateUnreadCount(chatEntity.getChatId(), currentUserId);
-
-            // 创建私聊信息
             PrivateChatInfo privateChatInfo = new PrivateChatInfo(
-                chatEntity.getChatId(),
-                otherUser.getUserId(),
-                otherUser.getUsername(),
-                otherUser.getNickname(),
-                chatEntity.getCreatedAt(),
-                chatEntity.getUpdatedAt(),
-                lastMessageContent,
-                unreadCount
+                summary.getChatId(),
+                summary.getPeerId(),
+                peer.username(),
+                peer.nickname(),
+                summary.getCreatedAt(),
+                summary.getUpdatedAt(),
+                getMessagePreview(summary.getLastMessageType(), summary.getLastMessageText()),
+                summary.getUnreadCount()
             );
-
-            // 创建聊天信息
-            ChatInfo<PrivateChatInfo> chatInfo = new ChatInfo<>(ChatType.PRIVATE, privateChatInfo);
-
-            // 添加到列表
-            chatList.add(chatInfo);
+            chatList.add(new ChatInfo<>(ChatType.PRIVATE, privateChatInfo));
         }
 
         return chatList;
     }
 
     /**
-     * 获取消息内容
+     * 获取消息在会话列表中显示的预览内容
      *
-     * @param message 消息实体
+     * @param contentType 消息类型，null 表示会话中没有消息
+     * @param text        文本消息的内容
      * @return 消息内容文本
      */
-    private String getMessageContent(PrivateMessageEntity message) {
-        try {
-            // 根据消息类型处理内容
-            if (message.getContentType() == 0) { // 文本消息
-                TextMessageContent content = objectMapper.convertValue(message.getContent(), TextMessageContent.class);
-                return content.content();
-            } else if (message.getContentType() == 1) { // 复合消息
-                return "[图文消息]";
-            } else if (message.getContentType() == 2) { // 好友请求
-                return "[好友请求]";
-            }
-        } catch (Exception e) {
-            logger.error("解析消息内容失败", e);
+    private String getMessagePreview(Short contentType, String text) {
+        if (contentType == null) {
+            return null;
         }
-        return null;
+        return switch (contentType) {
+            case 0 -> text; // 文本消息
+            case 1 -> "[图文消息]"; // 复合消息
+            case 2 -> "[好友请求]"; // 好友请求
+            default -> null;
+        };
     }
 
     /**
-     * 计算未读消息数量
-     *
-     * @param chatId 聊天ID
-     * @param userId 用户ID
-     * @return 未读消息数量
-     */
-    private Integer calculateUnreadCount(Long chatId, Integer userId) {
-        // 查询用户已读的最后一条消息ID
-        QueryWrapper<PrivateMessageAcknowledgeEntity> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("chat_id", chatId).eq("user_id", userId);
-        PrivateMessageAcknowledgeEntity ack = privateMessageAcknowledgeMapper.selectOne(queryWrapper);
-
-        if (ack == null || ack.getLastMessageId() == null) {
-            // 如果没有已读记录，查询该会话的所有消息数量
-            QueryWrapper<PrivateMessageEntity> msgQuery = new QueryWrapper<>();
-            msgQuery.eq("chat_id", chatId).eq("receiver_id", userId).eq("is_deleted", false);
-            return privateMessageMapper.selectCount(msgQuery).intValue();
-        } else {
-            // 查询大于已读消息ID的消息数量
-            QueryWrapper<PrivateMessageEntity> msgQuery = new QueryWrapper<>();
-            msgQuery.eq("chat_id", chatId)
-                .eq("receiver_id", userId)
-                .gt("message_id", ack.getLastMessageId())
-                .eq("is_deleted", false);
-            return privateMessageMapper.selectCount(msgQuery).intValue();
-        }
-    }
-
-    /**
-     * 创建或获取私聊会话
+     * 创建或获取私聊会话。已有的会话从 {@link ChatMembershipCache} 中取得，缓存命中时不访问数据库
      *
      * @param user1Id 用户1ID
      * @param user2Id 用户2ID
-     * @return 私聊会话实体
+     * @return 私聊会话的成员信息
      */
-    @Transactional
-    public PrivateChatEntity createOrGetPrivateChat(Integer user1Id, Integer user2Id) {
-        // 确保user1Id < user2Id，保持一致性
-        if (user1Id > user2Id) {
-            Integer temp = user1Id;
-            user1Id = user2Id;
-            user2Id = temp;
+    public PrivateChatMembership createOrGetPrivateChat(Integer user1Id, Integer user2Id) {
+        PrivateChatMembership membership = chatMembershipCache.findByUsers(user1Id, user2Id);
+        if (membership != null) {
+            return membership;
         }
 
-        // 查询是否已存在会话
-        QueryWrapper<PrivateChatEntity> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("user1_id", user1Id).eq("user2_id", user2Id);
-        PrivateChatEntity chatEntity = privateChatMapper.selectOne(queryWrapper);
+        // 不存在时创建新会话，确保user1Id < user2Id，保持一致性
+        PrivateChatEntity chatEntity = new PrivateChatEntity();
+        chatEntity.setChatId(idAllocator.nextChatId());
+        chatEntity.setUser1Id(Math.min(user1Id, user2Id));
+        chatEntity.setUser2Id(Math.max(user1Id, user2Id));
 
-        // 如果不存在，创建新会话
-        if (chatEntity == null) {
-            chatEntity = new PrivateChatEntity();
-            chatEntity.setUser1Id(user1Id);
-            chatEntity.setUser2Id(user2Id);
+        Date now = new Date();
+        chatEntity.setCreatedAt(now);
+        chatEntity.setUpdatedAt(now);
 
-            Date now = new Date();
-            chatEntity.setCreatedAt(now);
-            chatEntity.setUpdatedAt(now);
-
-            // 插入数据库
-            checkResult(privateChatMapper.insertPrivateChat(chatEntity));
-        }
+        // 插入数据库
+        checkResult(privateChatMapper.insertPrivateChat(chatEntity));
+        chatMembershipCache.onChatCreated(chatEntity);
 
-        return chatEntity;
+        return PrivateChatMembership.of(chatEntity);
     }
 }
\ No newline at end of file
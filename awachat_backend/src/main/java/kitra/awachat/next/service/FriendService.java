@@ -1,6 +1,8 @@
 package kitra.awachat.next.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import kitra.awachat.next.cache.FriendshipCache;
+import kitra.awachat.next.cache.RecentMessageCache;
 import kitra.awachat.next.entity.FriendEntity;
 import kitra.awachat.next.entity.PrivateMessageEntity;
 import kitra.awachat.next.mapper.FriendMapper;
@@ -16,31 +18,26 @@ public class FriendService {
 
     private final FriendMapper friendMapper;
     private final PrivateMessageMapper privateMessageMapper;
+    private final FriendshipCache friendshipCache;
+    private final RecentMessageCache recentMessageCache;
 
-    public FriendService(FriendMapper friendMapper, PrivateMessageMapper privateMessageMapper) {
+    public FriendService(FriendMapper friendMapper, PrivateMessageMapper privateMessageMapper,
+                         FriendshipCache friendshipCache, RecentMessageCache recentMessageCache) {
         this.friendMapper = friendMapper;
         this.privateMessageMapper = privateMessageMapper;
+        this.friendshipCache = friendshipCache;
+        this.recentMessageCache = recentMessageCache;
     }
 
     /**
-     * 检查两个用户是否是好友
+     * 检查两个用户是否是好友，结果来自 {@link FriendshipCache}
      *
      * @param user1Id 用户1ID
      * @param user2Id 用户2ID
      * @return 如果是好友返回true，否则返回false
      */
     public boolean areFriends(Integer user1Id, Integer user2Id) {
-        // 确保user1Id < user2Id，保持一致性
-        if (user1Id > user2Id) {
-            Integer temp = user1Id;
-            user1Id = user2Id;
-            user2Id = temp;
-        }
-
-        // 查询好友关系
-        QueryWrapper<FriendEntity> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("user1", user1Id).eq("user2", user2Id);
-        return friendMapper.selectCount(queryWrapper) > 0;
+        return friendshipCache.areFriends(user1Id, user2Id);
     }
 
     /**
@@ -68,7 +65,11 @@ public class FriendService {
         friendEntity.setUser1(user1Id);
         friendEntity.setUser2(user2Id);
 
-        return friendMapper.insert(friendEntity) > 0;
+        boolean success = friendMapper.insert(friendEntity) > 0;
+        if (success) {
+            friendshipCache.onFriendAdded(user1Id, user2Id);
+        }
+        return success;
     }
 
     /**
@@ -100,6 +101,7 @@ public class FriendService {
 
             // 更新消息
             privateMessageMapper.updateById(requestMessage);
+            recentMessageCache.invalidate(requestMessage.getChatId());
         });
         return true;
     }
@@ -113,6 +115,10 @@ public class FriendService {
         }
         QueryWrapper<FriendEntity> queryWrapper = new QueryWrapper<>();
         queryWrapper.eq("user1", user1Id).eq("user2", user2Id);
-        return friendMapper.delete(queryWrapper) > 0;
+        boolean success = friendMapper.delete(queryWrapper) > 0;
+        if (success) {
+            friendshipCache.onFriendDeleted(user1Id, user2Id);
+        }
+        return success;
     }
 }
\ No newline at end of file
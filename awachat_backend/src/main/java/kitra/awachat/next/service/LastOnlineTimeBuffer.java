@@ -0,0 +1,107 @@
+package kitra.awachat.next.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import kitra.awachat.next.entity.UserEntity;
+import kitra.awachat.next.mapper.UserMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户最后在线时间的写缓冲。
+ * <p>
+ * 断开连接时只在内存中记录时间，同一用户多次记录只保留最新的一次；定时任务把积累的记录分批用一条
+ * UPDATE ... FROM (VALUES ...) 写入数据库。大量客户端同时重连时，对 user 表的写入次数不再随断开次数增长。
+ * 应用关闭前会再写入一次。进程异常退出时最多丢失一个刷新周期内的记录
+ */
+@Service
+public class LastOnlineTimeBuffer {
+    private final UserMapper userMapper;
+    private final int batchSize;
+    private final Logger logger = LogManager.getLogger(LastOnlineTimeBuffer.class);
+
+    private final Map<Integer, Date> pending = new ConcurrentHashMap<>();
+    private final Timer flushTimer;
+
+    public LastOnlineTimeBuffer(UserMapper userMapper, MeterRegistry meterRegistry,
+                                @Value("${awachat.presence.flush-batch-size:500}") int batchSize) {
+        this.userMapper = userMapper;
+        this.batchSize = batchSize;
+        Gauge.builder("awachat.presence.last_online.pending", pending, Map::size)
+            .description("等待写入数据库的最后在线时间数量")
+            .register(meterRegistry);
+        this.flushTimer = Timer.builder("awachat.presence.last_online.flush")
+            .description("一次写入最后在线时间的耗时")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 记录用户的最后在线时间，等待下次刷新时写入
+     */
+    public void record(int userId, Date lastOnlineAt) {
+        pending.merge(userId, lastOnlineAt, (oldTime, newTime) -> newTime.after(oldTime) ? newTime : oldTime);
+    }
+
+    /**
+     * 把缓冲中的记录写入数据库，由定时任务调用
+     */
+    @Scheduled(fixedDelayString = "${awachat.presence.flush-interval-ms:5000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<UserEntity> batch = new ArrayList<>(Math.min(pending.size(), batchSize));
+        int written = 0;
+        long start = System.nanoTime();
+        for (Map.Entry<Integer, Date> entry : pending.entrySet()) {
+            // 只有值没有被新的记录替换时才移除，否则留到下一次写入
+            if (!pending.remove(entry.getKey(), entry.getValue())) {
+                continue;
+            }
+            UserEntity user = new UserEntity();
+            user.setUserId(entry.getKey());
+            user.setLastOnlineAt(entry.getValue());
+            batch.add(user);
+            if (batch.size() >= batchSize) {
+                written += writeBatch(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            written += writeBatch(batch);
+        }
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        logger.debug("已写入 {} 个用户的最后在线时间", written);
+    }
+
+    private int writeBatch(List<UserEntity> batch) {
+        try {
+            userMapper.updateLastOnlineBatch(batch);
+            return batch.size();
+        } catch (RuntimeException e) {
+            // 放回缓冲等待下次写入，期间有更新的记录时保留较新的时间
+            logger.warn("写入 {} 个用户的最后在线时间失败，稍后重试", batch.size(), e);
+            for (UserEntity user : batch) {
+                record(user.getUserId(), user.getLastOnlineAt());
+            }
+            return 0;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,100 @@
+package kitra.awachat.next.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * 按客户端消息ID对聊天消息去重，避免发送者重试时重复写入消息。
+ * <p>
+ * 每条带 clientMessageId 的消息在 Redis 中占用一个键，处理前用 SET NX 占位，保存成功后把值改为消息ID，
+ * 失败时删除占位让客户端可以重试。键在过期时间后自动删除。Redis 不可用时不去重，消息照常处理
+ */
+@Service
+public class MessageDedupService {
+    private static final String KEY_PREFIX = "awachat:dedup:";
+    // 消息正在处理，还没有消息ID
+    private static final String PENDING = "";
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration ttl;
+    private final Counter duplicateCounter;
+    private final Logger logger = LogManager.getLogger(MessageDedupService.class);
+
+    public MessageDedupService(StringRedisTemplate redisTemplate, MeterRegistry meterRegistry,
+                               @Value("${awachat.message.dedup.ttl:10m}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.ttl = ttl;
+        this.duplicateCounter = Counter.builder("awachat.message.dedup.duplicates")
+            .description("按客户端消息ID识别出的重复消息数量")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 尝试占用一个客户端消息ID
+     *
+     * @return 占用成功返回 {@link Claim#ACQUIRED}；重复的消息返回之前保存的消息ID，仍在处理中时消息ID为 null
+     */
+    public Claim claim(int senderId, String clientMessageId) {
+        String key = key(senderId, clientMessageId);
+        try {
+            Boolean acquired = redisTemplate.opsForValue().setIfAbsent(key, PENDING, ttl);
+            if (!Boolean.FALSE.equals(acquired)) {
+                return Claim.ACQUIRED;
+            }
+            duplicateCounter.increment();
+            String value = redisTemplate.opsForValue().get(key);
+            if (value == null || value.isEmpty()) {
+                return new Claim(false, null);
+            }
+            return new Claim(false, Long.parseLong(value));
+        } catch (DataAccessException e) {
+            logger.warn("检查用户 {} 的消息 {} 是否重复失败", senderId, clientMessageId, e);
+            return Claim.ACQUIRED;
+        }
+    }
+
+    /**
+     * 消息保存成功后记录对应的消息ID，之后的重复消息据此回复发送者
+     */
+    public void complete(int senderId, String clientMessageId, long messageId) {
+        try {
+            redisTemplate.opsForValue().set(key(senderId, clientMessageId), Long.toString(messageId), ttl);
+        } catch (DataAccessException e) {
+            logger.warn("记录用户 {} 的消息 {} 的消息ID失败", senderId, clientMessageId, e);
+        }
+    }
+
+    /**
+     * 消息处理失败后释放占用，允许客户端重试
+     */
+    public void release(int senderId, String clientMessageId) {
+        try {
+            redisTemplate.delete(key(senderId, clientMessageId));
+        } catch (DataAccessException e) {
+            logger.warn("释放用户 {} 的消息 {} 的去重记录失败", senderId, clientMessageId, e);
+        }
+    }
+
+    private static String key(int senderId, String clientMessageId) {
+        return KEY_PREFIX + senderId + ":" + clientMessageId;
+    }
+
+    /**
+     * 占用客户端消息ID的结果
+     *
+     * @param acquired       是否占用成功，成功时应正常处理消息
+     * @param savedMessageId 重复的消息已保存时为其消息ID
+     */
+    public record Claim(boolean acquired, @Nullable Long savedMessageId) {
+        static final Claim ACQUIRED = new Claim(true, null);
+    }
+}
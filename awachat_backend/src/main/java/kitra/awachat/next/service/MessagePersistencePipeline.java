@@ -0,0 +1,245 @@
+package kitra.awachat.next.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import kitra.awachat.next.entity.PrivateChatEntity;
+import kitra.awachat.next.entity.PrivateChatUnreadEntity;
+import kitra.awachat.next.entity.PrivateMessageEntity;
+import kitra.awachat.next.exception.DatabaseOperationException;
+import kitra.awachat.next.mapper.PrivateChatMapper;
+import kitra.awachat.next.mapper.PrivateChatUnreadMapper;
+import kitra.awachat.next.mapper.PrivateMessageMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 流水线模式下的消息持久化（awachat.message.persistence.mode=pipelined）。
+ * <p>
+ * 消息ID由 {@link SequenceIdAllocator} 在内存中分配，消息放入有界队列后立即返回；后台写线程每次取出一批消息，
+ * 在一个事务中分配用户消息序列的序号（{@link UserMessageSeqAllocator}）、用多行 INSERT 写入，
+ * 并把同一会话的 last_message_id 更新和未读计数合并成一条语句。
+ * 事务提交后才完成 {@link #submit} 返回的 Future，调用方据此在消息落库后再转发给收发双方。
+ * 所有 Future 在同一个回调线程中按提交顺序完成，转发、去重和更新缓存的顺序与写入顺序一致。
+ * 一批中个别消息违反约束时拆分重试，不影响同批的其他消息
+ */
+@Service
+@ConditionalOnProperty(name = "awachat.message.persistence.mode", havingValue = "pipelined")
+public class MessagePersistencePipeline {
+    private final PrivateMessageMapper privateMessageMapper;
+    private final PrivateChatMapper privateChatMapper;
+    private final PrivateChatUnreadMapper privateChatUnreadMapper;
+    private final SequenceIdAllocator idAllocator;
+    private final UserMessageSeqAllocator seqAllocator;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Logger logger = LogManager.getLogger(MessagePersistencePipeline.class);
+
+    private final BlockingQueue<PendingMessage> queue;
+    private final int batchSize;
+    // Future 在这里按顺序完成，避免转发消息的回调占用写线程；只有一个线程，不能打乱同一会话中消息的顺序
+    private final ExecutorService completionExecutor;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private Timer flushTimer;
+    private DistributionSummary batchSizeSummary;
+    private Counter rejectedCounter;
+
+    public MessagePersistencePipeline(PrivateMessageMapper privateMessageMapper, PrivateChatMapper privateChatMapper,
+                                      PrivateChatUnreadMapper privateChatUnreadMapper, SequenceIdAllocator idAllocator,
+                                      UserMessageSeqAllocator seqAllocator, TransactionTemplate transactionTemplate,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${awachat.message.persistence.queue-capacity:8192}") int queueCapacity,
+                                      @Value("${awachat.message.persistence.batch-size:256}") int batchSize) {
+        this.privateMessageMapper = privateMessageMapper;
+        this.privateChatMapper = privateChatMapper;
+        this.privateChatUnreadMapper = privateChatUnreadMapper;
+        this.idAllocator = idAllocator;
+        this.seqAllocator = seqAllocator;
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.completionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-persistence-callback");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writerThread = new Thread(this::runWriter, "message-persistence-writer");
+    }
+
+    @PostConstruct
+    public void start() {
+        Gauge.builder("awachat.message.pipeline.queue.depth", queue, Collection::size)
+            .description("等待写入数据库的消息数量")
+            .register(meterRegistry);
+        flushTimer = Timer.builder("awachat.message.pipeline.flush.latency")
+            .description("一批消息从开始写入到事务提交的耗时")
+            .publishPercentiles(0.5, 0.99)
+            .register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("awachat.message.pipeline.batch.size")
+            .description("每次写入的消息数量")
+            .register(meterRegistry);
+        rejectedCounter = Counter.builder("awachat.message.pipeline.rejected")
+            .description("因队列已满被拒绝的消息数量")
+            .register(meterRegistry);
+        writerThread.start();
+        logger.info("消息持久化流水线已启动，队列容量={}，批大小={}", queue.remainingCapacity(), batchSize);
+    }
+
+    /**
+     * 为消息分配ID并放入写入队列
+     *
+     * @param message 要写入的消息，messageId 会被填充
+     * @return 消息写入数据库后完成的 Future；队列已满时返回 null
+     */
+    public synchronized CompletableFuture<PrivateMessageEntity> submit(PrivateMessageEntity message) {
+        if (!running || queue.remainingCapacity() == 0) {
+            rejectedCounter.increment();
+            return null;
+        }
+        // 分配ID和入队在同一把锁内进行，保证队列中的消息ID是递增的
+        message.setMessageId(idAllocator.nextMessageId());
+        PendingMessage pending = new PendingMessage(message, new CompletableFuture<>());
+        queue.add(pending);
+        return pending.future();
+    }
+
+    private void runWriter() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一批消息并完成它们的 Future。
+     * <p>
+     * 一行违反约束（如外键）会使整批写入失败，此时把这批消息拆成两半分别重试，最终只有违反约束的消息失败；
+     * 其他错误（如数据库不可用）重试也无济于事，整批直接失败
+     */
+    private void flush(List<PendingMessage> batch) {
+        long start = System.nanoTime();
+        try {
+            write(batch);
+        } catch (DataIntegrityViolationException e) {
+            if (batch.size() > 1) {
+                logger.warn("批量写入 {} 条消息时违反约束，拆分后重试：{}", batch.size(), e.getMessage());
+                int middle = batch.size() / 2;
+                flush(batch.subList(0, middle));
+                flush(batch.subList(middle, batch.size()));
+            } else {
+                logger.error("写入消息 {} 失败", batch.get(0).message().getMessageId(), e);
+                fail(batch, e);
+            }
+            return;
+        } catch (Exception e) {
+            logger.error("批量写入 {} 条消息失败", batch.size(), e);
+            fail(batch, e);
+            return;
+        }
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        batchSizeSummary.record(batch.size());
+        // batch 会被写线程清空复用，复制后再交给回调线程
+        List<PendingMessage> completed = List.copyOf(batch);
+        completionExecutor.execute(() -> completed.forEach(pending -> pending.future().complete(pending.message())));
+    }
+
+    /**
+     * 在一个事务中写入一批消息，并合并更新会话的最后一条消息和未读计数
+     */
+    private void write(List<PendingMessage> batch) {
+        transactionTemplate.executeWithoutResult(status -> {
+            List<PrivateMessageEntity> messages = new ArrayList<>(batch.size());
+            // 每个会话只保留最后一条消息
+            Map<Long, PrivateChatEntity> chatUpdates = new LinkedHashMap<>();
+            // 每个 (会话, 接收者) 的未读数增量
+            Map<UnreadKey, PrivateChatUnreadEntity> unreadIncrements = new LinkedHashMap<>();
+            Date now = new Date();
+
+            for (PendingMessage pending : batch) {
+                PrivateMessageEntity message = pending.message();
+                messages.add(message);
+
+                PrivateChatEntity chat = chatUpdates.computeIfAbsent(message.getChatId(), chatId -> {
+                    PrivateChatEntity entity = new PrivateChatEntity();
+                    entity.setChatId(chatId);
+                    entity.setUpdatedAt(now);
+                    return entity;
+                });
+                if (chat.getLastMessageId() == null || chat.getLastMessageId() < message.getMessageId()) {
+                    chat.setLastMessageId(message.getMessageId());
+                }
+
+                PrivateChatUnreadEntity unread = unreadIncrements.computeIfAbsent(
+                    new UnreadKey(message.getChatId(), message.getReceiverId()), key -> {
+                        PrivateChatUnreadEntity entity = new PrivateChatUnreadEntity();
+                        entity.setChatId(message.getChatId());
+                        entity.setUserId(message.getReceiverId());
+                        entity.setUnreadCount(0);
+                        return entity;
+                    });
+                unread.setUnreadCount(unread.getUnreadCount() + 1);
+            }
+
+            // 序号在本事务中分配，拆分重试时重新分配
+            seqAllocator.assign(messages);
+            if (privateMessageMapper.insertPrivateMessageBatch(messages) != messages.size()) {
+                throw new DatabaseOperationException();
+            }
+            privateChatMapper.updateLastMessageBatch(new ArrayList<>(chatUpdates.values()));
+            privateChatUnreadMapper.incrementBatch(new ArrayList<>(unreadIncrements.values()));
+        });
+    }
+
+    private void fail(List<PendingMessage> batch, Exception e) {
+        List<PendingMessage> failed = List.copyOf(batch);
+        completionExecutor.execute(() -> failed.forEach(pending -> pending.future().completeExceptionally(e)));
+    }
+
+    /**
+     * 停止接收新消息，等待写线程把队列中剩余的消息写完
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        completionExecutor.shutdown();
+        completionExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        if (!queue.isEmpty()) {
+            logger.error("消息持久化流水线关闭时仍有 {} 条消息未写入", queue.size());
+        }
+    }
+
+    private record PendingMessage(PrivateMessageEntity message, CompletableFuture<PrivateMessageEntity> future) {
+    }
+
+    private record UnreadKey(long chatId, int userId) {
+    }
+}
@@ -1,14 +1,13 @@
 package kitra.awachat.next.service;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import io.minio.GetPresignedObjectUrlArgs;
 import io.minio.MinioClient;
 import io.minio.errors.*;
 import io.minio.http.Method;
+import kitra.awachat.next.cache.ChatMembershipCache;
+import kitra.awachat.next.cache.PrivateChatMembership;
 import kitra.awachat.next.dto.image.GetImageUploadUrlResponse;
-import kitra.awachat.next.entity.PrivateChatEntity;
 import kitra.awachat.next.exception.*;
-import kitra.awachat.next.mapper.PrivateChatMapper;
 import kitra.awachat.next.mapper.PrivateMessageMapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -26,7 +25,7 @@ import java.util.concurrent.TimeUnit;
  */
 @Service
 public class MinioService {
-    private final PrivateChatMapper privateChatMapper;
+    private final ChatMembershipCache chatMembershipCache;
     private final PrivateMessageMapper privateMessageMapper; // 添加消息Mapper
     private final MinioClient minioClient;
     private final Logger logger = LogManager.getLogger(MinioService.class);
@@ -39,8 +38,8 @@ public class MinioService {
     @Value("${minio.public-url}")
     private String publicUrl;
 
-    public MinioService(PrivateChatMapper privateChatMapper, PrivateMessageMapper privateMessageMapper, MinioClient minioClient) {
-        this.privateChatMapper = privateChatMapper;
+    public MinioService(ChatMembershipCache chatMembershipCache, PrivateMessageMapper privateMessageMapper, MinioClient minioClient) {
+        this.chatMembershipCache = chatMembershipCache;
         this.privateMessageMapper = privateMessageMapper;
         this.minioClient = minioClient;
     }
@@ -64,14 +63,12 @@ public class MinioService {
             throw new IllegalFileFormatException();
         }
         // 检查会话是否存在
-        QueryWrapper<PrivateChatEntity> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("chat_id", chatId);
-        PrivateChatEntity privateChatEntity = privateChatMapper.selectOne(queryWrapper);
-        if (privateChatEntity == null) {
+        PrivateChatMembership chatMembership = chatMembershipCache.get(chatId);
+        if (chatMembership == null) {
             throw new NoSuchChatException();
         }
         // 检查用户是否在会话中
-        if (!privateChatEntity.getUser1Id().equals(userId) && !privateChatEntity.getUser2Id().equals(userId)) {
+        if (!chatMembership.contains(userId)) {
             throw new PermissionDeniedException();
         }
         // 生成路径并获取URL
@@ -106,14 +103,12 @@ public class MinioService {
             throw new BadInputException("图片路径");
         }
         // 检查会话是否存在
-        QueryWrapper<PrivateChatEntity> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("chat_id", chatId);
-        PrivateChatEntity privateChatEntity = privateChatMapper.selectOne(queryWrapper);
-        if (privateChatEntity == null) {
+        PrivateChatMembership chatMembership = chatMembershipCache.get(chatId);
+        if (chatMembership == null) {
             throw new NoSuchChatException();
         }
         // 检查用户是否在会话中
-        if (!privateChatEntity.getUser1Id().equals(userId) && !privateChatEntity.getUser2Id().equals(userId)) {
+        if (!chatMembership.contains(userId)) {
             throw new PermissionDeniedException();
         }
         // 生成URL
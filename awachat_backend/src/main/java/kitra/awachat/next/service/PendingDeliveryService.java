@@ -0,0 +1,133 @@
+package kitra.awachat.next.service;
+
+import cn.dev33.satoken.stp.StpUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import kitra.awachat.next.session.OutboundSpillHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 每个设备待补发消息的记录，保存在 Redis 中。
+ * <p>
+ * 接收者不在线、或发送队列溢出（{@link kitra.awachat.next.session.OverflowPolicy#SPILL}）时记录消息ID，
+ * 设备下次连接时由 {@link ChatMessageService#replayPendingMessages} 合并成一帧发送。
+ * <p>
+ * 设备以登录 token 区分（sa-token.is-share 为 false，每次登录都有自己的 token）。用户不在线时消息记录到他每个已登录的设备，
+ * 某个连接溢出的消息只记录到该连接的设备，这样每个设备都能收到自己缺少的消息。
+ * 补发时只读取不删除，补发帧写入连接后才删除，连接在此之前断开时下次连接会再次补发。
+ * <p>
+ * 每个设备一个有序集合，分数为消息ID，重复记录自动去重；超过上限时丢弃最早的记录，
+ * 客户端可以通过历史消息接口补齐。长期不上线的设备（包括已退出登录的 token）的记录在过期时间后删除
+ */
+@Service
+public class PendingDeliveryService implements OutboundSpillHandler {
+    private static final String KEY_PREFIX = "awachat:pending:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final int maxPerDevice;
+    private final Duration ttl;
+    private final Counter recordedCounter;
+    private final Logger logger = LogManager.getLogger(PendingDeliveryService.class);
+
+    public PendingDeliveryService(StringRedisTemplate redisTemplate, MeterRegistry meterRegistry,
+                                  @Value("${awachat.pending-delivery.max-per-device:1000}") int maxPerDevice,
+                                  @Value("${awachat.pending-delivery.ttl:7d}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.maxPerDevice = maxPerDevice;
+        this.ttl = ttl;
+        this.recordedCounter = Counter.builder("awachat.pending_delivery.recorded")
+            .description("记录为待补发的消息数量")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 记录一条需要在设备下次连接时补发的消息。Redis 不可用时只记录日志，用户仍可以通过历史消息接口取得消息
+     *
+     * @param token 设备的登录 token，为 null 时记录到用户所有已登录的设备
+     */
+    public void record(int userId, @Nullable String token, long messageId) {
+        String member = Long.toString(messageId);
+        try {
+            List<String> tokens = token != null ? List.of(token) : StpUtil.getTokenValueListByLoginId(userId);
+            if (tokens.isEmpty()) {
+                // 没有已登录的设备，登录后通过同步接口取得消息
+                return;
+            }
+            // 每个设备三条命令，一次发送
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (String deviceToken : tokens) {
+                    String key = key(userId, deviceToken);
+                    stringConnection.zAdd(key, messageId, member);
+                    // 只保留ID最大的 maxPerDevice 条
+                    stringConnection.zRemRange(key, 0, -(maxPerDevice + 1));
+                    stringConnection.expire(key, ttl.toSeconds());
+                }
+                return null;
+            });
+            recordedCounter.increment();
+        } catch (DataAccessException e) {
+            logger.warn("记录用户 {} 的待补发消息 {} 失败", userId, messageId, e);
+        }
+    }
+
+    @Override
+    public void spill(int userId, @Nullable String token, long messageId) {
+        record(userId, token, messageId);
+    }
+
+    /**
+     * 读取设备所有待补发的消息ID，不删除
+     *
+     * @return 按消息ID升序排列的列表
+     */
+    public List<Long> peek(int userId, String token) {
+        Set<String> members;
+        try {
+            members = redisTemplate.opsForZSet().range(key(userId, token), 0, maxPerDevice - 1);
+        } catch (DataAccessException e) {
+            logger.warn("读取用户 {} 的待补发消息失败", userId, e);
+            return List.of();
+        }
+        if (members == null || members.isEmpty()) {
+            return List.of();
+        }
+        List<Long> messageIds = new ArrayList<>(members.size());
+        for (String member : members) {
+            messageIds.add(Long.parseLong(member));
+        }
+        return messageIds;
+    }
+
+    /**
+     * 补发成功后删除设备的这些待补发记录。删除失败时下次连接会再次补发，客户端按消息ID去重
+     */
+    public void remove(int userId, String token, List<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        Object[] members = messageIds.stream().map(String::valueOf).toArray();
+        try {
+            redisTemplate.opsForZSet().remove(key(userId, token), members);
+        } catch (DataAccessException e) {
+            logger.warn("删除用户 {} 的待补发消息失败", userId, e);
+        }
+    }
+
+    private static String key(int userId, String token) {
+        return KEY_PREFIX + userId + ":" + token;
+    }
+}
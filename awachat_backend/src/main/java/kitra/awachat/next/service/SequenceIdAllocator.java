@@ -0,0 +1,82 @@
+package kitra.awachat.next.service;
+
+import kitra.awachat.next.mapper.SequenceMapper;
+import kitra.awachat.next.util.IdBlockAllocator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.stereotype.Service;
+
+/**
+ * 为私聊消息和私聊会话分配ID，替代每次插入前单独执行一次 nextval。
+ * <p>
+ * 序列的 INCREMENT 被设为块大小（见 sql/migration/004_sequence_block_increment.sql），每次 nextval 就相当于
+ * 预留了 [value, value + INCREMENT) 这一段ID，之后在内存中分配。INCREMENT 为1时退化为每个ID执行一次 nextval
+ * <p>
+ * 注意：每个节点各自持有一段ID，消息流水线也在批量提交之前就分配ID，因此ID只保证唯一，不保证与提交顺序一致，
+ * 晚提交的消息ID可能比已提交的更小。依赖顺序的地方不能直接按ID推进：
+ * <ul>
+ *     <li>会话的 last_message_id 只在新ID更大时更新（见 PrivateChatMapper.xml）</li>
+ *     <li>增量同步和已读位置使用每个用户的消息序号（见 UserMessageSeqAllocator）</li>
+ *     <li>按 message_id 翻页的历史消息只适合浏览已经提交的消息：先取过的一页之后，
+ *     才提交的更小ID的消息会落在已取过的范围内，不会出现在之后按 afterId 取到的页中</li>
+ * </ul>
+ */
+@Service
+public class SequenceIdAllocator {
+    private static final String MESSAGE_SEQUENCE = "private_message_seq";
+    private static final String CHAT_SEQUENCE = "private_chat_seq";
+
+    private final SequenceMapper sequenceMapper;
+    private final Logger logger = LogManager.getLogger(SequenceIdAllocator.class);
+    private volatile IdBlockAllocator messageIdAllocator;
+    private volatile IdBlockAllocator chatIdAllocator;
+
+    public SequenceIdAllocator(SequenceMapper sequenceMapper) {
+        this.sequenceMapper = sequenceMapper;
+    }
+
+    /**
+     * 分配一个私聊消息ID
+     */
+    public long nextMessageId() {
+        IdBlockAllocator allocator = messageIdAllocator;
+        if (allocator == null) {
+            allocator = initMessageIdAllocator();
+        }
+        return allocator.nextId();
+    }
+
+    /**
+     * 分配一个私聊会话ID
+     */
+    public long nextChatId() {
+        IdBlockAllocator allocator = chatIdAllocator;
+        if (allocator == null) {
+            allocator = initChatIdAllocator();
+        }
+        return allocator.nextId();
+    }
+
+    private synchronized IdBlockAllocator initMessageIdAllocator() {
+        if (messageIdAllocator == null) {
+            messageIdAllocator = createAllocator(MESSAGE_SEQUENCE);
+        }
+        return messageIdAllocator;
+    }
+
+    private synchronized IdBlockAllocator initChatIdAllocator() {
+        if (chatIdAllocator == null) {
+            chatIdAllocator = createAllocator(CHAT_SEQUENCE);
+        }
+        return chatIdAllocator;
+    }
+
+    private IdBlockAllocator createAllocator(String sequence) {
+        Long increment = sequenceMapper.selectIncrement(sequence);
+        if (increment == null || increment < 1 || increment > Integer.MAX_VALUE) {
+            throw new IllegalStateException("序列 " + sequence + " 不存在或 INCREMENT 不合法：" + increment);
+        }
+        logger.info("序列 {} 的ID块大小为 {}", sequence, increment);
+        return new IdBlockAllocator(() -> sequenceMapper.nextval(sequence), increment.intValue());
+    }
+}
@@ -0,0 +1,78 @@
+package kitra.awachat.next.service;
+
+import kitra.awachat.next.mapper.PrivateChatUnreadMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import static kitra.awachat.next.util.DataBaseUtil.checkResult;
+
+/**
+ * 维护 private_chat_unread 表中的未读消息计数。计数在写入消息时增加、在已读反馈时重新统计，
+ * 读取会话列表时直接取用，不再对消息表做 COUNT
+ */
+@Service
+public class UnreadCounterService {
+    private final PrivateChatUnreadMapper privateChatUnreadMapper;
+    private final Logger logger = LogManager.getLogger(UnreadCounterService.class);
+    @Value("${awachat.unread-counter.rebuild-on-startup:false}")
+    private boolean rebuildOnStartup;
+
+    public UnreadCounterService(PrivateChatUnreadMapper privateChatUnreadMapper) {
+        this.privateChatUnreadMapper = privateChatUnreadMapper;
+    }
+
+    /**
+     * 接收者收到一条新消息，应与消息的插入在同一个事务中调用
+     *
+     * @param chatId     会话ID
+     * @param receiverId 接收者ID
+     */
+    public void increment(Long chatId, Integer receiverId) {
+        checkResult(privateChatUnreadMapper.increment(chatId, receiverId));
+    }
+
+    /**
+     * 用户的已读位置发生变化，重新统计该位置之后的未读消息。
+     * <p>
+     * 统计前先锁住计数行：READ COMMITTED 下 COUNT 看不到并发写入中尚未提交的消息，
+     * 如果不加锁，那条消息的加一可能先于这次统计提交，随后被统计结果覆盖而丢失。
+     * 加锁后，已经执行了加一的写入事务会先提交，之后的 COUNT 语句使用新的快照能看到它的消息；
+     * 还没有加一的写入事务会等这次统计提交后再加一
+     *
+     * @param chatId  会话ID
+     * @param userId  用户ID
+     * @param lastSeq 最后一条已读消息在该用户消息序列中的序号
+     */
+    @Transactional
+    public void onAcknowledged(Long chatId, Integer userId, Long lastSeq) {
+        checkResult(privateChatUnreadMapper.lockCounter(chatId, userId));
+        checkResult(privateChatUnreadMapper.recount(chatId, userId, lastSeq));
+    }
+
+    /**
+     * 根据消息表重建所有计数，用于崩溃或手动修改数据后的校正
+     *
+     * @return 写入的记录数
+     */
+    public int rebuildAll() {
+        long start = System.currentTimeMillis();
+        int rows = privateChatUnreadMapper.rebuildAll();
+        logger.info("未读消息计数已重建，共 {} 条记录，耗时 {} ms", rows, System.currentTimeMillis() - start);
+        return rows;
+    }
+
+    /**
+     * 配置 awachat.unread-counter.rebuild-on-startup=true 时，在启动完成后重建一次计数
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        if (rebuildOnStartup) {
+            rebuildAll();
+        }
+    }
+}
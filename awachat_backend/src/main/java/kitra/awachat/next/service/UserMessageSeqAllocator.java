@@ -0,0 +1,59 @@
+package kitra.awachat.next.service;
+
+import kitra.awachat.next.entity.PrivateMessageEntity;
+import kitra.awachat.next.entity.UserMessageSeqEntity;
+import kitra.awachat.next.exception.DatabaseOperationException;
+import kitra.awachat.next.mapper.UserMessageSeqMapper;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * 为消息分配发送者和接收者各自消息序列中的序号（sender_seq、receiver_seq）。
+ * <p>
+ * 消息ID按块预先分配，顺序与提交顺序无关，不能作为同步游标和已读位置。序号在写入消息的同一个事务中取得，
+ * 取号时锁住用户的计数行直到事务提交，同一用户的序号因此按提交顺序递增：客户端读到序号 n 时，
+ * 序号小于 n 的消息都已提交。事务回滚时取得的序号一并回滚，不会留下空洞
+ */
+@Service
+public class UserMessageSeqAllocator {
+    private final UserMessageSeqMapper userMessageSeqMapper;
+
+    public UserMessageSeqAllocator(UserMessageSeqMapper userMessageSeqMapper) {
+        this.userMessageSeqMapper = userMessageSeqMapper;
+    }
+
+    /**
+     * 为一批消息按列表顺序分配序号，必须在插入这些消息的事务中调用
+     *
+     * @param messages 要写入的消息，senderSeq 和 receiverSeq 会被填充
+     */
+    public void assign(List<PrivateMessageEntity> messages) {
+        // 每个用户需要的序号数量，按用户ID排序后加锁
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        for (PrivateMessageEntity message : messages) {
+            counts.merge(message.getSenderId(), 1L, Long::sum);
+            counts.merge(message.getReceiverId(), 1L, Long::sum);
+        }
+        List<UserMessageSeqEntity> allocations = new ArrayList<>(counts.size());
+        counts.forEach((userId, count) -> {
+            UserMessageSeqEntity allocation = new UserMessageSeqEntity();
+            allocation.setUserId(userId);
+            allocation.setLastSeq(count);
+            allocations.add(allocation);
+        });
+
+        // 用户ID -> 下一个可用的序号
+        Map<Integer, Long> nextSeqs = new HashMap<>();
+        for (UserMessageSeqEntity allocated : userMessageSeqMapper.allocate(allocations)) {
+            nextSeqs.put(allocated.getUserId(), allocated.getLastSeq() - counts.get(allocated.getUserId()) + 1);
+        }
+        if (nextSeqs.size() != counts.size()) {
+            throw new DatabaseOperationException();
+        }
+        for (PrivateMessageEntity message : messages) {
+            message.setSenderSeq(nextSeqs.merge(message.getSenderId(), 1L, Long::sum) - 1);
+            message.setReceiverSeq(nextSeqs.merge(message.getReceiverId(), 1L, Long::sum) - 1);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package kitra.awachat.next.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import kitra.awachat.next.cache.UserProfile;
+import kitra.awachat.next.cache.UserProfileCache;
 import kitra.awachat.next.entity.UserEntity;
 import kitra.awachat.next.exception.BadInputException;
 import kitra.awachat.next.exception.LoginFailedException;
@@ -11,16 +13,23 @@ import kitra.awachat.next.util.UserInfoUtil;
 import org.mindrot.jbcrypt.BCrypt;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.Map;
 
 import static kitra.awachat.next.util.DataBaseUtil.checkResult;
 
 @Service
 public class UserService {
     private final UserMapper userMapper;
+    private final UserProfileCache userProfileCache;
+    private final LastOnlineTimeBuffer lastOnlineTimeBuffer;
 
-    public UserService(UserMapper userMapper) {
+    public UserService(UserMapper userMapper, UserProfileCache userProfileCache,
+                       LastOnlineTimeBuffer lastOnlineTimeBuffer) {
         this.userMapper = userMapper;
+        this.userProfileCache = userProfileCache;
+        this.lastOnlineTimeBuffer = lastOnlineTimeBuffer;
     }
 
     /**
@@ -74,21 +83,31 @@ public class UserService {
     }
 
     /**
-     * 根据用户ID获取用户信息
+     * 根据用户ID获取用户信息，优先从 {@link UserProfileCache} 读取
      *
      * @param userId 用户ID
-     * @return 用户实体
+     * @return 用户资料
      */
-    public UserEntity getUserById(int userId) {
-        UserEntity userEntity = userMapper.selectById(userId);
-        if (userEntity == null) {
+    public UserProfile getUserById(int userId) {
+        UserProfile profile = userProfileCache.get(userId);
+        if (profile == null) {
             throw new UserNotFoundException();
         }
-        return userEntity;
+        return profile;
+    }
+
+    /**
+     * 批量获取用户信息，缓存未命中的用户用一条查询取出
+     *
+     * @param userIds 用户ID
+     * @return 用户ID到用户资料的映射，不存在的用户不会出现在结果中
+     */
+    public Map<Integer, UserProfile> getUsersByIds(Collection<Integer> userIds) {
+        return userProfileCache.getAll(userIds);
     }
 
     /**
-     * 更新用户最后在线时间
+     * 更新用户最后在线时间。时间先记录在 {@link LastOnlineTimeBuffer} 中，稍后批量写入数据库
      *
      * @param userId 用户ID
      */
@@ -96,32 +115,22 @@ public class UserService {
         if (userId == null) {
             return;
         }
-
-        try {
-            UserEntity userEntity = userMapper.selectById(userId);
-            if (userEntity != null) {
-                userEntity.setLastOnlineAt(new Date());
-                userMapper.updateById(userEntity);
-            }
-        } catch (Exception e) {
-            // 记录错误但不抛出异常，避免影响正常的连接关闭流程
-            // 这里可以添加日志记录
-        }
+        Date now = new Date();
+        lastOnlineTimeBuffer.record(userId, now);
+        userProfileCache.updateLastOnlineAt(userId, now);
     }
 
     /**
-     * 根据用户名获取用户信息
+     * 根据用户名获取用户信息，优先从 {@link UserProfileCache} 读取
      *
      * @param username 用户名
-     * @return 用户实体
+     * @return 用户资料
      */
-    public UserEntity getUserByUsername(String username) {
-        QueryWrapper<UserEntity> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("username", username);
-        UserEntity userEntity = userMapper.selectOne(queryWrapper);
-        if (userEntity == null) {
+    public UserProfile getUserByUsername(String username) {
+        UserProfile profile = userProfileCache.getByUsername(username);
+        if (profile == null) {
             throw new UserNotFoundException();
         }
-        return userEntity;
+        return profile;
     }
 }
@@ -1,6 +1,6 @@
 package kitra.awachat.next.session;
 
-import cn.dev33.satoken.stp.StpUtil;
+import kitra.awachat.next.cache.LoginTokenCache;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.http.server.ServerHttpRequest;
@@ -13,9 +13,16 @@ import java.util.Map;
 
 @Component
 public class AuthHandshakeInterceptor implements HandshakeInterceptor {
+    // 会话属性中保存登录 token 的键，token 同时用来区分同一用户的不同设备
+    public static final String TOKEN_ATTRIBUTE = "token";
 
+    private final LoginTokenCache loginTokenCache;
     private final Logger logger = LogManager.getLogger(AuthHandshakeInterceptor.class);
 
+    public AuthHandshakeInterceptor(LoginTokenCache loginTokenCache) {
+        this.loginTokenCache = loginTokenCache;
+    }
+
     /**
      * 建立连接之前，进行验证。
      * <p>
@@ -37,32 +44,16 @@ public class AuthHandshakeInterceptor implements HandshakeInterceptor {
                 return false;
             }
 
-            // 2. 验证token并获取用户ID - 使用不依赖上下文的方法
-            // TODO 对比原方案和现在的修改，解释到底是如何解决上下文未初始化的问题的
-            Object loginId = StpUtil.getLoginIdByToken(token);
-            if (loginId == null) {
+            // 2. 验证token并获取用户ID，优先使用本地缓存，未命中时才查询 Redis
+            Integer userId = loginTokenCache.resolve(token);
+            if (userId == null) {
                 logger.warn("WebSocket握手失败：token验证失败");
                 return false; // 认证失败，拒绝连接
             }
 
-            // 确保loginId是Integer类型
-            Integer userId;
-            if (loginId instanceof Integer) {
-                userId = (Integer) loginId;
-            } else if (loginId instanceof String) {
-                try {
-                    userId = Integer.parseInt((String) loginId);
-                } catch (NumberFormatException e) {
-                    logger.warn("WebSocket握手失败：用户ID格式错误");
-                    return false;
-                }
-            } else {
-                logger.warn("WebSocket握手失败：用户ID类型不支持");
-                return false;
-            }
-
-            // 3. 将用户ID存入会话属性
+            // 3. 将用户ID和 token 存入会话属性
             attributes.put("userId", userId);
+            attributes.put(TOKEN_ATTRIBUTE, token);
             logger.info("WebSocket握手成功：用户ID={}", userId);
             return true;
 
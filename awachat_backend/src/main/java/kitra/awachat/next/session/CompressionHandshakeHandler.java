@@ -0,0 +1,59 @@
+package kitra.awachat.next.session;
+
+import kitra.awachat.next.codec.WireFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.List;
+
+/**
+ * 控制握手时是否协商 permessage-deflate 扩展。
+ * <p>
+ * permessage-deflate 由 Tomcat 实现，对所有帧使用固定的压缩级别，无法设置阈值；
+ * 需要调节阈值和级别的客户端可以改用 awachat.cbor.deflate 或 awachat.json.deflate 子协议，
+ * 此时不再协商 permessage-deflate，避免重复压缩
+ */
+@Component
+public class CompressionHandshakeHandler extends DefaultHandshakeHandler {
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final boolean permessageDeflateEnabled;
+
+    public CompressionHandshakeHandler(
+        @Value("${awachat.websocket.compression.permessage-deflate:true}") boolean permessageDeflateEnabled) {
+        this.permessageDeflateEnabled = permessageDeflateEnabled;
+    }
+
+    @Override
+    protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                 List<WebSocketExtension> requestedExtensions,
+                                                                 List<WebSocketExtension> supportedExtensions) {
+        List<WebSocketExtension> extensions =
+            super.filterRequestedExtensions(request, requestedExtensions, supportedExtensions);
+        if (permessageDeflateEnabled && !selectWireFormat(request).isCompressed()) {
+            return extensions;
+        }
+        return extensions.stream()
+            .filter(extension -> !PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName()))
+            .toList();
+    }
+
+    /**
+     * 按子协议协商的规则（客户端列出的第一个受支持的子协议）推断这次握手会选中的编码格式
+     */
+    private static WireFormat selectWireFormat(ServerHttpRequest request) {
+        List<String> protocols = new WebSocketHttpHeaders(request.getHeaders()).getSecWebSocketProtocol();
+        for (String protocol : protocols) {
+            for (WireFormat format : WireFormat.values()) {
+                if (format.getSubProtocol().equals(protocol)) {
+                    return format;
+                }
+            }
+        }
+        return WireFormat.JSON;
+    }
+}
@@ -0,0 +1,62 @@
+package kitra.awachat.next.session;
+
+import jakarta.annotation.PreDestroy;
+import kitra.awachat.next.util.HashedTimingWheel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 重新发送超时未确认的聊天消息。
+ * <p>
+ * 只有存在在途消息的会话才有定时任务：会话由没有在途消息变为有在途消息时安排一次检查，
+ * 到期时重发超时的消息，并按最早的在途消息重新安排；在途消息全部确认后不再安排，直到再次有在途消息。
+ * 定时任务放在 {@link HashedTimingWheel} 上，不需要定期扫描全部会话
+ */
+@Component
+public class DeliveryRetransmitter {
+    private final HashedTimingWheel wheel;
+    private final long timeoutNanos;
+    private final int maxAttempts;
+
+    public DeliveryRetransmitter(@Value("${awachat.websocket.delivery.retransmit-timeout:5s}") Duration retransmitTimeout,
+                                 @Value("${awachat.websocket.delivery.max-attempts:3}") int maxAttempts,
+                                 @Value("${awachat.websocket.delivery.tick:100ms}") Duration tick,
+                                 @Value("${awachat.websocket.delivery.wheel-size:128}") int wheelSize) {
+        this.timeoutNanos = retransmitTimeout.toNanos();
+        this.maxAttempts = maxAttempts;
+        this.wheel = new HashedTimingWheel("websocket-retransmit", tick, wheelSize);
+    }
+
+    /**
+     * 会话开始有在途消息时调用，在超时后检查一次
+     */
+    public void schedule(QueuedWebSocketSession session) {
+        wheel.scheduleAt(new RetransmitCheck(session), System.nanoTime() + timeoutNanos);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wheel.stop();
+    }
+
+    private final class RetransmitCheck implements Runnable {
+        private final QueuedWebSocketSession session;
+
+        private RetransmitCheck(QueuedWebSocketSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void run() {
+            if (session.isDiscarded()) {
+                return;
+            }
+            long next = session.retransmitExpired(System.nanoTime(), timeoutNanos, maxAttempts);
+            if (next >= 0) {
+                wheel.scheduleAt(this, next);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package kitra.awachat.next.session;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import kitra.awachat.next.util.TokenBucket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 握手的准入控制，放在 {@link AuthHandshakeInterceptor} 之前，在验证 token（访问 Redis）之前拒绝多余的握手。
+ * <p>
+ * 每个客户端 IP 的握手频率由一个 {@link TokenBucket} 限制，超过时返回 429，默认不开启。客户端 IP 取自连接的远端地址，
+ * 部署在反向代理之后时由 server.forward-headers-strategy 让容器按 X-Forwarded-For 还原，否则所有客户端共用代理的地址；
+ * 全局同时进行中的握手数量由信号量限制，用来抵御大量客户端同时重连，超过时返回 503。
+ * 拦截器链保证本拦截器放行之后，无论后面的拦截器或握手本身是否成功，都会调用 afterHandshake，在那里归还信号量。
+ * 被拒绝的握手数量以 awachat.websocket.handshake.rejected 导出，按 reason 区分
+ */
+@Component
+public class HandshakeAdmissionInterceptor implements HandshakeInterceptor {
+    private final Semaphore handshakePermits;
+    private final double perIpRate;
+    private final int perIpBurst;
+    private final Cache<String, TokenBucket> ipBuckets;
+    private final Counter ipRejectedCounter;
+    private final Counter concurrencyRejectedCounter;
+    private final Logger logger = LogManager.getLogger(HandshakeAdmissionInterceptor.class);
+
+    public HandshakeAdmissionInterceptor(MeterRegistry meterRegistry,
+                                         @Value("${awachat.websocket.handshake.max-concurrent:200}") int maxConcurrent,
+                                         @Value("${awachat.websocket.handshake.per-ip.rate:0}") double perIpRate,
+                                         @Value("${awachat.websocket.handshake.per-ip.burst:20}") int perIpBurst,
+                                         @Value("${awachat.websocket.handshake.per-ip.maximum-size:100000}") long maximumSize,
+                                         @Value("${awachat.websocket.handshake.per-ip.expire-after-access:10m}") Duration expireAfterAccess) {
+        int permits = Math.max(maxConcurrent, 1);
+        this.handshakePermits = new Semaphore(permits);
+        this.perIpRate = perIpRate;
+        this.perIpBurst = perIpBurst;
+        this.ipBuckets = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterAccess(expireAfterAccess)
+            .build();
+        this.ipRejectedCounter = rejectedCounter(meterRegistry, "ip_rate_limit");
+        this.concurrencyRejectedCounter = rejectedCounter(meterRegistry, "concurrency");
+        Gauge.builder("awachat.websocket.handshake.active", handshakePermits, semaphore -> permits - semaphore.availablePermits())
+            .description("正在进行中的 WebSocket 握手数量")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String clientIp = clientIp(request);
+        if (perIpRate > 0 && !ipBuckets.get(clientIp, key -> new TokenBucket(perIpRate, perIpBurst)).tryAcquire()) {
+            logger.warn("WebSocket握手被拒绝：IP {} 握手过于频繁", clientIp);
+            ipRejectedCounter.increment();
+            response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            return false;
+        }
+        if (!handshakePermits.tryAcquire()) {
+            logger.warn("WebSocket握手被拒绝：同时进行的握手过多");
+            concurrencyRejectedCounter.increment();
+            response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Exception ex) {
+        // 只有本拦截器放行（已取得信号量）时才会被调用
+        handshakePermits.release();
+    }
+
+    private static String clientIp(ServerHttpRequest request) {
+        InetSocketAddress address = request.getRemoteAddress();
+        if (address == null || address.getAddress() == null) {
+            return "unknown";
+        }
+        return address.getAddress().getHostAddress();
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("awachat.websocket.handshake.rejected")
+            .description("因准入控制被拒绝的 WebSocket 握手数量")
+            .tag("reason", reason)
+            .register(meterRegistry);
+    }
+}
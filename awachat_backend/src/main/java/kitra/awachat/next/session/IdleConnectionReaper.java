@@ -0,0 +1,88 @@
+package kitra.awachat.next.session;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import kitra.awachat.next.util.HashedTimingWheel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.PingMessage;
+
+import java.time.Duration;
+
+/**
+ * 检测并清理空闲的连接，发现客户端已经失联但 TCP 连接没有断开（半开连接）的情况。
+ * <p>
+ * 收到客户端的任何消息时只更新会话的最近活动时间（{@link QueuedWebSocketSession#touch}），不操作定时器。
+ * 每个会话在 {@link HashedTimingWheel} 上只有一个检查任务：到期时若期间有过活动，就按最近活动时间重新安排；
+ * 空闲超过 ping-after 时服务端主动发送 Ping，超过 idle-timeout 仍无任何消息（包括 Pong）时关闭连接。
+ * 因此每次心跳的开销是 O(1)，也不需要定期扫描全部会话
+ */
+@Component
+public class IdleConnectionReaper {
+    private final HashedTimingWheel wheel;
+    private final long pingAfterNanos;
+    private final long idleTimeoutNanos;
+    private final Counter pingCounter;
+    private final Counter reapedCounter;
+
+    public IdleConnectionReaper(MeterRegistry meterRegistry,
+                                @Value("${awachat.websocket.heartbeat.ping-after:30s}") Duration pingAfter,
+                                @Value("${awachat.websocket.heartbeat.idle-timeout:90s}") Duration idleTimeout,
+                                @Value("${awachat.websocket.heartbeat.tick:1s}") Duration tick,
+                                @Value("${awachat.websocket.heartbeat.wheel-size:512}") int wheelSize) {
+        this.pingAfterNanos = pingAfter.toNanos();
+        this.idleTimeoutNanos = Math.max(idleTimeout.toNanos(), pingAfterNanos);
+        this.wheel = new HashedTimingWheel("websocket-idle-reaper", tick, wheelSize);
+        this.pingCounter = Counter.builder("awachat.websocket.heartbeat.pings")
+            .description("服务端因连接空闲而主动发送的 Ping 数量")
+            .register(meterRegistry);
+        this.reapedCounter = Counter.builder("awachat.websocket.heartbeat.reaped")
+            .description("空闲超时被关闭的连接数量")
+            .register(meterRegistry);
+    }
+
+    /**
+     * 开始检测一个会话，会话被 discard 后自动停止
+     *
+     * @param onIdle 空闲超时后在时间轮线程中调用，应当把耗时的关闭操作交给其他线程
+     */
+    public void track(QueuedWebSocketSession session, Runnable onIdle) {
+        wheel.scheduleAt(new IdleCheck(session, onIdle), session.getLastSeenNanos() + pingAfterNanos);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wheel.stop();
+    }
+
+    private final class IdleCheck implements Runnable {
+        private final QueuedWebSocketSession session;
+        private final Runnable onIdle;
+
+        private IdleCheck(QueuedWebSocketSession session, Runnable onIdle) {
+            this.session = session;
+            this.onIdle = onIdle;
+        }
+
+        @Override
+        public void run() {
+            if (session.isDiscarded()) {
+                return;
+            }
+            long lastSeen = session.getLastSeenNanos();
+            long idle = System.nanoTime() - lastSeen;
+            if (idle >= idleTimeoutNanos) {
+                reapedCounter.increment();
+                onIdle.run();
+            } else if (idle >= pingAfterNanos) {
+                // 客户端（浏览器）会自动回复 Pong。Ping 排在积压的消息之前，也不会被溢出策略丢弃
+                session.sendControl(new PingMessage());
+                pingCounter.increment();
+                wheel.scheduleAt(this, lastSeen + idleTimeoutNanos);
+            } else {
+                wheel.scheduleAt(this, lastSeen + pingAfterNanos);
+            }
+        }
+    }
+}
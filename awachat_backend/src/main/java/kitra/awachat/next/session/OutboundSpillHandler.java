@@ -0,0 +1,15 @@
+package kitra.awachat.next.session;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * 接收因发送队列已满而溢出的聊天消息（{@link OverflowPolicy#SPILL}），负责保存下来，待用户下次连接时补发
+ */
+public interface OutboundSpillHandler {
+    /**
+     * @param userId    会话所属的用户ID
+     * @param token     会话所属设备的登录 token，为 null 时表示用户所有的设备都没有收到
+     * @param messageId 溢出的聊天消息ID
+     */
+    void spill(int userId, @Nullable String token, long messageId);
+}
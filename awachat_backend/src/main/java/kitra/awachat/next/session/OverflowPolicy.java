@@ -0,0 +1,19 @@
+package kitra.awachat.next.session;
+
+/**
+ * 会话发送队列已满时的处理策略
+ */
+public enum OverflowPolicy {
+    /**
+     * 丢弃队列中最早的一条消息，再放入新消息。丢弃的是聊天消息时交给 {@link OutboundSpillHandler} 保存，待用户下次连接时补发
+     */
+    DROP_OLDEST,
+    /**
+     * 关闭连接，由客户端重连后重新拉取
+     */
+    DISCONNECT,
+    /**
+     * 新消息不再进入队列，交给 {@link OutboundSpillHandler} 保存，待用户下次连接时补发
+     */
+    SPILL
+}
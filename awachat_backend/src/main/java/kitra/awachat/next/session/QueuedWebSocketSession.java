@@ -0,0 +1,512 @@
+package kitra.awachat.next.session;
+
+import kitra.awachat.next.codec.FrameCompressor;
+import kitra.awachat.next.codec.WireFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.lang.Nullable;
+import org.springframework.web.socket.AbstractWebSocketMessage;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带有界发送队列的 WebSocketSession。
+ * <p>
+ * {@link #sendMessage} 只把消息放入队列，由共享的写线程池按顺序发送，调用方不会被慢速客户端阻塞，
+ * 同一个会话也不会出现并发发送。队列超过上限时按 {@link OverflowPolicy} 处理。
+ * 控制消息（{@link #sendControl}）放在单独的队列中，不计入上限、不会被丢弃，并且先于其他消息发送。
+ * <p>
+ * 客户端发送过送达确认（{@link #acknowledge}）后，该连接进入确认模式：已发送未确认的聊天消息记为在途，
+ * 在途数量达到窗口上限时新的聊天消息转入暂缓队列，其他消息（系统消息、错误、Ping 等）照常发送；
+ * 超时未确认的消息由 {@link DeliveryRetransmitter} 调用 {@link #retransmitExpired} 重新入队，
+ * 多次重发仍未确认时转存等待补发并断开连接
+ */
+public class QueuedWebSocketSession extends WebSocketSessionDecorator {
+    private final int userId;
+    // 握手时协商出的消息编码格式
+    private final WireFormat wireFormat;
+    // 仅压缩格式（CBOR_DEFLATE、JSON_DEFLATE）的连接有压缩器
+    @Nullable
+    private final FrameCompressor compressor;
+    private final int queueLimit;
+    private final OverflowPolicy overflowPolicy;
+    private final Executor writerExecutor;
+    private final OutboundQueueListener listener;
+    private final int inFlightWindow;
+    private final Logger logger = LogManager.getLogger(QueuedWebSocketSession.class);
+
+    private final Deque<OutboundFrame> queue = new ConcurrentLinkedDeque<>();
+    // 控制消息（如 Ping），先于 queue 发送
+    private final Queue<OutboundFrame> control = new ConcurrentLinkedQueue<>();
+    // 因在途窗口已满而暂缓发送的聊天消息，按原顺序排列
+    private final Deque<OutboundFrame> held = new ConcurrentLinkedDeque<>();
+    // queue、held 和 control 中的消息总数
+    private final AtomicInteger queueSize = new AtomicInteger();
+    // 是否已有写线程在发送这个会话的消息
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean closed = false;
+    // 保证 discard 只执行一次
+    private final AtomicBoolean discarded = new AtomicBoolean();
+    // 最近一次收到客户端消息的 System.nanoTime()，用于空闲检测
+    private volatile long lastSeenNanos = System.nanoTime();
+
+    // 客户端是否发送过送达确认，之前的聊天消息不记录在途
+    private volatile boolean ackEnabled = false;
+    // 消息ID -> 已发送但未确认的聊天消息
+    private final Map<Long, InFlightFrame> inFlight = new ConcurrentHashMap<>();
+    // 是否已经安排了重发检查
+    private final AtomicBoolean retransmitScheduled = new AtomicBoolean();
+
+    public QueuedWebSocketSession(WebSocketSession delegate, int userId, @Nullable FrameCompressor compressor,
+                                  int queueLimit, OverflowPolicy overflowPolicy,
+                                  Executor writerExecutor, OutboundQueueListener listener, int inFlightWindow) {
+        super(delegate);
+        this.userId = userId;
+        this.wireFormat = WireFormat.fromSubProtocol(delegate.getAcceptedProtocol());
+        this.compressor = compressor;
+        this.queueLimit = queueLimit;
+        this.overflowPolicy = overflowPolicy;
+        this.writerExecutor = writerExecutor;
+        this.listener = listener;
+        this.inFlightWindow = inFlightWindow;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * 连接的压缩统计，未启用压缩时为 null
+     */
+    @Nullable
+    public FrameCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * 当前队列中等待发送的消息数量
+     */
+    public int getQueueDepth() {
+        return queueSize.get();
+    }
+
+    /**
+     * 收到客户端的任意消息（包括 Pong）时调用
+     */
+    public void touch() {
+        lastSeenNanos = System.nanoTime();
+    }
+
+    public long getLastSeenNanos() {
+        return lastSeenNanos;
+    }
+
+    /**
+     * 已发送但未确认的聊天消息数量
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        enqueue(new OutboundFrame(message, null, false, null));
+    }
+
+    /**
+     * 将消息放入发送队列
+     *
+     * @param message   要发送的消息
+     * @param messageId 消息对应的聊天消息ID，溢出时用于补发；不是聊天消息时为 null
+     */
+    public void send(WebSocketMessage<?> message, @Nullable Long messageId) {
+        enqueue(new OutboundFrame(message, messageId, false, null));
+    }
+
+    /**
+     * 将消息放入发送队列，消息写入连接后在写线程中调用 onSent。
+     * 消息被丢弃或连接在发送前关闭时不会调用
+     *
+     * @param message 要发送的消息，不是聊天消息
+     * @param onSent  发送成功后的回调，应当很快返回
+     */
+    public void send(WebSocketMessage<?> message, Runnable onSent) {
+        enqueue(new OutboundFrame(message, null, false, onSent));
+    }
+
+    /**
+     * 发送控制消息（如空闲检测的 Ping）。不受队列上限、溢出策略和在途窗口限制，
+     * 排在所有未发送的消息之前，积压时也能及时发出
+     */
+    public void sendControl(WebSocketMessage<?> message) {
+        if (closed) {
+            return;
+        }
+        control.offer(new OutboundFrame(message, null, false, null));
+        listener.onEnqueued(queueSize.incrementAndGet());
+        scheduleDrain();
+    }
+
+    private void enqueue(OutboundFrame frame) {
+        if (closed) {
+            return;
+        }
+        if (queueSize.get() >= queueLimit && !handleOverflow(frame.messageId())) {
+            return;
+        }
+        if (frame.retransmission()) {
+            // 重发的消息放在队首，不会被因窗口已满而暂停的新消息挡住
+            queue.offerFirst(frame);
+        } else {
+            queue.offer(frame);
+        }
+        listener.onEnqueued(queueSize.incrementAndGet());
+        scheduleDrain();
+    }
+
+    /**
+     * 处理队列已满的情况
+     *
+     * @return 新消息是否还应放入队列
+     */
+    private boolean handleOverflow(@Nullable Long messageId) {
+        listener.onOverflow(overflowPolicy);
+        switch (overflowPolicy) {
+            case DROP_OLDEST -> {
+                // 暂缓的聊天消息比队列中的更早
+                OutboundFrame dropped = held.pollFirst();
+                if (dropped == null) {
+                    dropped = queue.pollFirst();
+                }
+                if (dropped != null) {
+                    queueSize.decrementAndGet();
+                    listener.onDequeued(1);
+                    // 丢弃的聊天消息从未发出，与 SPILL 一样转存等待补发；重发的消息仍在途，之后还会重发
+                    if (dropped.messageId() != null && !dropped.retransmission()) {
+                        listener.onSpill(this, dropped.messageId());
+                    }
+                }
+                return true;
+            }
+            case SPILL -> {
+                if (messageId != null) {
+                    listener.onSpill(this, messageId);
+                }
+                return false;
+            }
+            default -> {
+                logger.warn("会话 {} 发送队列已满（{} 条），断开连接", getId(), queueSize.get());
+                closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+                return false;
+            }
+        }
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            writerExecutor.execute(this::drain);
+        }
+    }
+
+    /**
+     * 在写线程中依次发送队列中的消息，直到没有可以发送的消息
+     */
+    private void drain() {
+        try {
+            OutboundFrame frame;
+            while (!closed && (frame = nextFrame()) != null) {
+                queueSize.decrementAndGet();
+                listener.onDequeued(1);
+                if (frame.retransmission() && !inFlight.containsKey(frame.messageId())) {
+                    // 重发的消息在等待期间已被确认
+                    continue;
+                }
+                try {
+                    if (getDelegate().isOpen()) {
+                        getDelegate().sendMessage(compress(frame.message()));
+                        markInFlight(frame);
+                        notifySent(frame);
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    logger.error("发送消息到会话 {} 失败", getId(), e);
+                    closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+                }
+            }
+        } finally {
+            draining.set(false);
+        }
+        // 释放标记之后可能又有新消息入队，或者确认已经腾出了窗口
+        if (!closed && hasSendableFrames()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * 取出下一条可以发送的消息。窗口有空位时先发送暂缓的聊天消息；
+     * 新的聊天消息在窗口已满、或前面还有暂缓的消息时转入暂缓队列，保持聊天消息的顺序，其他消息不受窗口限制
+     *
+     * @return 没有可以发送的消息时返回 null
+     */
+    @Nullable
+    private OutboundFrame nextFrame() {
+        OutboundFrame urgent = control.poll();
+        if (urgent != null) {
+            return urgent;
+        }
+        if (!held.isEmpty() && !isWindowFull()) {
+            return held.poll();
+        }
+        OutboundFrame frame;
+        while ((frame = queue.poll()) != null) {
+            if (isWindowed(frame) && (isWindowFull() || !held.isEmpty())) {
+                held.offer(frame);
+                continue;
+            }
+            return frame;
+        }
+        return null;
+    }
+
+    private boolean hasSendableFrames() {
+        return !control.isEmpty() || !queue.isEmpty() || (!held.isEmpty() && !isWindowFull());
+    }
+
+    /**
+     * 确认模式下的新聊天消息受在途窗口限制，重发的消息已在途，不受限制
+     */
+    private boolean isWindowed(OutboundFrame frame) {
+        return ackEnabled && frame.messageId() != null && !frame.retransmission();
+    }
+
+    private boolean isWindowFull() {
+        return inFlight.size() >= inFlightWindow;
+    }
+
+    private void markInFlight(OutboundFrame frame) {
+        if (!ackEnabled || frame.messageId() == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (frame.retransmission()) {
+            inFlight.computeIfPresent(frame.messageId(),
+                (messageId, previous) -> new InFlightFrame(previous.message(), now, previous.attempts() + 1));
+        } else {
+            inFlight.put(frame.messageId(), new InFlightFrame(frame.message(), now, 1));
+        }
+        if (retransmitScheduled.compareAndSet(false, true)) {
+            listener.onAwaitingAck(this);
+        }
+    }
+
+    private void notifySent(OutboundFrame frame) {
+        if (frame.onSent() == null) {
+            return;
+        }
+        try {
+            frame.onSent().run();
+        } catch (RuntimeException e) {
+            logger.error("会话 {} 的发送回调出错", getId(), e);
+        }
+    }
+
+    /**
+     * 处理客户端的送达确认，第一次调用时开启确认模式
+     *
+     * @param messageIds 客户端已收到的聊天消息ID
+     */
+    public void acknowledge(@Nullable Long[] messageIds) {
+        ackEnabled = true;
+        if (messageIds != null) {
+            for (Long messageId : messageIds) {
+                if (messageId != null) {
+                    inFlight.remove(messageId);
+                }
+            }
+        }
+        // 窗口腾出后继续发送暂缓的消息
+        if (!closed && hasSendableFrames()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * 重新发送超时未确认的聊天消息，由 {@link DeliveryRetransmitter} 的定时任务调用
+     *
+     * @param now          当前的 {@link System#nanoTime()}
+     * @param timeoutNanos 发送后多久未确认视为超时
+     * @param maxAttempts  最多发送的次数，达到后断开连接，未确认的消息转存等待客户端重连后补发
+     * @return 下一次检查的时间（与 {@link System#nanoTime()} 比较）；没有在途消息时返回 -1，
+     * 之后再有在途消息时会重新通过 {@link OutboundQueueListener#onAwaitingAck} 安排
+     */
+    public long retransmitExpired(long now, long timeoutNanos, int maxAttempts) {
+        int retransmitted = 0;
+        boolean exhausted = false;
+        long earliestSentAt = Long.MAX_VALUE;
+        for (Map.Entry<Long, InFlightFrame> entry : inFlight.entrySet()) {
+            InFlightFrame frame = entry.getValue();
+            if (now - frame.sentAt() < timeoutNanos) {
+                earliestSentAt = Math.min(earliestSentAt, frame.sentAt());
+                continue;
+            }
+            if (frame.attempts() >= maxAttempts) {
+                exhausted = true;
+                continue;
+            }
+            // 先推迟超时时间，避免重发的消息还在队列中时被再次入队
+            if (inFlight.replace(entry.getKey(), frame, new InFlightFrame(frame.message(), now, frame.attempts()))) {
+                enqueue(new OutboundFrame(frame.message(), entry.getKey(), true, null));
+                retransmitted++;
+                earliestSentAt = Math.min(earliestSentAt, now);
+            }
+        }
+        if (retransmitted > 0) {
+            listener.onRetransmitted(retransmitted);
+        }
+        if (exhausted) {
+            logger.warn("会话 {} 的消息多次重发仍未确认，断开连接", getId());
+            // 向失联的客户端发送关闭帧可能阻塞，不占用定时任务的线程
+            writerExecutor.execute(() -> closeQuietly(CloseStatus.SESSION_NOT_RELIABLE));
+            return -1;
+        }
+        if (earliestSentAt != Long.MAX_VALUE) {
+            return earliestSentAt + timeoutNanos;
+        }
+        retransmitScheduled.set(false);
+        // 清除标记之前可能刚有消息进入在途，由这里重新安排
+        if (!inFlight.isEmpty() && retransmitScheduled.compareAndSet(false, true)) {
+            return now + timeoutNanos;
+        }
+        return -1;
+    }
+
+    /**
+     * 在写线程中压缩数据帧。共享的帧在这里才按连接压缩，不会改变其他会话收到的内容
+     */
+    private WebSocketMessage<?> compress(WebSocketMessage<?> message) {
+        if (compressor == null || !(message instanceof TextMessage || message instanceof BinaryMessage)) {
+            return message;
+        }
+        FrameCompressor.Result result = compressor.compress((AbstractWebSocketMessage<?>) message);
+        listener.onCompressed(result);
+        return result.frame();
+    }
+
+    /**
+     * 是否已调用过 {@link #discard}
+     */
+    public boolean isDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * 会话关闭后调用，丢弃队列中剩余的消息
+     *
+     * @return 是否是第一次调用，重复调用时不做任何事
+     */
+    public boolean discard() {
+        if (!discarded.compareAndSet(false, true)) {
+            return false;
+        }
+        closed = true;
+        int remaining = 0;
+        OutboundFrame frame;
+        while ((frame = held.poll()) != null || (frame = queue.poll()) != null || (frame = control.poll()) != null) {
+            remaining++;
+            // 确认模式下未送达的聊天消息转存，待下次连接时补发
+            if (ackEnabled && frame.messageId() != null && !frame.retransmission()) {
+                listener.onSpill(this, frame.messageId());
+            }
+        }
+        if (ackEnabled) {
+            inFlight.keySet().forEach(messageId -> listener.onSpill(this, messageId));
+            inFlight.clear();
+        }
+        if (remaining > 0) {
+            queueSize.addAndGet(-remaining);
+            listener.onDequeued(remaining);
+        }
+        if (compressor != null) {
+            compressor.close();
+        }
+        return true;
+    }
+
+    private void closeQuietly(CloseStatus status) {
+        try {
+            getDelegate().close(status);
+        } catch (IOException e) {
+            logger.debug("关闭会话 {} 失败", getId(), e);
+        }
+    }
+
+    /**
+     * @param retransmission 是否是超时未确认而重发的消息
+     * @param onSent         写入连接后的回调
+     */
+    private record OutboundFrame(WebSocketMessage<?> message, @Nullable Long messageId, boolean retransmission,
+                                 @Nullable Runnable onSent) {
+    }
+
+    /**
+     * 已发送未确认的聊天消息
+     *
+     * @param sentAt   最近一次发送的 {@link System#nanoTime()}
+     * @param attempts 已发送的次数
+     */
+    private record InFlightFrame(WebSocketMessage<?> message, long sentAt, int attempts) {
+    }
+
+    /**
+     * 发送队列的事件回调，用于统计指标和处理溢出
+     */
+    public interface OutboundQueueListener {
+        /**
+         * @param depth 入队后的队列长度
+         */
+        void onEnqueued(int depth);
+
+        /**
+         * @param count 出队（发送或丢弃）的消息数量
+         */
+        void onDequeued(int count);
+
+        void onOverflow(OverflowPolicy policy);
+
+        /**
+         * @param session   溢出消息所在的会话
+         * @param messageId 未送达的聊天消息ID
+         */
+        void onSpill(QueuedWebSocketSession session, long messageId);
+
+        void onCompressed(FrameCompressor.Result result);
+
+        /**
+         * @param count 超时未确认而重新入队的消息数量
+         */
+        void onRetransmitted(int count);
+
+        /**
+         * 会话由没有在途消息变为有在途消息，需要安排重发检查
+         */
+        void onAwaitingAck(QueuedWebSocketSession session);
+    }
+}
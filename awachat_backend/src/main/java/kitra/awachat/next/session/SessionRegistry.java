@@ -0,0 +1,248 @@
+package kitra.awachat.next.session;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * 用户ID -> 会话数组的注册表，替代 ConcurrentMap&lt;Integer, Set&lt;...&gt;&gt;。
+ * <p>
+ * 按用户ID分成若干段，每段是一个以 int 为键的开放寻址表，键不装箱；每个用户的会话保存为数组，
+ * 增删会话时复制（写时复制），一个用户通常只有一两个设备，复制的代价很小。
+ * 写操作按段加锁，读操作不加锁：写入时先写键、再用 volatile 写入会话数组，读到非空数组即可看到对应的键。
+ * 删除用户只清空数组、保留键作为墓碑，同一用户再次连接时复用该槽位；墓碑过多时重建该段
+ *
+ * @param <S> 会话类型
+ */
+public final class SessionRegistry<S> {
+    private final Stripe<S>[] stripes;
+    private final int stripeMask;
+    private final IntFunction<S[]> arrayFactory;
+    private final S[] empty;
+
+    /**
+     * @param stripeCount  分段数量，向上取整为 2 的幂
+     * @param arrayFactory 创建会话数组的方法，如 {@code QueuedWebSocketSession[]::new}
+     */
+    @SuppressWarnings("unchecked")
+    public SessionRegistry(int stripeCount, IntFunction<S[]> arrayFactory) {
+        int size = Integer.highestOneBit(Math.max(stripeCount, 1) * 2 - 1);
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        this.stripeMask = size - 1;
+        this.arrayFactory = arrayFactory;
+        this.empty = arrayFactory.apply(0);
+    }
+
+    /**
+     * 添加一个会话
+     *
+     * @return 是否是该用户的第一个会话
+     */
+    public boolean add(int userId, S session) {
+        Stripe<S> stripe = stripeFor(userId);
+        synchronized (stripe) {
+            Table<S> table = stripe.table;
+            int slot = table.find(userId);
+            if (slot < 0) {
+                if (table.used + 1 > table.zeroSlot / 2) {
+                    table = stripe.rebuild(stripe.live + 1);
+                }
+                slot = table.insert(userId);
+            }
+            S[] sessions = table.get(slot);
+            if (sessions == null) {
+                table.values.set(slot, singleton(session));
+                stripe.live++;
+                return true;
+            }
+            for (S existing : sessions) {
+                if (existing == session) {
+                    return false;
+                }
+            }
+            S[] updated = Arrays.copyOf(sessions, sessions.length + 1);
+            updated[sessions.length] = session;
+            table.values.set(slot, updated);
+            return false;
+        }
+    }
+
+    /**
+     * 移除一个会话
+     *
+     * @return 是否移除了该用户的最后一个会话
+     */
+    public boolean remove(int userId, S session) {
+        Stripe<S> stripe = stripeFor(userId);
+        synchronized (stripe) {
+            Table<S> table = stripe.table;
+            int slot = table.find(userId);
+            S[] sessions = slot < 0 ? null : table.get(slot);
+            if (sessions == null) {
+                return false;
+            }
+            int index = -1;
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i] == session) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return false;
+            }
+            if (sessions.length == 1) {
+                table.values.set(slot, null);
+                stripe.live--;
+                return true;
+            }
+            S[] updated = arrayFactory.apply(sessions.length - 1);
+            System.arraycopy(sessions, 0, updated, 0, index);
+            System.arraycopy(sessions, index + 1, updated, index, sessions.length - index - 1);
+            table.values.set(slot, updated);
+            return false;
+        }
+    }
+
+    /**
+     * 获取用户的所有会话，返回的数组不可修改
+     *
+     * @return 用户没有会话时返回空数组
+     */
+    public S[] get(int userId) {
+        Table<S> table = stripeFor(userId).table;
+        int slot = table.find(userId);
+        S[] sessions = slot < 0 ? null : table.get(slot);
+        return sessions != null ? sessions : empty;
+    }
+
+    public boolean contains(int userId) {
+        return get(userId).length > 0;
+    }
+
+    /**
+     * 有会话的用户数量
+     */
+    public int userCount() {
+        int count = 0;
+        for (Stripe<S> stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.live;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 遍历所有用户ID，遍历期间的增删可能看得到也可能看不到
+     */
+    public void forEachUser(IntConsumer action) {
+        for (Stripe<S> stripe : stripes) {
+            Table<S> table = stripe.table;
+            for (int i = 0; i < table.keys.length; i++) {
+                if (table.get(i) != null) {
+                    action.accept(table.keys[i]);
+                }
+            }
+        }
+    }
+
+    private Stripe<S> stripeFor(int userId) {
+        return stripes[mix(userId) >>> 16 & stripeMask];
+    }
+
+    private S[] singleton(S session) {
+        S[] sessions = arrayFactory.apply(1);
+        sessions[0] = session;
+        return sessions;
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Stripe<S> {
+        volatile Table<S> table = new Table<>(8);
+        // 有会话的用户数量，在段锁内读写
+        int live;
+
+        /**
+         * 按存活用户数重建，丢弃墓碑。重建后负载不超过 1/4，至少还能再插入同样多的新用户才会再次重建，
+         * 避免存活用户数接近一半容量时，连接和断开交替进行导致每次插入都重建
+         */
+        Table<S> rebuild(int expected) {
+            Table<S> old = table;
+            int capacity = 8;
+            while (capacity / 4 < expected) {
+                capacity <<= 1;
+            }
+            Table<S> rebuilt = new Table<>(capacity);
+            for (int i = 0; i < old.keys.length; i++) {
+                S[] sessions = old.get(i);
+                if (sessions != null) {
+                    rebuilt.values.set(rebuilt.insert(old.keys[i]), sessions);
+                }
+            }
+            table = rebuilt;
+            return rebuilt;
+        }
+    }
+
+    private static final class Table<S> {
+        // 0 作为空槽位的标记，用户ID 0 存放在 zeroSlot 中
+        final int[] keys;
+        final AtomicReferenceArray<S[]> values;
+        final int zeroSlot;
+        // 已占用的槽位数，包括墓碑，在段锁内读写
+        int used;
+
+        Table(int capacity) {
+            // 多一个槽位给用户ID 0
+            this.keys = new int[capacity + 1];
+            this.values = new AtomicReferenceArray<>(capacity + 1);
+            this.zeroSlot = capacity;
+        }
+
+        S[] get(int slot) {
+            return values.get(slot);
+        }
+
+        int find(int userId) {
+            if (userId == 0) {
+                return zeroSlot;
+            }
+            int mask = zeroSlot - 1;
+            for (int i = mix(userId) & mask; ; i = (i + 1) & mask) {
+                int key = keys[i];
+                if (key == userId) {
+                    return i;
+                }
+                if (key == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        /**
+         * 为新用户占用一个槽位，调用前需确认用户不在表中且还有空位
+         */
+        int insert(int userId) {
+            if (userId == 0) {
+                return zeroSlot;
+            }
+            int mask = zeroSlot - 1;
+            for (int i = mix(userId) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == 0) {
+                    keys[i] = userId;
+                    used++;
+                    return i;
+                }
+            }
+        }
+    }
+}
@@ -1,29 +1,121 @@
 package kitra.awachat.next.session;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import kitra.awachat.next.cluster.MessageRouter;
+import kitra.awachat.next.cluster.PresenceRegistry;
+import kitra.awachat.next.cluster.RoutedMessage;
+import kitra.awachat.next.codec.FrameCompressor;
+import kitra.awachat.next.codec.WebSocketMessageCodec;
+import kitra.awachat.next.codec.WireFormat;
+import kitra.awachat.next.dto.websocket.ChatMessageData;
+import kitra.awachat.next.dto.websocket.WebSocketMessage;
 import kitra.awachat.next.service.UserService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.AbstractWebSocketMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
-import java.util.Collections;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
- * 管理 WebSocket 连接与用户之间的对应关系，实现一个会话管理器
+ * 管理 WebSocket 连接与用户之间的对应关系，实现一个会话管理器。
+ * <p>
+ * 本节点的会话保存在内存中；多节点部署时通过 {@link PresenceRegistry} 记录用户在哪些节点上，
+ * 发给其他节点上用户的消息由 {@link MessageRouter} 只转发给这些节点
  */
 @Component
 public class WebSocketSessionManager {
-    // 用户ID -> Session 映射 (支持单用户多设备)
-    private final ConcurrentMap<Integer, Set<WebSocketSession>> userSessions = new ConcurrentHashMap<>();
+    // 会话属性中保存 QueuedWebSocketSession 的键
+    private static final String OUTBOUND_SESSION_ATTRIBUTE = "outboundSession";
+    private static final WireFormat[] WIRE_FORMATS = WireFormat.values();
 
-    // Session ID -> 用户ID 映射
-    private final ConcurrentMap<String, Integer> sessionToUser = new ConcurrentHashMap<>();
+    // 用户ID -> Session 映射 (支持单用户多设备)。Session 对应的用户ID保存在 QueuedWebSocketSession 中，不需要反向映射
+    private final SessionRegistry<QueuedWebSocketSession> userSessions;
 
     private final UserService userService;
+    private final ObjectProvider<OutboundSpillHandler> spillHandler;
+    private final WebSocketMessageCodec codec;
+    private final MessageRouter messageRouter;
+    private final PresenceRegistry presenceRegistry;
+    private final IdleConnectionReaper idleReaper;
+    private final DeliveryRetransmitter retransmitter;
+    private final String nodeId;
+    private final Logger logger = LogManager.getLogger(WebSocketSessionManager.class);
+
+    // 发送队列配置
+    private final int queueLimit;
+    private final OverflowPolicy overflowPolicy;
+    private final ExecutorService writerExecutor;
+    private final QueuedWebSocketSession.OutboundQueueListener queueListener;
+
+    // 送达确认配置
+    private final int inFlightWindow;
 
-    public WebSocketSessionManager(UserService userService) {
+    // awachat.cbor.deflate 和 awachat.json.deflate 子协议的压缩配置
+    private final int compressionMinSize;
+    private final int compressionLevel;
+
+    public WebSocketSessionManager(UserService userService, ObjectProvider<OutboundSpillHandler> spillHandler,
+                                   WebSocketMessageCodec codec, MessageRouter messageRouter,
+                                   PresenceRegistry presenceRegistry, IdleConnectionReaper idleReaper,
+                                   DeliveryRetransmitter retransmitter, MeterRegistry meterRegistry,
+                                   @Value("${awachat.websocket.outbound.queue-limit:1000}") int queueLimit,
+                                   @Value("${awachat.websocket.outbound.overflow-policy:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                                   @Value("${awachat.websocket.registry-stripes:64}") int registryStripes,
+                                   @Value("${awachat.websocket.outbound.writer-threads:8}") int writerThreads,
+                                   @Value("${awachat.websocket.delivery.window:256}") int inFlightWindow,
+                                   @Value("${awachat.websocket.compression.min-size:512}") int compressionMinSize,
+                                   @Value("${awachat.websocket.compression.level:6}") int compressionLevel) {
         this.userService = userService;
+        this.spillHandler = spillHandler;
+        this.codec = codec;
+        this.messageRouter = messageRouter;
+        this.presenceRegistry = presenceRegistry;
+        this.idleReaper = idleReaper;
+        this.retransmitter = retransmitter;
+        this.nodeId = messageRouter.getNodeId();
+        this.userSessions = new SessionRegistry<>(registryStripes, QueuedWebSocketSession[]::new);
+        this.queueLimit = queueLimit;
+        this.overflowPolicy = overflowPolicy;
+        this.inFlightWindow = inFlightWindow;
+        this.compressionMinSize = compressionMinSize;
+        this.compressionLevel = compressionLevel;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.writerExecutor = Executors.newFixedThreadPool(writerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "websocket-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queueListener = new MeteredQueueListener(meterRegistry);
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        messageRouter.subscribe(this::deliverRouted);
+        presenceRegistry.setLocalUsers(() -> {
+            List<Integer> users = new ArrayList<>();
+            userSessions.forEachUser(users::add);
+            return users;
+        });
     }
 
     /**
@@ -31,14 +123,21 @@ public class WebSocketSessionManager {
      *
      * @param userId  Session 对应的用户ID
      * @param session WebSocketSession 实例
+     * @return 包装了发送队列的会话，之后向该连接发送消息都应通过它进行
      */
-    public void addSession(Integer userId, WebSocketSession session) {
-        userSessions.compute(userId, (key, sessions) -> {
-            if (sessions == null) sessions = ConcurrentHashMap.newKeySet();
-            sessions.add(session);
-            return sessions;
-        });
-        sessionToUser.put(session.getId(), userId);
+    public QueuedWebSocketSession addSession(Integer userId, WebSocketSession session) {
+        FrameCompressor compressor = WireFormat.fromSubProtocol(session.getAcceptedProtocol()).isCompressed()
+            ? new FrameCompressor(compressionMinSize, compressionLevel)
+            : null;
+        QueuedWebSocketSession queuedSession = new QueuedWebSocketSession(
+            session, userId, compressor, queueLimit, overflowPolicy, writerExecutor, queueListener, inFlightWindow);
+        session.getAttributes().put(OUTBOUND_SESSION_ATTRIBUTE, queuedSession);
+        // 用户在本节点的第一个会话，登记到在线记录中
+        if (userSessions.add(userId, queuedSession)) {
+            syncPresence(userId);
+        }
+        idleReaper.track(queuedSession, () -> closeIdleSession(queuedSession));
+        return queuedSession;
     }
 
     /**
@@ -47,39 +146,293 @@ public class WebSocketSessionManager {
      * @param session WebSocketSession 实例
      */
     public void removeSession(WebSocketSession session) {
-        Integer userId = sessionToUser.remove(session.getId());
-        if (userId != null) {
-            // 因为一个用户 ID 对应的是一个 Set，所以要对该 Set 进行操作
-            boolean allSessionsClosed = userSessions.computeIfPresent(userId, (key, sessions) -> {
-                sessions.remove(session);
-                return sessions.isEmpty() ? null : sessions;
-            }) == null;
-
-            // 如果用户的所有会话都已关闭，更新最后在线时间
-            if (allSessionsClosed) {
-                userService.updateLastOnlineTime(userId);
+        // 连接关闭和传输错误都会调用，只处理第一次
+        if (!(session.getAttributes().get(OUTBOUND_SESSION_ATTRIBUTE) instanceof QueuedWebSocketSession queuedSession)
+            || !queuedSession.discard()) {
+            return;
+        }
+        logCompressionStats(queuedSession);
+
+        // 如果用户的所有会话都已关闭，注销在线记录并更新最后在线时间
+        int userId = queuedSession.getUserId();
+        if (userSessions.remove(userId, queuedSession)) {
+            syncPresence(userId);
+            userService.updateLastOnlineTime(userId);
+        }
+    }
+
+    /**
+     * 关闭空闲超时的连接。半开连接不一定会触发 afterConnectionClosed，因此先从管理器中移除，不再向它发送消息
+     */
+    private void closeIdleSession(QueuedWebSocketSession session) {
+        // 向失联的客户端发送关闭帧可能阻塞，不占用时间轮线程
+        writerExecutor.execute(() -> {
+            logger.info("会话 {} 空闲超时，关闭连接", session.getId());
+            removeSession(session);
+            try {
+                session.getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("关闭空闲会话 {} 失败", session.getId(), e);
             }
+        });
+    }
+
+    /**
+     * 收到客户端消息时调用，更新连接的最近活动时间
+     *
+     * @param session 容器传入的 WebSocketSession 实例
+     */
+    public void touch(WebSocketSession session) {
+        if (session.getAttributes().get(OUTBOUND_SESSION_ATTRIBUTE) instanceof QueuedWebSocketSession queuedSession) {
+            queuedSession.touch();
+        }
+    }
+
+    /**
+     * 按本节点当前是否有该用户的会话登记或注销在线记录。
+     * <p>
+     * 最后一个会话关闭和新会话建立同时发生时，两个线程的 Redis 操作可能乱序到达，如注销晚于登记，
+     * 用户仍连接在本节点却不在在线记录中。因此写入后再检查一次，状态已经变化时按新的状态重新写入，
+     * 最后完成写入的线程写入的总是它检查之后的状态
+     */
+    private void syncPresence(int userId) {
+        boolean online;
+        do {
+            online = userSessions.contains(userId);
+            updatePresence(userId, online);
+        } while (userSessions.contains(userId) != online);
+    }
+
+    private void updatePresence(int userId, boolean online) {
+        try {
+            if (online) {
+                presenceRegistry.register(userId);
+            } else {
+                presenceRegistry.unregister(userId);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("更新用户 {} 的在线记录失败", userId, e);
         }
     }
 
     /**
-     * 获取一个用户的所有会话
+     * 连接关闭时输出该连接的压缩统计，用于调整压缩阈值和级别
+     */
+    private void logCompressionStats(QueuedWebSocketSession session) {
+        FrameCompressor compressor = session.getCompressor();
+        if (compressor == null || compressor.getRawBytes() == 0) {
+            return;
+        }
+        logger.info("会话 {} 压缩统计：原始 {} 字节，发送 {} 字节，节省 {} 字节，压缩 {} 帧，耗时 {} 微秒",
+            session.getId(), compressor.getRawBytes(), compressor.getWireBytes(),
+            compressor.getRawBytes() - compressor.getWireBytes(), compressor.getCompressedFrames(),
+            compressor.getCompressNanos() / 1000);
+    }
+
+    /**
+     * 获取一个连接对应的带发送队列的会话。连接尚未注册时返回原会话
+     *
+     * @param session 容器传入的 WebSocketSession 实例
+     */
+    public WebSocketSession getOutboundSession(WebSocketSession session) {
+        Object queuedSession = session.getAttributes().get(OUTBOUND_SESSION_ATTRIBUTE);
+        return queuedSession != null ? (WebSocketSession) queuedSession : session;
+    }
+
+    /**
+     * 获取一个用户在本节点的所有会话
      *
      * @param userId 用户ID
-     * @return 含有该用户所有 WebSocketSession 的 Set
+     * @return 含有该用户所有会话的数组，不可修改；没有会话时为空数组
+     */
+    public QueuedWebSocketSession[] getSessionsByUser(int userId) {
+        return userSessions.get(userId);
+    }
+
+    /**
+     * 按连接协商的编码格式向一个连接发送消息
+     *
+     * @param session 容器传入的 WebSocketSession 实例
+     * @param message 要发送的消息
+     */
+    public void sendToSession(WebSocketSession session, WebSocketMessage<?> message) throws IOException {
+        getOutboundSession(session).sendMessage(codec.toFrame(message, getWireFormat(session)));
+    }
+
+    /**
+     * 按连接协商的编码格式向一个连接发送消息，消息写入连接后调用 onSent
+     *
+     * @param session 容器传入的 WebSocketSession 实例
+     * @param message 要发送的消息
+     * @param onSent  发送成功后的回调，在写线程中执行
+     */
+    public void sendToSession(WebSocketSession session, WebSocketMessage<?> message, Runnable onSent) throws IOException {
+        AbstractWebSocketMessage<?> frame = codec.toFrame(message, getWireFormat(session));
+        if (getOutboundSession(session) instanceof QueuedWebSocketSession queuedSession) {
+            queuedSession.send(frame, onSent);
+        } else {
+            session.sendMessage(frame);
+            onSent.run();
+        }
+    }
+
+    /**
+     * 获取连接在握手时协商出的消息编码格式
+     *
+     * @param session 容器传入的 WebSocketSession 实例
+     */
+    public WireFormat getWireFormat(WebSocketSession session) {
+        return getOutboundSession(session) instanceof QueuedWebSocketSession queuedSession
+            ? queuedSession.getWireFormat()
+            : WireFormat.fromSubProtocol(session.getAcceptedProtocol());
+    }
+
+    /**
+     * 把一条消息发送给若干用户的所有在线会话，包括其他节点上的会话。
+     * <p>
+     * 每种编码格式的消息只序列化一次，得到的帧不可变，使用同一格式的会话的发送队列共享同一个实例。
+     * 其他节点上的接收者按节点分组，每个节点只转发一次。
+     * 接收者不在线时，聊天消息交给 {@link OutboundSpillHandler} 记录，待其下次连接时补发
+     *
+     * @param message 要发送的消息
+     * @param userIds 接收消息的用户ID，重复的ID只发送一次
+     * @return 消息放入的本节点会话数量
+     */
+    public int sendToUsers(WebSocketMessage<?> message, Integer... userIds) {
+        Long messageId = message.data() instanceof ChatMessageData<?> chatMessageData ? chatMessageData.id() : null;
+        Set<Integer> recipients = new LinkedHashSet<>(Arrays.asList(userIds));
+        Map<Integer, Set<String>> locations = locate(recipients);
+        // 节点ID -> 该节点上的接收者
+        Map<String, List<Integer>> remoteRecipients = new HashMap<>();
+        FrameCache frames = new FrameCache(message);
+        int delivered = 0;
+        for (Integer userId : recipients) {
+            boolean onOtherNode = false;
+            for (String node : locations.getOrDefault(userId, Set.of())) {
+                if (!node.equals(nodeId)) {
+                    remoteRecipients.computeIfAbsent(node, key -> new ArrayList<>()).add(userId);
+                    onOtherNode = true;
+                }
+            }
+            QueuedWebSocketSession[] sessions = getSessionsByUser(userId);
+            if (sessions.length == 0) {
+                if (!onOtherNode) {
+                    // 聊天消息记录下来，在接收者下次连接时补发
+                    spill(userId, messageId);
+                    logger.debug("接收者 {} 不在线，消息将在其上线后发送", userId);
+                }
+                continue;
+            }
+            try {
+                delivered += sendToLocalSessions(sessions, frames, messageId);
+            } catch (JsonProcessingException e) {
+                logger.error("序列化消息失败", e);
+                return delivered;
+            }
+        }
+        remoteRecipients.forEach((node, users) -> route(node, users, frames, messageId));
+        return delivered;
+    }
+
+    /**
+     * 查询接收者所在的节点。在线记录不可用时只投递到本节点
      */
-    public Set<WebSocketSession> getSessionsByUser(Integer userId) {
-        return userSessions.getOrDefault(userId, Collections.emptySet());
+    private Map<Integer, Set<String>> locate(Set<Integer> userIds) {
+        try {
+            return presenceRegistry.locate(userIds);
+        } catch (RuntimeException e) {
+            logger.warn("查询在线记录失败，只向本节点的会话发送消息", e);
+            return Map.of();
+        }
+    }
+
+    private int sendToLocalSessions(QueuedWebSocketSession[] sessions, FrameCache frames, @Nullable Long messageId)
+        throws JsonProcessingException {
+        int delivered = 0;
+        for (QueuedWebSocketSession session : sessions) {
+            session.send(frames.get(session.getWireFormat()), messageId);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * 把消息转发给其他节点。目标节点已下线时清理它留下的在线记录，并把聊天消息记录为待补发
+     */
+    private void route(String node, List<Integer> users, FrameCache frames, @Nullable Long messageId) {
+        boolean published;
+        try {
+            RoutedMessage routedMessage = new RoutedMessage(
+                users.stream().mapToInt(Integer::intValue).toArray(), messageId, frames.json());
+            published = messageRouter.publish(node, routedMessage);
+            if (!published) {
+                logger.warn("节点 {} 已下线，清理其中 {} 个用户的在线记录", node, users.size());
+                presenceRegistry.evict(node, users);
+            }
+        } catch (JsonProcessingException e) {
+            logger.error("序列化消息失败", e);
+            return;
+        } catch (RuntimeException e) {
+            logger.warn("向节点 {} 转发消息失败", node, e);
+            published = false;
+        }
+        if (!published) {
+            for (Integer userId : users) {
+                if (!userSessions.contains(userId)) {
+                    spill(userId, messageId);
+                }
+            }
+        }
     }
 
     /**
-     * 获取一个 WebSocketSession 对应的用户ID
+     * 接收其他节点转发来的消息，发送给本节点上接收者的会话
+     */
+    private void deliverRouted(RoutedMessage routedMessage) {
+        // 按 WireFormat 下标缓存转换好的帧
+        AbstractWebSocketMessage<?>[] frames = new AbstractWebSocketMessage<?>[WIRE_FORMATS.length];
+        for (int userId : routedMessage.userIds()) {
+            QueuedWebSocketSession[] sessions = getSessionsByUser(userId);
+            if (sessions.length == 0) {
+                // 转发途中接收者已离开本节点
+                spill(userId, routedMessage.messageId());
+                continue;
+            }
+            for (QueuedWebSocketSession session : sessions) {
+                int formatIndex = session.getWireFormat().ordinal();
+                if (frames[formatIndex] == null) {
+                    try {
+                        frames[formatIndex] = codec.transcodeFrame(routedMessage.payload(), session.getWireFormat());
+                    } catch (JsonProcessingException e) {
+                        logger.error("转换其他节点转发的消息失败", e);
+                        return;
+                    }
+                }
+                session.send(frames[formatIndex], routedMessage.messageId());
+            }
+        }
+    }
+
+    /**
+     * 用户在所有节点上都没有会话，聊天消息记录到他所有的设备
+     */
+    private void spill(int userId, @Nullable Long messageId) {
+        OutboundSpillHandler handler = spillHandler.getIfAvailable();
+        if (messageId != null && handler != null) {
+            handler.spill(userId, null, messageId);
+        }
+    }
+
+    /**
+     * 获取一个 WebSocketSession 对应的用户ID。用户ID随会话保存在会话属性中，不需要查表
      *
-     * @param sessionId WebSocketSession 实例
-     * @return 用户ID
+     * @param session 容器传入的 WebSocketSession 实例
+     * @return 用户ID，连接尚未注册或已关闭时为 null
      */
-    public Integer getUserIdBySession(String sessionId) {
-        return sessionToUser.get(sessionId);
+    @Nullable
+    public Integer getUserId(WebSocketSession session) {
+        return session.getAttributes().get(OUTBOUND_SESSION_ATTRIBUTE) instanceof QueuedWebSocketSession queuedSession
+            && !queuedSession.isDiscarded() ? queuedSession.getUserId() : null;
     }
 
     /**
@@ -88,6 +441,138 @@ public class WebSocketSessionManager {
      * @param userId 用户ID
      */
     public boolean isUserOnline(Integer userId) {
-        return userSessions.containsKey(userId);
+        return userSessions.contains(userId) || locate(Set.of(userId)).containsKey(userId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 正常停止时注销本节点所有用户的在线记录，避免其他节点继续转发过来
+        userSessions.forEachUser(userId -> updatePresence(userId, false));
+        writerExecutor.shutdown();
+    }
+
+    /**
+     * 一条消息按编码格式缓存的帧，需要时才编码
+     */
+    private class FrameCache {
+        private final WebSocketMessage<?> message;
+        // 按 WireFormat 下标缓存已编码的帧
+        private final AbstractWebSocketMessage<?>[] frames = new AbstractWebSocketMessage<?>[WIRE_FORMATS.length];
+        @Nullable
+        private String json;
+
+        private FrameCache(WebSocketMessage<?> message) {
+            this.message = message;
+        }
+
+        AbstractWebSocketMessage<?> get(WireFormat format) throws JsonProcessingException {
+            // 压缩格式在各连接的写线程中压缩，与未压缩的格式共用同一个帧
+            WireFormat encoding = format.getEncoding();
+            int formatIndex = encoding.ordinal();
+            if (frames[formatIndex] == null) {
+                frames[formatIndex] = codec.toFrame(message, encoding);
+            }
+            return frames[formatIndex];
+        }
+
+        /**
+         * 转发给其他节点的 JSON 文本，与 JSON 格式的帧共用同一次编码
+         */
+        String json() throws JsonProcessingException {
+            if (json == null) {
+                json = ((TextMessage) get(WireFormat.JSON)).getPayload();
+            }
+            return json;
+        }
+    }
+
+    /**
+     * 记录发送队列的指标，并把溢出的消息交给 OutboundSpillHandler
+     */
+    private class MeteredQueueListener implements QueuedWebSocketSession.OutboundQueueListener {
+        // 所有会话中等待发送的消息总数
+        private final AtomicLong queuedFrames = new AtomicLong();
+        private final DistributionSummary queueDepth;
+        private final MeterRegistry meterRegistry;
+        private final Counter spilled;
+        private final Counter retransmitted;
+        private final Counter compressionRawBytes;
+        private final Counter compressionWireBytes;
+        private final Timer compressionTime;
+
+        private MeteredQueueListener(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            Gauge.builder("awachat.websocket.outbound.queued", queuedFrames, AtomicLong::get)
+                .description("所有会话的发送队列中等待发送的消息总数")
+                .register(meterRegistry);
+            this.queueDepth = DistributionSummary.builder("awachat.websocket.outbound.queue.depth")
+                .description("消息入队时所在会话的发送队列长度")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+            this.spilled = Counter.builder("awachat.websocket.outbound.spilled")
+                .description("因发送队列已满而转存等待补发的消息数量")
+                .register(meterRegistry);
+            this.retransmitted = Counter.builder("awachat.websocket.delivery.retransmitted")
+                .description("超时未收到送达确认而重新发送的消息数量")
+                .register(meterRegistry);
+            this.compressionRawBytes = Counter.builder("awachat.websocket.compression.bytes.raw")
+                .description("启用压缩的连接上，消息压缩前的总字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+            this.compressionWireBytes = Counter.builder("awachat.websocket.compression.bytes.wire")
+                .description("启用压缩的连接上，实际发送的总字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+            this.compressionTime = Timer.builder("awachat.websocket.compression.time")
+                .description("压缩单帧的耗时，只统计达到阈值的帧")
+                .register(meterRegistry);
+        }
+
+        @Override
+        public void onEnqueued(int depth) {
+            queuedFrames.incrementAndGet();
+            queueDepth.record(depth);
+        }
+
+        @Override
+        public void onDequeued(int count) {
+            queuedFrames.addAndGet(-count);
+        }
+
+        @Override
+        public void onOverflow(OverflowPolicy policy) {
+            meterRegistry.counter("awachat.websocket.outbound.overflow", "policy", policy.name()).increment();
+        }
+
+        @Override
+        public void onSpill(QueuedWebSocketSession session, long messageId) {
+            OutboundSpillHandler handler = spillHandler.getIfAvailable();
+            if (handler == null) {
+                logger.warn("没有可用的溢出处理器，用户 {} 的消息 {} 被丢弃", session.getUserId(), messageId);
+                return;
+            }
+            spilled.increment();
+            // 只有这个连接所在的设备没有收到
+            handler.spill(session.getUserId(), (String) session.getAttributes().get(AuthHandshakeInterceptor.TOKEN_ATTRIBUTE), messageId);
+        }
+
+        @Override
+        public void onCompressed(FrameCompressor.Result result) {
+            compressionRawBytes.increment(result.rawBytes());
+            compressionWireBytes.increment(result.wireBytes());
+            if (result.nanos() > 0) {
+                compressionTime.record(result.nanos(), NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void onRetransmitted(int count) {
+            retransmitted.increment(count);
+        }
+
+        @Override
+        public void onAwaitingAck(QueuedWebSocketSession session) {
+            retransmitter.schedule(session);
+        }
     }
 }
@@ -0,0 +1,132 @@
+package kitra.awachat.next.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 哈希时间轮，用于大量低精度的定时任务（如连接的空闲检测）。
+ * <p>
+ * 轮上有 wheelSize 个槽，指针每个 tick 前进一格，到期时间落在同一格的任务放在同一个槽中，
+ * 超过一圈的任务记录剩余圈数。添加任务只是放入无锁队列，由时间轮线程在下一个 tick 放入对应的槽，
+ * 因此添加是 O(1)，每个 tick 只处理当前槽中的任务，与任务总数无关。
+ * <p>
+ * 任务在时间轮线程中执行，应当很快返回；到期时间的精度为一个 tick。任务不能取消，
+ * 不再需要的任务应当在执行时自行检查并直接返回（如会话已关闭）
+ */
+public final class HashedTimingWheel {
+    private final long tickNanos;
+    private final ArrayDeque<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    private final Logger logger = LogManager.getLogger(HashedTimingWheel.class);
+    private volatile boolean running = true;
+    // 已经处理到的 tick，只在时间轮线程中读写
+    private long currentTick = 0;
+
+    /**
+     * @param name      时间轮线程的名称
+     * @param tick      指针前进一格的时间，即定时精度
+     * @param wheelSize 槽的数量，向上取整为 2 的幂
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(String name, Duration tick, int wheelSize) {
+        this.tickNanos = Math.max(tick.toNanos(), TimeUnit.MILLISECONDS.toNanos(1));
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) * 2 - 1);
+        this.wheel = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 添加一个在指定时间执行的定时任务
+     *
+     * @param task          到期后在时间轮线程中执行的任务
+     * @param deadlineNanos 到期时间，与 {@link System#nanoTime()} 比较，已过期时在下一个 tick 执行
+     */
+    public void scheduleAt(Runnable task, long deadlineNanos) {
+        if (running) {
+            pending.offer(new Timeout(task, deadlineNanos - startNanos));
+        }
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (currentTick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+            transferPending();
+            expire(wheel[(int) (currentTick & mask)]);
+            currentTick++;
+        }
+    }
+
+    /**
+     * 把新添加的任务放入对应的槽，已经过期的任务放入当前槽
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            // 第 n 个 tick 在 (n + 1) * tickNanos 时处理，负责到期时间落在 [n * tickNanos, (n + 1) * tickNanos) 的任务
+            long ticks = Math.max(Math.floorDiv(timeout.deadline, tickNanos), currentTick);
+            timeout.remainingRounds = (ticks - currentTick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                iterator.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    logger.error("定时任务执行失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 已添加的定时任务
+     */
+    private static final class Timeout {
+        private final Runnable task;
+        // 相对于时间轮启动时间的到期时间
+        private final long deadline;
+        // 还需要转过的圈数，只在时间轮线程中读写
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package kitra.awachat.next.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 按块分配ID。每次从数据库序列取出一个块的起始值，块内的ID通过 AtomicLong 无锁分配，块用完时才加锁取下一个块。
+ * <p>
+ * 序列只增不减，所以同一个节点分配出的块是递增的，块内的ID也是递增的
+ */
+public class IdBlockAllocator {
+    private final LongSupplier blockStartSupplier;
+    private final int blockSize;
+    private volatile Block current = new Block(0, 0);
+
+    /**
+     * @param blockStartSupplier 取出一个新块的起始ID，例如执行一次 nextval
+     * @param blockSize          每个块包含的ID数量，应与序列的 INCREMENT 相同
+     */
+    public IdBlockAllocator(LongSupplier blockStartSupplier, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.blockStartSupplier = blockStartSupplier;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * 分配一个ID
+     */
+    public long nextId() {
+        while (true) {
+            Block block = current;
+            long id = block.next.getAndIncrement();
+            if (id < block.end) {
+                return id;
+            }
+            // 当前块已用完，只有一个线程去取新块，其余线程等待后重试
+            synchronized (this) {
+                if (current == block) {
+                    long start = blockStartSupplier.getAsLong();
+                    current = new Block(start, start + blockSize);
+                }
+            }
+        }
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
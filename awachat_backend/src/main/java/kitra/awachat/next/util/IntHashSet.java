@@ -0,0 +1,167 @@
+package kitra.awachat.next.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * 不可变的 int 集合，使用开放寻址的 int 数组存储，不对元素装箱。
+ * <p>
+ * 修改操作返回新的集合（写时复制），因此可以在多个线程之间共享而不需要加锁
+ */
+public final class IntHashSet {
+    private static final IntHashSet EMPTY = new IntHashSet(new int[2], false, 0);
+
+    // 0 作为空槽位的标记，集合是否包含 0 单独记录
+    private final int[] table;
+    private final boolean containsZero;
+    private final int size;
+
+    private IntHashSet(int[] table, boolean containsZero, int size) {
+        this.table = table;
+        this.containsZero = containsZero;
+        this.size = size;
+    }
+
+    public static IntHashSet empty() {
+        return EMPTY;
+    }
+
+    public static IntHashSet of(Collection<Integer> values) {
+        int[] table = new int[tableSizeFor(values.size())];
+        boolean containsZero = false;
+        int size = 0;
+        for (int value : values) {
+            if (value == 0) {
+                if (!containsZero) {
+                    containsZero = true;
+                    size++;
+                }
+            } else if (insert(table, value)) {
+                size++;
+            }
+        }
+        return new IntHashSet(table, containsZero, size);
+    }
+
+    public boolean contains(int value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == value) {
+                return true;
+            }
+            if (slot == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 返回加入了 value 的新集合，已包含时返回自身
+     */
+    public IntHashSet with(int value) {
+        if (contains(value)) {
+            return this;
+        }
+        if (value == 0) {
+            return new IntHashSet(table, true, size + 1);
+        }
+        int[] newTable = new int[tableSizeFor(size + 1)];
+        copyInto(newTable);
+        insert(newTable, value);
+        return new IntHashSet(newTable, containsZero, size + 1);
+    }
+
+    /**
+     * 返回去掉了 value 的新集合，不包含时返回自身
+     */
+    public IntHashSet without(int value) {
+        if (!contains(value)) {
+            return this;
+        }
+        if (value == 0) {
+            return new IntHashSet(table, false, size - 1);
+        }
+        // 开放寻址不能直接清空槽位，重新建表
+        int[] newTable = new int[tableSizeFor(size - 1)];
+        for (int slot : table) {
+            if (slot != 0 && slot != value) {
+                insert(newTable, slot);
+            }
+        }
+        return new IntHashSet(newTable, containsZero, size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 以数组形式返回所有元素，顺序不确定
+     */
+    public int[] toArray() {
+        int[] result = new int[size];
+        int index = 0;
+        if (containsZero) {
+            result[index++] = 0;
+        }
+        for (int slot : table) {
+            if (slot != 0) {
+                result[index++] = slot;
+            }
+        }
+        return result;
+    }
+
+    private void copyInto(int[] newTable) {
+        for (int slot : table) {
+            if (slot != 0) {
+                insert(newTable, slot);
+            }
+        }
+    }
+
+    /**
+     * @return 是否新插入了元素
+     */
+    private static boolean insert(int[] table, int value) {
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == value) {
+                return false;
+            }
+            if (slot == 0) {
+                table[i] = value;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 负载因子不超过 0.5 的 2 的幂次表长
+     */
+    private static int tableSizeFor(int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+        return Math.max(capacity, 2);
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        int[] values = toArray();
+        Arrays.sort(values);
+        return Arrays.toString(values);
+    }
+}
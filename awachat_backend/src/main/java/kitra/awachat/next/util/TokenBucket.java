@@ -0,0 +1,63 @@
+package kitra.awachat.next.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁的令牌桶，用于限流。
+ * <p>
+ * 按 GCRA（通用信元速率算法）实现，与令牌桶等价：不保存令牌数量和上次补充的时间，只保存一个“理论到达时间”，
+ * 即按固定速率消耗完已经取走的令牌所需的时间点。取令牌时把它推后一个间隔，推后之后超出当前时间不到 burst 个间隔就允许，
+ * 否则拒绝。整个状态是一个 long，用 CAS 更新，不需要加锁，也不需要定时补充令牌
+ */
+public final class TokenBucket {
+    // 生成一个令牌的时间
+    private final long intervalNanos;
+    // 桶的容量对应的时间，即 burst 个间隔
+    private final long capacityNanos;
+    // 理论到达时间，与 System.nanoTime() 比较
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * 创建一个装满令牌的桶
+     *
+     * @param permitsPerSecond 每秒生成的令牌数，必须大于 0
+     * @param burst            桶的容量，即允许连续取走的令牌数，至少为 1
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond 必须大于 0");
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.capacityNanos = intervalNanos * Math.max(burst, 1);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 尝试取走一个令牌
+     *
+     * @return 是否取到
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * 按给定的当前时间尝试取走一个令牌
+     *
+     * @param nowNanos 当前时间，与 {@link System#nanoTime()} 比较
+     */
+    public boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long current = theoreticalArrival.get();
+            // 空闲了一段时间时，桶最多装满，从当前时间开始计算
+            long next = (current - nowNanos < 0 ? nowNanos : current) + intervalNanos;
+            if (next - nowNanos > capacityNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package kitra.awachat.next;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import kitra.awachat.next.dto.chat.ChatInfo;
+import kitra.awachat.next.dto.chat.ChatType;
+import kitra.awachat.next.dto.chat.PrivateChatInfo;
+import kitra.awachat.next.entity.PrivateChatEntity;
+import kitra.awachat.next.entity.PrivateMessageAcknowledgeEntity;
+import kitra.awachat.next.entity.PrivateMessageEntity;
+import kitra.awachat.next.entity.UserEntity;
+import kitra.awachat.next.mapper.PrivateChatMapper;
+import kitra.awachat.next.mapper.PrivateMessageAcknowledgeMapper;
+import kitra.awachat.next.mapper.PrivateMessageMapper;
+import kitra.awachat.next.mapper.UserMapper;
+import kitra.awachat.next.service.ChatService;
+import kitra.awachat.next.service.UnreadCounterService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 验证会话列表的单条查询实现与旧实现（每个会话多次查询）返回相同的结果。
+ * 两者的耗时对比见 src/jmh 中的 ChatListQueryBenchmark
+ */
+@SpringBootTest
+public class ChatListQueryTest {
+    private static final int CHAT_COUNT = 20;
+    private static final int MESSAGES_PER_CHAT = 6;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ChatService chatService;
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+    @Autowired
+    private UserMapper userMapper;
+    @Autowired
+    private PrivateChatMapper privateChatMapper;
+    @Autowired
+    private PrivateMessageMapper privateMessageMapper;
+    @Autowired
+    private PrivateMessageAcknowledgeMapper privateMessageAcknowledgeMapper;
+
+    @Test
+    @Transactional // 测试数据在结束后回滚
+    public void chatListMatchesLegacyQueries() {
+        int userId = seed();
+
+        // 两种实现的结果必须一致
+        Map<Long, PrivateChatInfo> expected = toMap(legacyGetChatList(userId));
+        Map<Long, PrivateChatInfo> actual = toMap(chatService.getChatList(userId));
+        assertEquals(CHAT_COUNT, expected.size());
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((chatId, info) -> {
+            PrivateChatInfo other = actual.get(chatId);
+            assertEquals(info.userId(), other.userId());
+            assertEquals(info.username(), other.username());
+            assertEquals(info.lastMessageContent(), other.lastMessageContent());
+            assertEquals(info.unreadCount(), other.unreadCount());
+        });
+    }
+
+    /**
+     * 插入一个用户、与其相关的 CHAT_COUNT 个会话和每个会话 MESSAGES_PER_CHAT 条消息，一半的会话有已读记录
+     *
+     * @return 插入的用户ID
+     */
+    private int seed() {
+        Integer userId = jdbcTemplate.queryForObject(
+            "INSERT INTO \"user\" (username, nickname, password) VALUES ('bench_owner', 'bench_owner', 'x') RETURNING user_id",
+            Integer.class);
+        assertNotNull(userId);
+        jdbcTemplate.update(
+            "INSERT INTO \"user\" (username, nickname, password) " +
+                "SELECT 'bench_peer_' || g, 'bench_peer_' || g, 'x' FROM generate_series(1, ?) g",
+            CHAT_COUNT);
+        jdbcTemplate.update(
+            "INSERT INTO private_chat (user1_id, user2_id) " +
+                "SELECT LEAST(?, u.user_id), GREATEST(?, u.user_id) FROM \"user\" u WHERE u.username LIKE 'bench_peer_%'",
+            userId, userId);
+        jdbcTemplate.update(
+            "INSERT INTO private_message (chat_id, sender_id, receiver_id, content, content_type, sender_seq, receiver_seq) " +
+                "SELECT c.chat_id, " +
+                "       CASE WHEN g % 2 = 0 THEN c.user1_id ELSE c.user2_id END, " +
+                "       CASE WHEN g % 2 = 0 THEN c.user2_id ELSE c.user1_id END, " +
+                "       jsonb_build_object('content', 'message ' || g), 0, 0, 0 " +
+                "FROM private_chat c, generate_series(1, ?) g " +
+                "WHERE c.user1_id = ? OR c.user2_id = ? " +
+                "ORDER BY c.chat_id, g",
+            MESSAGES_PER_CHAT, userId, userId);
+        // 与 sql/migration/019_user_message_seq.sql 相同，按消息ID为每个用户的消息编号
+        jdbcTemplate.update(
+            "WITH seeded AS (SELECT message_id, sender_id, receiver_id FROM private_message " +
+                "                WHERE chat_id IN (SELECT chat_id FROM private_chat WHERE user1_id = ? OR user2_id = ?)), " +
+                "     timeline AS (SELECT message_id, is_receiver, " +
+                "                         row_number() OVER (PARTITION BY user_id ORDER BY message_id, is_receiver) AS seq " +
+                "                  FROM (SELECT message_id, sender_id AS user_id, FALSE AS is_receiver FROM seeded " +
+                "                        UNION ALL SELECT message_id, receiver_id, TRUE FROM seeded) t) " +
+                "UPDATE private_message m SET sender_seq = s.seq, receiver_seq = r.seq " +
+                "FROM timeline s, timeline r " +
+                "WHERE s.message_id = m.message_id AND NOT s.is_receiver AND r.message_id = m.message_id AND r.is_receiver",
+            userId, userId);
+        jdbcTemplate.update(
+            "UPDATE private_chat c SET last_message_id = (SELECT MAX(m.message_id) FROM private_message m WHERE m.chat_id = c.chat_id) " +
+                "WHERE c.user1_id = ? OR c.user2_id = ?",
+            userId, userId);
+        jdbcTemplate.update(
+            "INSERT INTO private_message_acknowledge (chat_id, user_id, last_message_id, last_seq) " +
+                "SELECT c.chat_id, ?, m.message_id, CASE WHEN m.receiver_id = ? THEN m.receiver_seq ELSE m.sender_seq END " +
+                "FROM private_chat c " +
+                "CROSS JOIN LATERAL (SELECT * FROM private_message m WHERE m.chat_id = c.chat_id " +
+                "                    ORDER BY m.message_id OFFSET ? LIMIT 1) m " +
+                "WHERE (c.user1_id = ? OR c.user2_id = ?) AND c.chat_id % 2 = 0",
+            userId, userId, MESSAGES_PER_CHAT / 2, userId, userId);
+        // 直接用 SQL 插入的消息不会经过计数维护，需要重建一次
+        unreadCounterService.rebuildAll();
+        return userId;
+    }
+
+    private Map<Long, PrivateChatInfo> toMap(List<ChatInfo<PrivateChatInfo>> chatList) {
+        Map<Long, PrivateChatInfo> map = new HashMap<>();
+        for (ChatInfo<PrivateChatInfo> chatInfo : chatList) {
+            map.put(chatInfo.info().chatId(), chatInfo.info());
+        }
+        return map;
+    }
+
+    /**
+     * 原先 ChatService.getChatList 的实现：每个会话分别查询对方用户、最后一条消息、已读记录和未读数量
+     */
+    private List<ChatInfo<PrivateChatInfo>> legacyGetChatList(int currentUserId) {
+        QueryWrapper<PrivateChatEntity> queryWrapper = new QueryWrapper<>();
+        queryWrapper.eq("user1_id", currentUserId).or().eq("user2_id", currentUserId);
+        List<PrivateChatEntity> privateChatEntities = privateChatMapper.selectList(queryWrapper);
+
+        return privateChatEntities.stream().map(chatEntity -> {
+            Integer otherUserId = chatEntity.getUser1Id().equals(currentUserId) ?
+                chatEntity.getUser2Id() : chatEntity.getUser1Id();
+            UserEntity otherUser = userMapper.selectById(otherUserId);
+
+            PrivateMessageEntity lastMessage;
+            if (chatEntity.getLastMessageId() != null) {
+                lastMessage = privateMessageMapper.selectById(chatEntity.getLastMessageId());
+            } else {
+                QueryWrapper<PrivateMessageEntity> lastQuery = new QueryWrapper<>();
+                lastQuery.eq("chat_id", chatEntity.getChatId()).orderByDesc("message_id").last("limit 1");
+                lastMessage = privateMessageMapper.selectOne(lastQuery);
+            }
+            String lastMessageContent = lastMessage == null ? null
+                : Objects.toString(lastMessage.getContent().get("content"), null);
+
+            QueryWrapper<PrivateMessageAcknowledgeEntity> ackQuery = new QueryWrapper<>();
+            ackQuery.eq("chat_id", chatEntity.getChatId()).eq("user_id", currentUserId);
+            PrivateMessageAcknowledgeEntity ack = privateMessageAcknowledgeMapper.selectOne(ackQuery);
+            QueryWrapper<PrivateMessageEntity> unreadQuery = new QueryWrapper<>();
+            unreadQuery.eq("chat_id", chatEntity.getChatId()).eq("receiver_id", currentUserId).eq("is_deleted", false);
+            if (ack != null) {
+                unreadQuery.gt("message_id", ack.getLastMessageId());
+            }
+            int unreadCount = privateMessageMapper.selectCount(unreadQuery).intValue();
+
+            return new ChatInfo<>(ChatType.PRIVATE, new PrivateChatInfo(
+                chatEntity.getChatId(), otherUser.getUserId(), otherUser.getUsername(), otherUser.getNickname(),
+                chatEntity.getCreatedAt(), chatEntity.getUpdatedAt(), lastMessageContent, unreadCount));
+        }).toList();
+    }
+}
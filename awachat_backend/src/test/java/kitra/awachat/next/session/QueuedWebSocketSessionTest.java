@@ -0,0 +1,229 @@
+package kitra.awachat.next.session;
+
+import kitra.awachat.next.codec.FrameCompressor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 写线程池用直接执行的 Executor 代替，入队后立即在调用线程中发送
+ */
+public class QueuedWebSocketSessionTest {
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+    private WebSocketSession delegate;
+    private final List<String> sent = new ArrayList<>();
+    private final RecordingListener listener = new RecordingListener();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        delegate = mock(WebSocketSession.class);
+        when(delegate.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            WebSocketMessage<?> message = invocation.getArgument(0);
+            sent.add(message instanceof TextMessage text ? text.getPayload() : "ping");
+            return null;
+        }).when(delegate).sendMessage(any());
+    }
+
+    @Test
+    public void chatMessagesWaitForWindowWhileOtherFramesPass() {
+        QueuedWebSocketSession session = create(100, OverflowPolicy.DROP_OLDEST, 2);
+        session.acknowledge(new Long[0]);
+
+        sendChat(session, 1);
+        sendChat(session, 2);
+        sendChat(session, 3);
+        assertEquals(List.of("1", "2"), sent);
+        assertEquals(2, session.getInFlightCount());
+        assertEquals(1, session.getQueueDepth());
+
+        // 系统消息和 Ping 不受窗口限制，越过暂缓的聊天消息
+        session.sendMessage(new TextMessage("system"));
+        session.sendControl(new PingMessage());
+        sendChat(session, 4);
+        assertEquals(List.of("1", "2", "system", "ping"), sent);
+        assertEquals(2, session.getQueueDepth());
+
+        // 确认后按原顺序发送暂缓的聊天消息
+        session.acknowledge(new Long[]{1L});
+        assertEquals(List.of("1", "2", "system", "ping", "3"), sent);
+        session.acknowledge(new Long[]{2L, 3L});
+        assertEquals(List.of("1", "2", "system", "ping", "3", "4"), sent);
+        assertEquals(0, session.getQueueDepth());
+        assertEquals(1, listener.awaitingAck);
+    }
+
+    @Test
+    public void messagesBeforeAckModeAreNotTracked() {
+        QueuedWebSocketSession session = create(100, OverflowPolicy.DROP_OLDEST, 1);
+        sendChat(session, 1);
+        sendChat(session, 2);
+        assertEquals(List.of("1", "2"), sent);
+        assertEquals(0, session.getInFlightCount());
+        assertEquals(0, listener.awaitingAck);
+    }
+
+    @Test
+    public void expiredMessagesAreRetransmittedUntilAcknowledged() {
+        QueuedWebSocketSession session = create(100, OverflowPolicy.DROP_OLDEST, 10);
+        session.acknowledge(new Long[0]);
+        sendChat(session, 1);
+        sendChat(session, 2);
+        session.acknowledge(new Long[]{2L});
+
+        long start = System.nanoTime();
+        // 未超时时只返回下一次检查的时间
+        long next = session.retransmitExpired(start, TIMEOUT, 3);
+        assertTrue(next > start && next <= start + TIMEOUT);
+        assertEquals(List.of("1", "2"), sent);
+
+        long later = start + TIMEOUT;
+        assertEquals(later + TIMEOUT, session.retransmitExpired(later, TIMEOUT, 3));
+        assertEquals(List.of("1", "2", "1"), sent);
+        assertEquals(1, listener.retransmitted);
+        assertEquals(1, session.getInFlightCount());
+
+        // 确认后不再有在途消息，停止检查
+        session.acknowledge(new Long[]{1L});
+        assertEquals(-1, session.retransmitExpired(later + 2 * TIMEOUT, TIMEOUT, 3));
+        assertEquals(List.of("1", "2", "1"), sent);
+
+        // 再有在途消息时重新安排检查
+        sendChat(session, 3);
+        assertEquals(2, listener.awaitingAck);
+    }
+
+    @Test
+    public void exhaustedRetransmissionsCloseTheSession() throws Exception {
+        QueuedWebSocketSession session = create(100, OverflowPolicy.DROP_OLDEST, 10);
+        session.acknowledge(new Long[0]);
+        sendChat(session, 1);
+
+        long now = System.nanoTime() + TIMEOUT;
+        session.retransmitExpired(now, TIMEOUT, 2);
+        assertEquals(List.of("1", "1"), sent);
+        assertEquals(-1, session.retransmitExpired(now + TIMEOUT, TIMEOUT, 2));
+        verify(delegate).close(CloseStatus.SESSION_NOT_RELIABLE);
+
+        // 关闭后未确认的消息转存
+        assertTrue(session.discard());
+        assertEquals(List.of(1L), listener.spilled);
+    }
+
+    @Test
+    public void dropOldestSpillsDroppedChatMessages() {
+        QueuedWebSocketSession session = create(2, OverflowPolicy.DROP_OLDEST, 1);
+        session.acknowledge(new Long[0]);
+        sendChat(session, 1);
+        sendChat(session, 2);
+        sendChat(session, 3);
+        assertEquals(2, session.getQueueDepth());
+
+        // 队列已满，丢弃最早暂缓的消息 2
+        sendChat(session, 4);
+        assertEquals(List.of(2L), listener.spilled);
+        assertEquals(2, session.getQueueDepth());
+
+        session.acknowledge(new Long[]{1L});
+        session.acknowledge(new Long[]{3L});
+        assertEquals(List.of("1", "3", "4"), sent);
+    }
+
+    @Test
+    public void controlFramesIgnoreQueueLimit() {
+        QueuedWebSocketSession session = create(1, OverflowPolicy.DROP_OLDEST, 1);
+        session.acknowledge(new Long[0]);
+        sendChat(session, 1);
+        sendChat(session, 2);
+        session.sendControl(new PingMessage());
+        assertEquals(List.of("1", "ping"), sent);
+        assertTrue(listener.spilled.isEmpty());
+    }
+
+    @Test
+    public void spillPolicyRejectsNewChatMessages() {
+        QueuedWebSocketSession session = create(1, OverflowPolicy.SPILL, 1);
+        session.acknowledge(new Long[0]);
+        sendChat(session, 1);
+        sendChat(session, 2);
+        sendChat(session, 3);
+        assertEquals(List.of(3L), listener.spilled);
+
+        session.acknowledge(new Long[]{1L});
+        assertEquals(List.of("1", "2"), sent);
+    }
+
+    @Test
+    public void discardSpillsHeldAndInFlightMessages() {
+        QueuedWebSocketSession session = create(100, OverflowPolicy.DROP_OLDEST, 1);
+        session.acknowledge(new Long[0]);
+        sendChat(session, 1);
+        sendChat(session, 2);
+        session.sendMessage(new TextMessage("system"));
+
+        assertTrue(session.discard());
+        assertFalse(session.discard());
+        assertEquals(List.of(1L, 2L), listener.spilled.stream().sorted().toList());
+        assertEquals(0, session.getQueueDepth());
+
+        sendChat(session, 3);
+        assertEquals(List.of("1", "system"), sent);
+    }
+
+    private QueuedWebSocketSession create(int queueLimit, OverflowPolicy policy, int window) {
+        return new QueuedWebSocketSession(delegate, 1, null, queueLimit, policy, Runnable::run, listener, window);
+    }
+
+    private static void sendChat(QueuedWebSocketSession session, long messageId) {
+        session.send(new TextMessage(String.valueOf(messageId)), messageId);
+    }
+
+    private static final class RecordingListener implements QueuedWebSocketSession.OutboundQueueListener {
+        final List<Long> spilled = new ArrayList<>();
+        int retransmitted;
+        int awaitingAck;
+
+        @Override
+        public void onEnqueued(int depth) {
+        }
+
+        @Override
+        public void onDequeued(int count) {
+        }
+
+        @Override
+        public void onOverflow(OverflowPolicy policy) {
+        }
+
+        @Override
+        public void onSpill(QueuedWebSocketSession session, long messageId) {
+            spilled.add(messageId);
+        }
+
+        @Override
+        public void onCompressed(FrameCompressor.Result result) {
+        }
+
+        @Override
+        public void onRetransmitted(int count) {
+            retransmitted += count;
+        }
+
+        @Override
+        public void onAwaitingAck(QueuedWebSocketSession session) {
+            awaitingAck++;
+        }
+    }
+}
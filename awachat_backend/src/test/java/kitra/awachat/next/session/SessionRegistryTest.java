@@ -0,0 +1,148 @@
+package kitra.awachat.next.session;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionRegistryTest {
+
+    @Test
+    public void addAndRemoveReportFirstAndLastSession() {
+        SessionRegistry<Object> registry = new SessionRegistry<>(4, Object[]::new);
+        Object phone = new Object();
+        Object desktop = new Object();
+
+        assertTrue(registry.add(7, phone));
+        assertFalse(registry.add(7, desktop));
+        // 重复添加同一个会话
+        assertFalse(registry.add(7, phone));
+        assertArrayEquals(new Object[]{phone, desktop}, registry.get(7));
+        assertEquals(1, registry.userCount());
+
+        assertFalse(registry.remove(7, new Object()));
+        assertFalse(registry.remove(7, phone));
+        assertArrayEquals(new Object[]{desktop}, registry.get(7));
+        assertTrue(registry.remove(7, desktop));
+        assertFalse(registry.remove(7, desktop));
+
+        assertEquals(0, registry.get(7).length);
+        assertFalse(registry.contains(7));
+        assertEquals(0, registry.userCount());
+    }
+
+    @Test
+    public void zeroAndNegativeUserIds() {
+        SessionRegistry<Object> registry = new SessionRegistry<>(1, Object[]::new);
+        Object zero = new Object();
+        Object negative = new Object();
+        assertTrue(registry.add(0, zero));
+        assertTrue(registry.add(-1, negative));
+        assertTrue(registry.add(Integer.MIN_VALUE, negative));
+        assertSame(zero, registry.get(0)[0]);
+        assertSame(negative, registry.get(-1)[0]);
+        assertSame(negative, registry.get(Integer.MIN_VALUE)[0]);
+        assertFalse(registry.contains(1));
+        assertEquals(3, registry.userCount());
+
+        assertTrue(registry.remove(0, zero));
+        assertFalse(registry.contains(0));
+        assertTrue(registry.add(0, zero));
+        assertTrue(registry.contains(0));
+    }
+
+    /**
+     * 用户全部断开后键作为墓碑留在表中，同一用户重连时复用槽位，墓碑之后的用户仍然能找到
+     */
+    @Test
+    public void tombstonesAreReusedAndKeepProbeChains() {
+        SessionRegistry<Object> registry = new SessionRegistry<>(1, Object[]::new);
+        Map<Integer, Object> sessions = new HashMap<>();
+        for (int userId = 1; userId <= 3; userId++) {
+            sessions.put(userId, new Object());
+            registry.add(userId, sessions.get(userId));
+        }
+        assertTrue(registry.remove(2, sessions.get(2)));
+        assertFalse(registry.contains(2));
+        assertSame(sessions.get(1), registry.get(1)[0]);
+        assertSame(sessions.get(3), registry.get(3)[0]);
+
+        assertTrue(registry.add(2, sessions.get(2)));
+        assertSame(sessions.get(2), registry.get(2)[0]);
+        assertEquals(3, registry.userCount());
+    }
+
+    /**
+     * 每次都是新用户上线、旧用户下线，只留下墓碑而存活用户数不变，表必须重建而不能被墓碑占满
+     */
+    @Test
+    public void churnOfNewUsersRebuildsInsteadOfFillingUp() {
+        SessionRegistry<Object> registry = new SessionRegistry<>(1, Object[]::new);
+        Object session = new Object();
+        for (int userId = 1; userId <= 4; userId++) {
+            registry.add(userId, session);
+        }
+        for (int userId = 5; userId <= 100_000; userId++) {
+            assertTrue(registry.add(userId, session));
+            assertTrue(registry.remove(userId - 4, session));
+        }
+        assertEquals(4, registry.userCount());
+        for (int userId = 99_997; userId <= 100_000; userId++) {
+            assertTrue(registry.contains(userId));
+        }
+        assertFalse(registry.contains(99_996));
+        assertFalse(registry.contains(1));
+    }
+
+    /**
+     * 随机增删，期间多次扩容和重建，结果与 HashMap 一致
+     */
+    @Test
+    public void randomOperationsMatchHashMap() {
+        SessionRegistry<Object> registry = new SessionRegistry<>(4, Object[]::new);
+        Map<Integer, List<Object>> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            int userId = random.nextInt(5000) - 100;
+            List<Object> userSessions = expected.get(userId);
+            if (userSessions == null || random.nextInt(3) == 0) {
+                Object session = new Object();
+                assertEquals(userSessions == null, registry.add(userId, session));
+                expected.computeIfAbsent(userId, key -> new ArrayList<>()).add(session);
+            } else {
+                Object session = userSessions.remove(random.nextInt(userSessions.size()));
+                assertEquals(userSessions.isEmpty(), registry.remove(userId, session));
+                if (userSessions.isEmpty()) {
+                    expected.remove(userId);
+                }
+            }
+            if (i % 20_000 == 0) {
+                assertMatches(expected, registry);
+            }
+        }
+        assertMatches(expected, registry);
+    }
+
+    private static void assertMatches(Map<Integer, List<Object>> expected, SessionRegistry<Object> registry) {
+        assertEquals(expected.size(), registry.userCount());
+        for (int userId = -101; userId <= 5000; userId++) {
+            List<Object> userSessions = expected.get(userId);
+            Object[] actual = registry.get(userId);
+            if (userSessions == null) {
+                assertEquals(0, actual.length, "userId=" + userId);
+            } else {
+                assertEquals(new HashSet<>(userSessions), new HashSet<>(List.of(actual)), "userId=" + userId);
+            }
+        }
+        Set<Integer> users = new HashSet<>();
+        registry.forEachUser(userId -> assertTrue(users.add(userId)));
+        assertEquals(expected.keySet(), users);
+    }
+}
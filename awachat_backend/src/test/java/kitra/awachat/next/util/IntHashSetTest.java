@@ -0,0 +1,144 @@
+package kitra.awachat.next.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IntHashSetTest {
+
+    @Test
+    public void emptySetContainsNothing() {
+        IntHashSet empty = IntHashSet.empty();
+        assertTrue(empty.isEmpty());
+        assertEquals(0, empty.size());
+        assertEquals(0, empty.toArray().length);
+        assertFalse(empty.contains(0));
+        assertFalse(empty.contains(1));
+        assertFalse(empty.contains(-1));
+        assertSame(empty, empty.without(1));
+        assertTrue(IntHashSet.of(List.of()).isEmpty());
+    }
+
+    @Test
+    public void withAndWithoutReturnNewSets() {
+        IntHashSet empty = IntHashSet.empty();
+        IntHashSet one = empty.with(42);
+        assertNotSame(empty, one);
+        assertTrue(one.contains(42));
+        assertFalse(empty.contains(42));
+        assertEquals(1, one.size());
+
+        // 已包含或不包含时返回自身
+        assertSame(one, one.with(42));
+        assertSame(one, one.without(7));
+
+        IntHashSet none = one.without(42);
+        assertFalse(none.contains(42));
+        assertTrue(none.isEmpty());
+        assertTrue(one.contains(42));
+    }
+
+    @Test
+    public void zeroIsStoredSeparately() {
+        IntHashSet set = IntHashSet.of(List.of(0, 0, 5));
+        assertEquals(2, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(5));
+
+        IntHashSet withoutZero = set.without(0);
+        assertFalse(withoutZero.contains(0));
+        assertTrue(withoutZero.contains(5));
+        assertEquals(1, withoutZero.size());
+        assertTrue(withoutZero.with(0).contains(0));
+    }
+
+    @Test
+    public void extremeValues() {
+        IntHashSet set = IntHashSet.of(List.of(Integer.MIN_VALUE, Integer.MAX_VALUE, -1));
+        assertTrue(set.contains(Integer.MIN_VALUE));
+        assertTrue(set.contains(Integer.MAX_VALUE));
+        assertTrue(set.contains(-1));
+        assertFalse(set.contains(1));
+        assertEquals(3, set.size());
+    }
+
+    @Test
+    public void ofIgnoresDuplicates() {
+        IntHashSet set = IntHashSet.of(List.of(3, 1, 3, 2, 1));
+        assertEquals(3, set.size());
+        int[] values = set.toArray();
+        Arrays.sort(values);
+        assertArrayEquals(new int[]{1, 2, 3}, values);
+        assertEquals("[1, 2, 3]", set.toString());
+    }
+
+    @Test
+    public void growsOneElementAtATime() {
+        IntHashSet set = IntHashSet.empty();
+        for (int i = 1; i <= 1000; i++) {
+            set = set.with(i * 31);
+            assertEquals(i, set.size());
+        }
+        for (int i = 1; i <= 1000; i++) {
+            assertTrue(set.contains(i * 31));
+            assertFalse(set.contains(i * 31 + 1));
+        }
+    }
+
+    /**
+     * 元素远多于表长的一半时必然发生冲突，删除探测链中间的元素后，链上后面的元素仍然要能找到
+     */
+    @Test
+    public void collisionsAndRemovalMatchHashSet() {
+        Random random = new Random(12345);
+        Set<Integer> expected = new HashSet<>();
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // 取值范围小，既有重复也有大量冲突
+            int value = random.nextInt(20000) - 10000;
+            values.add(value);
+            expected.add(value);
+        }
+        IntHashSet set = IntHashSet.of(values);
+        assertMatches(expected, set);
+
+        for (int i = 0; i < 3000; i++) {
+            int value = random.nextInt(20000) - 10000;
+            if (random.nextBoolean()) {
+                set = set.with(value);
+                expected.add(value);
+            } else {
+                set = set.without(value);
+                expected.remove(value);
+            }
+            if (i % 500 == 0) {
+                assertMatches(expected, set);
+            }
+        }
+        assertMatches(expected, set);
+
+        for (int value : new ArrayList<>(expected)) {
+            set = set.without(value);
+        }
+        assertTrue(set.isEmpty());
+    }
+
+    private static void assertMatches(Set<Integer> expected, IntHashSet actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int value = -10001; value <= 10001; value++) {
+            assertEquals(expected.contains(value), actual.contains(value), "value=" + value);
+        }
+        int[] values = actual.toArray();
+        assertEquals(expected.size(), values.length);
+        for (int value : values) {
+            assertTrue(expected.contains(value));
+        }
+    }
+}
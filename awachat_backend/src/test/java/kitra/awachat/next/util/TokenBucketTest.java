@@ -0,0 +1,80 @@
+package kitra.awachat.next.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTest {
+    // 每秒 10 个令牌，即每 100 毫秒生成一个
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void newBucketAllowsBurstThenRejects() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(now), "第 " + (i + 1) + " 个令牌");
+        }
+        assertFalse(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now + INTERVAL - 1));
+    }
+
+    @Test
+    public void refillsOneTokenPerInterval() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            bucket.tryAcquire(now);
+        }
+        assertTrue(bucket.tryAcquire(now + INTERVAL));
+        assertFalse(bucket.tryAcquire(now + INTERVAL));
+
+        // 经过三个间隔补充三个令牌
+        long later = now + 4 * INTERVAL;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire(later));
+        }
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    public void steadyRateIsNeverRejected() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        long now = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(bucket.tryAcquire(now + i * INTERVAL));
+        }
+        assertFalse(bucket.tryAcquire(now + 999 * INTERVAL));
+    }
+
+    /**
+     * 空闲很久之后最多积累 burst 个令牌
+     */
+    @Test
+    public void idleTimeIsCappedAtBurst() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = System.nanoTime();
+        bucket.tryAcquire(now);
+
+        long later = now + TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(later));
+        }
+        assertFalse(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later + INTERVAL));
+    }
+
+    @Test
+    public void invalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 5));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(-1, 5));
+
+        // 容量不足 1 时按 1 处理
+        TokenBucket bucket = new TokenBucket(10, 0);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+    }
+}